@@ -177,6 +177,7 @@ public class JetaProcessor extends AbstractProcessor {
         addProcessor(new ObserverProcessor());
         addProcessor(new ProxyProcessor());
         addProcessor(new SubscribeProcessor());
+        addProcessor(new CodecProcessor());
         addProcessor(new ValidateProcessor());
         addProcessor(new TypeCollectorProcessor());
         addProcessor(new ObjectCollectorProcessor());
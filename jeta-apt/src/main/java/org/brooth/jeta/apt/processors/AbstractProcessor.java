@@ -37,6 +37,12 @@ public abstract class AbstractProcessor implements Processor {
 
     protected ProcessingContext processingContext;
 
+    /**
+     * emit java 8+ idioms (lambdas, locks, CompletableFuture) instead of java 7 ones.
+     * 'metacode.java8' property
+     */
+    protected boolean java8Metacode;
+
     public AbstractProcessor(Class<? extends Annotation> annotation) {
         this.annotation = annotation;
     }
@@ -47,6 +53,7 @@ public abstract class AbstractProcessor implements Processor {
 
     public void init(ProcessingContext processingContext) {
         this.processingContext = processingContext;
+        this.java8Metacode = "true".equals(processingContext.processingProperties().getProperty("metacode.java8"));
         if (annotationElement == null && annotation != null)
             this.annotationElement = processingContext.processingEnv().getElementUtils().
                     getTypeElement(annotation.getCanonicalName());
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.apt.processors;
+
+import com.squareup.javapoet.*;
+import org.brooth.jeta.apt.MetacodeUtils;
+import org.brooth.jeta.apt.ProcessingException;
+import org.brooth.jeta.apt.RoundContext;
+import org.brooth.jeta.eventbus.BaseMessage;
+import org.brooth.jeta.eventbus.Codec;
+import org.brooth.jeta.eventbus.CodecMetacode;
+import org.brooth.jeta.eventbus.MessageCodecs;
+import org.brooth.jeta.eventbus.PooledMessage;
+
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class CodecProcessor extends AbstractProcessor {
+
+    /**
+     * binary names of the masters by type id, up-to-date masters that aren't processed again aren't checked
+     */
+    private final Map<Integer, String> typeIds = new HashMap<Integer, String>();
+
+    public CodecProcessor() {
+        super(Codec.class);
+    }
+
+    public boolean process(TypeSpec.Builder builder, RoundContext context) {
+        TypeElement masterElement = context.metacodeContext().masterElement();
+        ClassName masterClassName = ClassName.get(masterElement);
+        builder.addSuperinterface(ParameterizedTypeName.get(ClassName.get(CodecMetacode.class), masterClassName));
+
+        Elements elementUtils = processingContext.processingEnv().getElementUtils();
+        Types typeUtils = processingContext.processingEnv().getTypeUtils();
+
+        if (masterElement.getModifiers().contains(Modifier.ABSTRACT))
+            throw new ProcessingException("Abstract class " + masterElement + " can't be a codec");
+
+        String binaryNameStr = elementUtils.getBinaryName(masterElement).toString();
+        int typeId = masterElement.getAnnotation(Codec.class).typeId();
+        if (typeId == 0)
+            typeId = binaryNameStr.hashCode();
+        String otherStr = typeIds.put(typeId, binaryNameStr);
+        if (otherStr != null && !otherStr.equals(binaryNameStr))
+            throw new ProcessingException("Type id " + typeId + " of " + binaryNameStr + " collides with " +
+                    otherStr + ". Set unique @Codec(typeId) of one of them.");
+
+        builder.addMethod(MethodSpec.methodBuilder("getTypeId")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(int.class)
+                .addStatement("return $L", typeId)
+                .build());
+
+        TypeMirror baseMessageType = elementUtils.getTypeElement(BaseMessage.class.getCanonicalName()).asType();
+        TypeMirror pooledMessageType = elementUtils.getTypeElement(PooledMessage.class.getCanonicalName()).asType();
+        boolean baseMessage = typeUtils.isAssignable(masterElement.asType(), baseMessageType);
+        boolean pooledMessage = typeUtils.isAssignable(masterElement.asType(), pooledMessageType);
+
+        MethodSpec.Builder encodeMethodBuilder = MethodSpec.methodBuilder("encode")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(void.class)
+                .addParameter(masterClassName, "master")
+                .addParameter(ByteBuffer.class, "buffer");
+
+        MethodSpec.Builder decodeMethodBuilder = MethodSpec.methodBuilder("decode")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(masterClassName)
+                .addParameter(ByteBuffer.class, "buffer");
+
+        if (baseMessage) {
+            encodeMethodBuilder
+                    .addStatement("buffer.putInt(master.id())")
+                    .addStatement("$T.putString(buffer, master.topic())", MessageCodecs.class);
+
+            if (pooledMessage && hasConstructor(masterElement)) {
+                decodeMethodBuilder
+                        .addStatement("$T master = new $T()", masterClassName, masterClassName)
+                        .addStatement("master.setId(buffer.getInt())")
+                        .addStatement("master.setTopic($T.getString(buffer))", MessageCodecs.class);
+
+            } else if (hasConstructor(masterElement, "int", "java.lang.String")) {
+                decodeMethodBuilder.addStatement("$T master = new $T(buffer.getInt(), $T.getString(buffer))",
+                        masterClassName, masterClassName, MessageCodecs.class);
+
+            } else {
+                throw new ProcessingException(masterElement + " has no accessible (int id, String topic) constructor" +
+                        (pooledMessage ? " or default one" : ""));
+            }
+
+        } else {
+            if (!hasConstructor(masterElement))
+                throw new ProcessingException(masterElement + " has no accessible default constructor");
+
+            decodeMethodBuilder.addStatement("$T master = new $T()", masterClassName, masterClassName);
+        }
+
+        Map<String, String> constants = new LinkedHashMap<String, String>();
+        Set<String> constantNames = new HashSet<String>();
+        for (VariableElement field : fieldsOf(masterElement, baseMessageType, typeUtils)) {
+            String fieldName = field.getSimpleName().toString();
+            TypeMirror fieldType = field.asType();
+            TypeKind kind = fieldType.getKind();
+
+            if (kind.isPrimitive()) {
+                String suffix = bufferMethodSuffix(kind);
+                if (kind == TypeKind.BOOLEAN) {
+                    encodeMethodBuilder.addStatement("buffer.put(master.$L ? (byte) 1 : (byte) 0)", fieldName);
+                    decodeMethodBuilder.addStatement("master.$L = buffer.get() != 0", fieldName);
+                } else {
+                    encodeMethodBuilder.addStatement("buffer.put$L(master.$L)", suffix, fieldName);
+                    decodeMethodBuilder.addStatement("master.$L = buffer.get$L()", fieldName, suffix);
+                }
+                continue;
+            }
+
+            if (kind != TypeKind.DECLARED)
+                throw new ProcessingException("Unsupported type of " + masterElement + '.' + fieldName + ": " + fieldType);
+
+            TypeElement fieldTypeElement = (TypeElement) ((DeclaredType) fieldType).asElement();
+            if (fieldTypeElement.getQualifiedName().contentEquals(String.class.getCanonicalName())) {
+                encodeMethodBuilder.addStatement("$T.putString(buffer, master.$L)", MessageCodecs.class, fieldName);
+                decodeMethodBuilder.addStatement("master.$L = $T.getString(buffer)", fieldName, MessageCodecs.class);
+
+            } else if (fieldTypeElement.getKind() == ElementKind.ENUM) {
+                // by name, constants may be reordered or added between encoding and decoding
+                encodeMethodBuilder.addStatement("$T.putString(buffer, master.$L == null ? null : master.$L.name())",
+                        MessageCodecs.class, fieldName, fieldName);
+                decodeMethodBuilder
+                        .addStatement("String $LName = $T.getString(buffer)", fieldName, MessageCodecs.class)
+                        .addStatement("master.$L = $LName == null ? null : $T.valueOf($LName)",
+                                fieldName, fieldName, ClassName.get(fieldTypeElement), fieldName);
+
+            } else if (fieldTypeElement.getAnnotation(Codec.class) != null) {
+                String codecRef;
+                if (fieldTypeElement.equals(masterElement)) {
+                    codecRef = "this";
+
+                } else {
+                    String fieldTypeStr = fieldTypeElement.getQualifiedName().toString();
+                    codecRef = constants.get(fieldTypeStr);
+                    if (codecRef == null) {
+                        codecRef = constantName(constantNames, fieldTypeElement, "CODEC");
+                        constants.put(fieldTypeStr, codecRef);
+                        ClassName codecClassName = ClassName.bestGuess(MetacodeUtils.toMetacodeName(fieldTypeStr));
+                        builder.addField(FieldSpec.builder(codecClassName, codecRef,
+                                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                                .initializer("new $T()", codecClassName)
+                                .build());
+                    }
+                }
+
+                encodeMethodBuilder
+                        .beginControlFlow("if (master.$L == null)", fieldName)
+                        .addStatement("buffer.put((byte) 0)")
+                        .nextControlFlow("else")
+                        .addStatement("buffer.put((byte) 1)")
+                        .addStatement("$L.encode(master.$L, buffer)", codecRef, fieldName)
+                        .endControlFlow();
+                decodeMethodBuilder.addStatement("master.$L = buffer.get() == 0 ? null : $L.decode(buffer)",
+                        fieldName, codecRef);
+
+            } else {
+                throw new ProcessingException("Unsupported type of " + masterElement + '.' + fieldName + ": " +
+                        fieldType + ". Primitives, String, enums and @Codec classes are allowed.");
+            }
+        }
+
+        decodeMethodBuilder.addStatement("return master");
+        builder.addMethod(encodeMethodBuilder.build());
+        builder.addMethod(decodeMethodBuilder.build());
+
+        return false;
+    }
+
+    /**
+     * Instance fields of the master and its super classes, super class ones first.
+     * Fields of BaseMessage are encoded via id() and topic().
+     */
+    private List<VariableElement> fieldsOf(TypeElement masterElement, TypeMirror baseMessageType, Types typeUtils) {
+        List<TypeElement> hierarchy = new ArrayList<TypeElement>();
+        TypeElement typeElement = masterElement;
+        while (typeElement != null && !typeUtils.isSameType(typeUtils.erasure(typeElement.asType()),
+                typeUtils.erasure(baseMessageType)) &&
+                !typeElement.getQualifiedName().contentEquals(Object.class.getCanonicalName())) {
+            hierarchy.add(0, typeElement);
+            TypeMirror superclass = typeElement.getSuperclass();
+            typeElement = superclass.getKind() == TypeKind.DECLARED ?
+                    (TypeElement) ((DeclaredType) superclass).asElement() : null;
+        }
+
+        String masterPackage = packageOf(masterElement);
+        List<VariableElement> result = new ArrayList<VariableElement>();
+        for (TypeElement element : hierarchy) {
+            if (element.getQualifiedName().contentEquals(PooledMessage.class.getCanonicalName()))
+                continue;
+
+            for (VariableElement field : ElementFilter.fieldsIn(element.getEnclosedElements())) {
+                Set<Modifier> modifiers = field.getModifiers();
+                if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+                    continue;
+
+                String fieldStr = element + "." + field.getSimpleName();
+                if (modifiers.contains(Modifier.PRIVATE))
+                    throw new ProcessingException("Private field " + fieldStr + " can't be encoded. " +
+                            "Make it package-private or transient.");
+                if (modifiers.contains(Modifier.FINAL))
+                    throw new ProcessingException("Final field " + fieldStr + " can't be decoded. " +
+                            "Make it not final or transient.");
+                if (!modifiers.contains(Modifier.PUBLIC) && !packageOf(element).equals(masterPackage))
+                    throw new ProcessingException("Field " + fieldStr + " isn't accessible from " + masterPackage);
+
+                result.add(field);
+            }
+        }
+        return result;
+    }
+
+    private boolean hasConstructor(TypeElement typeElement, String... parameterTypes) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(typeElement.getEnclosedElements())) {
+            if (constructor.getModifiers().contains(Modifier.PRIVATE))
+                continue;
+
+            List<? extends VariableElement> parameters = constructor.getParameters();
+            if (parameters.size() != parameterTypes.length)
+                continue;
+
+            boolean match = true;
+            for (int i = 0; i < parameterTypes.length; i++)
+                if (!parameters.get(i).asType().toString().equals(parameterTypes[i])) {
+                    match = false;
+                    break;
+                }
+
+            if (match)
+                return true;
+        }
+        return false;
+    }
+
+    private String packageOf(TypeElement typeElement) {
+        return processingContext.processingEnv().getElementUtils().getPackageOf(typeElement)
+                .getQualifiedName().toString();
+    }
+
+    private static String constantName(Set<String> names, TypeElement typeElement, String postfix) {
+        String base = typeElement.getSimpleName().toString().replaceAll("([a-z0-9])([A-Z])", "$1_$2")
+                .toUpperCase() + '_' + postfix;
+        String name = base;
+        for (int i = 2; !names.add(name); i++)
+            name = base + i;
+        return name;
+    }
+
+    private static String bufferMethodSuffix(TypeKind kind) {
+        switch (kind) {
+            case BYTE:
+                return "";
+            case SHORT:
+                return "Short";
+            case CHAR:
+                return "Char";
+            case INT:
+                return "Int";
+            case LONG:
+                return "Long";
+            case FLOAT:
+                return "Float";
+            case DOUBLE:
+                return "Double";
+            default:
+                return null;
+        }
+    }
+}
@@ -24,10 +24,12 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.*;
 import com.squareup.javapoet.*;
 import org.brooth.jeta.Factory;
+import org.brooth.jeta.Provider;
 import org.brooth.jeta.apt.MetacodeUtils;
 import org.brooth.jeta.apt.ProcessingContext;
 import org.brooth.jeta.apt.ProcessingException;
 import org.brooth.jeta.apt.RoundContext;
+import org.brooth.jeta.inject.AsyncInjector;
 import org.brooth.jeta.inject.Inject;
 import org.brooth.jeta.inject.InjectMetacode;
 import org.brooth.jeta.inject.MetaScope;
@@ -39,6 +41,7 @@ import javax.lang.model.element.*;
 import javax.lang.model.type.TypeMirror;
 import java.lang.annotation.Annotation;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Oleg Khalidov (brooth@gmail.com)
@@ -52,6 +55,9 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
     private List<TypeElement> moduleScopes;
     private String providerAlias = null;
 
+    // statement key -> nested memo type, per master
+    private Map<String, TypeSpec> memoTypes;
+
     public InjectProcessor() {
         super(Inject.class);
     }
@@ -91,8 +97,11 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
         builder.addSuperinterface(ParameterizedTypeName.get(ClassName.get(InjectMetacode.class), masterClassName));
 
         ArrayList<Element> unhandledElements = new ArrayList<>(context.elements());
+        memoTypes = new LinkedHashMap<>();
         buildInjectMethod(builder, context, masterElement, masterClassName, false, unhandledElements);
         buildInjectMethod(builder, context, masterElement, masterClassName, true, unhandledElements);
+        for (TypeSpec memoType : memoTypes.values())
+            builder.addType(memoType);
 
         if (!unhandledElements.isEmpty()) {
             List<String> elements = new ArrayList<>();
@@ -139,7 +148,8 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
                     List<? extends VariableElement> paramElements = methodElement.getParameters();
                     Multimap<String, StatementSpec> varStatements = HashMultimap.create();
                     for (VariableElement paramElement : paramElements) {
-                        StatementSpec statement = getResultStatement(scopeElement, paramElement.asType(), "", "getInstance()");
+                        StatementSpec statement = getResultStatement(scopeElement, paramElement.asType(), "",
+                                "getInstance()", true);
                         if (statement != null) {
                             statement.element = paramElement;
                             varStatements.put(statement.providerScopeStr, statement);
@@ -194,7 +204,8 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
                     if (fieldStatement == null)
                         continue;
 
-                    StatementSpec statement = getResultStatement(scopeElement, element.asType(), fieldStatement, "getInstance()");
+                    StatementSpec statement = getResultStatement(scopeElement, element.asType(), fieldStatement,
+                            "getInstance()", true);
                     if (statement != null) {
                         statement.element = element;
                         if (!statements.containsEntry(statement.providerScopeStr, statement)) {
@@ -220,8 +231,7 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
 
             for (String scopeElement : scopes) {
                 ClassName scopeClassName = ClassName.bestGuess(scopeElement);
-                ClassName scopeMetacodeClassName = ClassName.get(scopeClassName.packageName(),
-                        MetacodeUtils.toSimpleMetacodeName(scopeClassName.toString()), "MetaScopeImpl");
+                ClassName scopeMetacodeClassName = getMetaScopeImplClassName(scopeElement);
                 methodBuilder
                         .beginControlFlow("if(scope.isAssignable($T.class))", scopeClassName)
                         .addStatement("final $T s = ($T) scope", scopeMetacodeClassName, scopeMetacodeClassName);
@@ -236,8 +246,19 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
         builder.addMethod(methodBuilder.build());
     }
 
+    private ClassName getMetaScopeImplClassName(String scopeStr) {
+        ClassName scopeClassName = ClassName.bestGuess(scopeStr);
+        return ClassName.get(scopeClassName.packageName(),
+                MetacodeUtils.toSimpleMetacodeName(scopeClassName.toString()), "MetaScopeImpl");
+    }
+
+    /**
+     * @param memoize reuse provider and factory instances within the scope. Not applicable to the objects
+     *                created by factories since they may close over factory method params
+     */
     @Nullable
-    private StatementSpec getResultStatement(TypeElement scopeElement, TypeMirror returnTypeMirror, String statementPrefix, String getInstanceStr) {
+    private StatementSpec getResultStatement(TypeElement scopeElement, TypeMirror returnTypeMirror, String statementPrefix,
+                                             String getInstanceStr, boolean memoize) {
         ProcessingEnvironment env = processingContext.processingEnv();
         String returnTypeStr = env.getTypeUtils().erasure(returnTypeMirror).toString();
 
@@ -247,17 +268,45 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
             if (scopeStr == null)
                 return null;
 
-            StatementSpec statement = getAssignmentStatement(scopeStr, returnTypeStr, "return ", getInstanceStr);
-            TypeSpec providerTypeSpec = TypeSpec.anonymousClassBuilder("")
-                    .addSuperinterface(TypeName.get(returnTypeMirror))
-                    .addMethod(MethodSpec.methodBuilder("get")
-                            .addAnnotation(Override.class)
-                            .addModifiers(Modifier.PUBLIC)
-                            .returns(ClassName.bestGuess(returnTypeStr))
-                            .addStatement(statement.format, statement.args)
-                            .build())
-                    .build();
-            return new StatementSpec(scopeStr, statementPrefix + "$L", providerTypeSpec);
+            if (memoize) {
+                StatementSpec statement = getAssignmentStatement(scopeStr, returnTypeStr, "return ", getInstanceStr);
+                return getMemoStatement(scopeStr, TypeName.get(returnTypeMirror),
+                        Collections.singletonList(getProviderMethod(returnTypeStr, statement)), statementPrefix);
+            }
+
+            StatementSpec statement = getProviderStatement(TypeName.get(returnTypeMirror), scopeStr, returnTypeStr,
+                    getInstanceStr);
+            return new StatementSpec(scopeStr, statementPrefix + statement.format, statement.args);
+        }
+
+        if (returnTypeStr.equals("org.brooth.jeta.Async")) {
+            returnTypeStr = getGenericType(returnTypeMirror.toString());
+            String scopeStr = lookupEntityScope(module, scopeElement.getQualifiedName().toString(), returnTypeStr);
+            if (scopeStr == null)
+                return null;
+
+            TypeName providerTypeName = ParameterizedTypeName.get(ClassName.get(Provider.class),
+                    ClassName.bestGuess(returnTypeStr));
+            StatementSpec statement = getProviderStatement(providerTypeName, scopeStr, returnTypeStr, getInstanceStr);
+            return new StatementSpec(scopeStr, statementPrefix + "$T.submit(" + statement.format + ")",
+                    concat(AsyncInjector.class, statement.args));
+        }
+
+        if (returnTypeStr.equals("java.util.concurrent.CompletableFuture")) {
+            returnTypeStr = getGenericType(returnTypeMirror.toString());
+            String scopeStr = lookupEntityScope(module, scopeElement.getQualifiedName().toString(), returnTypeStr);
+            if (scopeStr == null)
+                return null;
+
+            TypeName supplierTypeName = ParameterizedTypeName.get(ClassName.get("java.util.function", "Supplier"),
+                    ClassName.bestGuess(returnTypeStr));
+            StatementSpec statement = getProviderStatement(supplierTypeName, scopeStr, returnTypeStr, getInstanceStr);
+            List<Object> args = new ArrayList<>();
+            args.add(ClassName.get("java.util.concurrent", "CompletableFuture"));
+            args.addAll(Arrays.asList(statement.args));
+            args.add(AsyncInjector.class);
+            return new StatementSpec(scopeStr, statementPrefix + "$T.supplyAsync(" + statement.format +
+                    ", $T.getExecutor())", args.toArray());
         }
 
         if (returnTypeStr.equals("org.brooth.jeta.Lazy")) {
@@ -268,42 +317,9 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
 
             ClassName returnClassName = ClassName.bestGuess(returnTypeStr);
             StatementSpec statement = getAssignmentStatement(scopeStr, returnTypeStr, "instance = ", getInstanceStr);
-            TypeSpec lazyTypeSpec = TypeSpec.anonymousClassBuilder("")
-                    .addSuperinterface(TypeName.get(returnTypeMirror))
-                    .addField(returnClassName, "instance", Modifier.PRIVATE)
-                    .addMethod(MethodSpec.methodBuilder("get")
-                            .addAnnotation(Override.class)
-                            .addModifiers(Modifier.PUBLIC)
-                            .returns(returnClassName)
-                            .beginControlFlow("if(instance == null)")
-                            .beginControlFlow("synchronized (this)")
-                            .beginControlFlow("if(instance == null)")
-                            .addStatement(statement.format, statement.args)
-                            .endControlFlow()
-                            .endControlFlow()
-                            .endControlFlow()
-                            .addStatement("return instance")
-                            .build())
-                    .addMethod(MethodSpec.methodBuilder("isPresent")
-                            .addAnnotation(Override.class)
-                            .addModifiers(Modifier.PUBLIC)
-                            .returns(boolean.class)
-                            .addStatement("return instance != null")
-                            .build())
-                    .addMethod(MethodSpec.methodBuilder("release")
-                            .addAnnotation(Override.class)
-                            .addModifiers(Modifier.PUBLIC)
-                            .returns(returnClassName)
-                            .beginControlFlow("synchronized (this)")
-                            .beginControlFlow("try")
-                            .addStatement("return instance")
-                            .endControlFlow()
-                            .beginControlFlow("finally")
-                            .addStatement("instance = null")
-                            .endControlFlow()
-                            .endControlFlow()
-                            .build())
-                    .build();
+            TypeSpec lazyTypeSpec = java8Metacode ?
+                    getJava8LazyTypeSpec(returnTypeMirror, returnClassName, statement) :
+                    getLazyTypeSpec(returnTypeMirror, returnClassName, statement);
             return new StatementSpec(scopeStr, statementPrefix + "$L", lazyTypeSpec);
         }
 
@@ -323,7 +339,7 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
         if (factory != null) {
             if (typeElement.getKind() != ElementKind.INTERFACE)
                 throw new IllegalStateException(returnTypeStr + " not valid. Only interfaces can be used as a meta factory.");
-            return getFactoryStatement(scopeElement, typeElement, statementPrefix);
+            return getFactoryStatement(scopeElement, typeElement, statementPrefix, memoize);
         }
         String scopeStr = lookupEntityScope(module, scopeElement.getQualifiedName().toString(), returnTypeStr);
         if (scopeStr == null)
@@ -331,6 +347,154 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
         return getAssignmentStatement(scopeStr, returnTypeStr, statementPrefix, getInstanceStr);
     }
 
+    /**
+     * Provider-like object, lambda or anonymous class with single no-arg {@code get()} method
+     */
+    private StatementSpec getProviderStatement(TypeName superinterface, String scopeStr, String returnTypeStr,
+                                               String getInstanceStr) {
+        if (java8Metacode) {
+            StatementSpec statement = getAssignmentStatement(scopeStr, returnTypeStr, "", getInstanceStr);
+            return new StatementSpec(scopeStr, "() -> " + statement.format, statement.args);
+        }
+
+        StatementSpec statement = getAssignmentStatement(scopeStr, returnTypeStr, "return ", getInstanceStr);
+        TypeSpec providerTypeSpec = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(superinterface)
+                .addMethod(getProviderMethod(returnTypeStr, statement))
+                .build();
+        return new StatementSpec(scopeStr, "$L", providerTypeSpec);
+    }
+
+    private MethodSpec getProviderMethod(String returnTypeStr, StatementSpec statement) {
+        return MethodSpec.methodBuilder("get")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(ClassName.bestGuess(returnTypeStr))
+                .addStatement(statement.format, statement.args)
+                .build();
+    }
+
+    /**
+     * Nested class that keeps scope in {@code s} field, so statements are the same as in {@code inject()}.
+     * Its instance is created once per scope and memoized in MetaScopeImpl by the class as a key.
+     */
+    private StatementSpec getMemoStatement(String scopeStr, TypeName superinterface, List<MethodSpec> methods,
+                                           String statementPrefix) {
+        String key = scopeStr + ':' + superinterface + ':' + methods;
+        TypeSpec memoType = memoTypes.get(key);
+        if (memoType == null) {
+            String memoNameStr = "InjectMemo" + memoTypes.size();
+            ClassName memoClassName = ClassName.bestGuess(memoNameStr);
+            ClassName scopeMetacodeClassName = getMetaScopeImplClassName(scopeStr);
+            memoType = TypeSpec.classBuilder(memoNameStr)
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .addSuperinterface(superinterface)
+                    .addField(scopeMetacodeClassName, "s", Modifier.PRIVATE, Modifier.FINAL)
+                    .addMethod(MethodSpec.constructorBuilder()
+                            .addModifiers(Modifier.PRIVATE)
+                            .addParameter(scopeMetacodeClassName, "s")
+                            .addStatement("this.s = s")
+                            .build())
+                    .addMethod(MethodSpec.methodBuilder("memo")
+                            .addModifiers(Modifier.STATIC)
+                            .addParameter(scopeMetacodeClassName, "s")
+                            .returns(memoClassName)
+                            .addStatement("$T memo = s.getMemo($T.class)", Object.class, memoClassName)
+                            .beginControlFlow("if (memo == null)")
+                            .addStatement("memo = s.putMemo($T.class, new $T(s))", memoClassName, memoClassName)
+                            .endControlFlow()
+                            .addStatement("return ($T) memo", memoClassName)
+                            .build())
+                    .addMethods(methods)
+                    .build();
+            memoTypes.put(key, memoType);
+        }
+        return new StatementSpec(scopeStr, statementPrefix + "$L.memo(s)", memoType.name);
+    }
+
+    private TypeSpec getLazyTypeSpec(TypeMirror returnTypeMirror, ClassName returnClassName, StatementSpec statement) {
+        return TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(TypeName.get(returnTypeMirror))
+                .addField(returnClassName, "instance", Modifier.PRIVATE)
+                .addMethod(MethodSpec.methodBuilder("get")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(returnClassName)
+                        .beginControlFlow("if(instance == null)")
+                        .beginControlFlow("synchronized (this)")
+                        .beginControlFlow("if(instance == null)")
+                        .addStatement(statement.format, statement.args)
+                        .endControlFlow()
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("return instance")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("isPresent")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addStatement("return instance != null")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("release")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(returnClassName)
+                        .beginControlFlow("synchronized (this)")
+                        .beginControlFlow("try")
+                        .addStatement("return instance")
+                        .endControlFlow()
+                        .beginControlFlow("finally")
+                        .addStatement("instance = null")
+                        .endControlFlow()
+                        .endControlFlow()
+                        .build())
+                .build();
+    }
+
+    private TypeSpec getJava8LazyTypeSpec(TypeMirror returnTypeMirror, ClassName returnClassName, StatementSpec statement) {
+        return TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(TypeName.get(returnTypeMirror))
+                .addField(returnClassName, "instance", Modifier.PRIVATE, Modifier.VOLATILE)
+                .addField(FieldSpec.builder(ReentrantLock.class, "lock", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T()", ReentrantLock.class).build())
+                .addMethod(MethodSpec.methodBuilder("get")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(returnClassName)
+                        .beginControlFlow("if(instance == null)")
+                        .addStatement("lock.lock()")
+                        .beginControlFlow("try")
+                        .beginControlFlow("if(instance == null)")
+                        .addStatement(statement.format, statement.args)
+                        .endControlFlow()
+                        .nextControlFlow("finally")
+                        .addStatement("lock.unlock()")
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("return instance")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("isPresent")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(boolean.class)
+                        .addStatement("return instance != null")
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("release")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(returnClassName)
+                        .addStatement("lock.lock()")
+                        .beginControlFlow("try")
+                        .addStatement("$T result = instance", returnClassName)
+                        .addStatement("instance = null")
+                        .addStatement("return result")
+                        .nextControlFlow("finally")
+                        .addStatement("lock.unlock()")
+                        .endControlFlow()
+                        .build())
+                .build();
+    }
+
     private StatementSpec getAssignmentStatement(String scopeStr, String elementTypeStr, String statementPrefix, String getInstanceStr) {
         return new StatementSpec(scopeStr, statementPrefix + "s.$L_$L_MetaProducer().$L",
                 elementTypeStr.replaceAll("\\.", "_"), ClassName.bestGuess(scopeStr).simpleName(), getInstanceStr);
@@ -349,10 +513,9 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
         return stack;
     }
 
-    private StatementSpec getFactoryStatement(TypeElement scopeElement, TypeElement element, String statementPrefix) {
-        TypeSpec.Builder factoryBuilder = TypeSpec.anonymousClassBuilder("")
-                .addSuperinterface(ClassName.bestGuess(element.getQualifiedName().toString()));
-
+    private StatementSpec getFactoryStatement(TypeElement scopeElement, TypeElement element, String statementPrefix,
+                                              boolean memoize) {
+        ClassName factoryClassName = ClassName.bestGuess(element.getQualifiedName().toString());
         List<TypeElement> interfaces = collectFactoryInterfaces(element, new ArrayList<TypeElement>(1));
         String scope = null;
         List<SubStatementContext> subStatements = new ArrayList<>();
@@ -371,12 +534,16 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
                         params.put(paramName, param.asType());
                     }
 
+                    // lambda params must not shadow inject() locals and lambdas can't be generic
+                    boolean lambdaCompatible = method.getTypeParameters().isEmpty() &&
+                            Collections.disjoint(paramNames, Arrays.asList("scope", "master", "s"));
+
                     TypeMirror methodReturnType = method.getReturnType();
                     StatementSpec subStatement = getResultStatement(scopeElement, methodReturnType, "return ",
-                            "getInstance(" + Joiner.on(',').join(paramNames) + ")");
+                            "getInstance(" + Joiner.on(',').join(paramNames) + ")", false);
                     if (subStatement == null) {
                         subStatements.add(new SubStatementContext(new StatementSpec(null, "return null"),
-                                methodName, params, methodReturnType));
+                                methodName, params, methodReturnType, lambdaCompatible));
                         continue;
                     }
 
@@ -385,13 +552,21 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
                     else if (!isAssignableScope(scope, subStatement.providerScopeStr))
                         scope = subStatement.providerScopeStr;
 
-                    subStatements.add(new SubStatementContext(subStatement, methodName, params, methodReturnType));
+                    subStatements.add(new SubStatementContext(subStatement, methodName, params, methodReturnType,
+                            lambdaCompatible));
                 }
         }
 
         if (scope == null)
             return null;
 
+        if (!memoize && java8Metacode && subStatements.size() == 1 && subStatements.get(0).lambdaCompatible) {
+            SubStatementContext subStatement = subStatements.get(0);
+            return new StatementSpec(scope, statementPrefix + "($L) -> {\n$>" + subStatement.spec.format + ";\n$<}",
+                    concat(Joiner.on(", ").join(subStatement.params.keySet()), subStatement.spec.args));
+        }
+
+        List<MethodSpec> methods = new ArrayList<>(subStatements.size());
         for (SubStatementContext subStatement : subStatements) {
             MethodSpec.Builder methodSpec = MethodSpec.methodBuilder(subStatement.methodName)
                     .addAnnotation(Override.class)
@@ -403,10 +578,24 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
             }
 
             methodSpec.addStatement(subStatement.spec.format, subStatement.spec.args);
-            factoryBuilder.addMethod(methodSpec.build());
+            methods.add(methodSpec.build());
         }
 
-        return new StatementSpec(scope, statementPrefix + "$L", factoryBuilder.build());
+        if (memoize)
+            return getMemoStatement(scope, factoryClassName, methods, statementPrefix);
+
+        TypeSpec factoryTypeSpec = TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(factoryClassName)
+                .addMethods(methods)
+                .build();
+        return new StatementSpec(scope, statementPrefix + "$L", factoryTypeSpec);
+    }
+
+    private static Object[] concat(Object first, Object[] rest) {
+        Object[] result = new Object[rest.length + 1];
+        result[0] = first;
+        System.arraycopy(rest, 0, result, 1, rest.length);
+        return result;
     }
 
     private static class SubStatementContext {
@@ -414,12 +603,15 @@ public class InjectProcessor extends AbstractLookupScopeProcessor {
         private String methodName;
         private Map<String, TypeMirror> params;
         private TypeMirror returnType;
+        private boolean lambdaCompatible;
 
-        public SubStatementContext(StatementSpec spec, String methodName, Map<String, TypeMirror> params, TypeMirror returnType) {
+        public SubStatementContext(StatementSpec spec, String methodName, Map<String, TypeMirror> params,
+                                   TypeMirror returnType, boolean lambdaCompatible) {
             this.spec = spec;
             this.methodName = methodName;
             this.params = params;
             this.returnType = returnType;
+            this.lambdaCompatible = lambdaCompatible;
         }
     }
 
@@ -38,6 +38,36 @@ public class MultitonProcessor extends AbstractProcessor {
         ClassName masterClassName = ClassName.get(context.metacodeContext().masterElement());
         builder.addSuperinterface(ParameterizedTypeName.get(
                 ClassName.get(MultitonMetacode.class), masterClassName));
+        Element element = context.elements().iterator().next();
+
+        String initStr = element.getAnnotation(Multiton.class).staticConstructor();
+        if (initStr.isEmpty())
+            initStr = "new $T(key)";
+        else
+            initStr = "$T." + initStr + "(key)";
+
+        if (java8Metacode)
+            addJava8MultitonSafe(builder, masterClassName, initStr);
+        else
+            addMultitonSafe(builder, masterClassName, initStr);
+
+        builder.addMethod(MethodSpec.methodBuilder("getMultiton")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(masterClassName)
+                .addParameter(TypeName.OBJECT, "key")
+                .beginControlFlow("try")
+                .addStatement("return getMultitonSafe(key)")
+                .endControlFlow()
+                .beginControlFlow("catch($T e)", TypeName.get(Exception.class))
+                .addStatement("throw new $T(e)", TypeName.get(RuntimeException.class))
+                .endControlFlow()
+                .build());
+
+        return false;
+    }
+
+    private void addMultitonSafe(TypeSpec.Builder builder, ClassName masterClassName, String initStr) {
         TypeName futureTypeName = ParameterizedTypeName.get(
                 ClassName.get(Future.class), masterClassName);
         TypeName futureTaskTypeName = ParameterizedTypeName.get(
@@ -45,19 +75,11 @@ public class MultitonProcessor extends AbstractProcessor {
         TypeName mapTypeName = ParameterizedTypeName.get(
                 ClassName.get(ConcurrentHashMap.class), TypeName.OBJECT, futureTypeName);
 
-        Element element = context.elements().iterator().next();
-
         builder.addField(FieldSpec.builder(mapTypeName, "multiton")
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
                 .initializer("new $T()", mapTypeName)
                 .build());
 
-        String initStr = element.getAnnotation(Multiton.class).staticConstructor();
-        if (initStr.isEmpty())
-            initStr = "new $T(key)";
-        else
-            initStr = "$T." + initStr + "(key)";
-
         TypeSpec.Builder creatorBuilder = TypeSpec.classBuilder("MultitonCreator")
                 .addModifiers(Modifier.PRIVATE, Modifier.FINAL, Modifier.STATIC)
                 .addSuperinterface(ParameterizedTypeName.get(
@@ -95,20 +117,42 @@ public class MultitonProcessor extends AbstractProcessor {
                 .endControlFlow()
                 .addStatement("return result.get()")
                 .build());
+    }
 
-        builder.addMethod(MethodSpec.methodBuilder("getMultiton")
+    private void addJava8MultitonSafe(TypeSpec.Builder builder, ClassName masterClassName, String initStr) {
+        ClassName completableFutureClassName = ClassName.get("java.util.concurrent", "CompletableFuture");
+        TypeName futureTypeName = ParameterizedTypeName.get(
+                completableFutureClassName, masterClassName);
+        TypeName mapTypeName = ParameterizedTypeName.get(
+                ClassName.get(ConcurrentHashMap.class), TypeName.OBJECT, futureTypeName);
+
+        builder.addField(FieldSpec.builder(mapTypeName, "multiton")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer("new $T<>()", ClassName.get(ConcurrentHashMap.class))
+                .build());
+
+        builder.addMethod(MethodSpec.methodBuilder("getMultitonSafe")
                 .addAnnotation(Override.class)
+                .addException(TypeName.get(ExecutionException.class))
+                .addException(TypeName.get(InterruptedException.class))
                 .addModifiers(Modifier.PUBLIC)
                 .returns(masterClassName)
                 .addParameter(TypeName.OBJECT, "key")
+                .addStatement("$T result = multiton.get(key)", futureTypeName)
+                .beginControlFlow("if(result == null)")
+                .addStatement("$T creator = new $T<>()", futureTypeName, completableFutureClassName)
+                .addStatement("result = multiton.putIfAbsent(key, creator)")
+                .beginControlFlow("if(result == null)")
+                .addStatement("result = creator")
                 .beginControlFlow("try")
-                .addStatement("return getMultitonSafe(key)")
+                .addStatement("creator.complete(" + initStr + ")", masterClassName)
+                .endControlFlow()
+                .beginControlFlow("catch($T t)", TypeName.get(Throwable.class))
+                .addStatement("creator.completeExceptionally(t)")
+                .endControlFlow()
                 .endControlFlow()
-                .beginControlFlow("catch($T e)", TypeName.get(Exception.class))
-                .addStatement("throw new $T(e)", TypeName.get(RuntimeException.class))
                 .endControlFlow()
+                .addStatement("return result.get()")
                 .build());
-
-        return false;
     }
 }
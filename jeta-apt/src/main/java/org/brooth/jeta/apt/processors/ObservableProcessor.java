@@ -21,6 +21,7 @@ import com.squareup.javapoet.*;
 import org.brooth.jeta.apt.RoundContext;
 import org.brooth.jeta.observer.ObservableMetacode;
 import org.brooth.jeta.observer.Subject;
+import org.brooth.jeta.util.ConcurrentWeakIdentityMap;
 
 import javax.lang.model.element.Element;
 import javax.lang.model.element.Modifier;
@@ -50,21 +51,31 @@ public class ObservableProcessor extends AbstractProcessor {
         for (Element element : context.elements()) {
             String fieldName = element.getSimpleName().toString();
 
-            String monitorFiledName = fieldName + "_MONITOR";
-            builder.addField(FieldSpec.builder(Object.class, monitorFiledName)
-                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
-                    .initializer("new Object()")
-                    .build());
-
             TypeName observersTypeName = TypeName.get(element.asType());
             TypeName mapTypeName = ParameterizedTypeName.get(ClassName.get(Map.class),
                     masterClassName, observersTypeName);
-            FieldSpec observersField = FieldSpec.builder(mapTypeName, fieldName)
-                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
-                    .initializer("new $T()", ParameterizedTypeName.get(ClassName.get(WeakHashMap.class),
-                            masterClassName, observersTypeName))
-                    .build();
-            builder.addField(observersField);
+
+            String monitorFiledName = fieldName + "_MONITOR";
+            if (java8Metacode) {
+                builder.addField(FieldSpec.builder(ParameterizedTypeName.get(ClassName.get(ConcurrentWeakIdentityMap.class),
+                        masterClassName, observersTypeName), fieldName)
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("new $T<>()", ConcurrentWeakIdentityMap.class)
+                        .build());
+
+            } else {
+                builder.addField(FieldSpec.builder(Object.class, monitorFiledName)
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("new Object()")
+                        .build());
+
+                FieldSpec observersField = FieldSpec.builder(mapTypeName, fieldName)
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                        .initializer("new $T()", ParameterizedTypeName.get(ClassName.get(WeakHashMap.class),
+                                masterClassName, observersTypeName))
+                        .build();
+                builder.addField(observersField);
+            }
 
             String eventTypeStr = observersTypeName.toString();
             int i = eventTypeStr.indexOf('<');
@@ -77,22 +88,36 @@ public class ObservableProcessor extends AbstractProcessor {
                             CaseFormat.UPPER_CAMEL.to(CaseFormat.UPPER_UNDERSCORE, eventTypeStr)
                                     .replaceAll("\\.", "_")) + "Observers";
 
-            MethodSpec getObserversMethodSpec = MethodSpec.methodBuilder(methodHashName)
+            MethodSpec.Builder getObserversMethodBuilder = MethodSpec.methodBuilder(methodHashName)
                     .addModifiers(Modifier.STATIC, Modifier.PUBLIC)
                     .returns(observersTypeName)
-                    .addParameter(masterClassName, "master")
-                    .addStatement("$T result = $L.get(master)", observersTypeName, fieldName)
-                    .beginControlFlow("if (result == null)")
-                    .beginControlFlow("synchronized ($L)", monitorFiledName)
-                    .beginControlFlow("if (!$L.containsKey(master))", fieldName)
-                    .addStatement("result = new $T()", observersTypeName)
-                    .addStatement("$L.put(master, result)", fieldName)
-                    .endControlFlow()
-                    .endControlFlow()
-                    .endControlFlow()
-                    .addStatement("return result")
-                    .build();
-            builder.addMethod(getObserversMethodSpec);
+                    .addParameter(masterClassName, "master");
+            if (java8Metacode) {
+                getObserversMethodBuilder
+                        .addStatement("$T result = $L.get(master)", observersTypeName, fieldName)
+                        .beginControlFlow("if (result == null)")
+                        .addStatement("$T created = new $T()", observersTypeName, observersTypeName)
+                        .addStatement("result = $L.putIfAbsent(master, created)", fieldName)
+                        .beginControlFlow("if (result == null)")
+                        .addStatement("result = created")
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("return result");
+
+            } else {
+                getObserversMethodBuilder
+                        .addStatement("$T result = $L.get(master)", observersTypeName, fieldName)
+                        .beginControlFlow("if (result == null)")
+                        .beginControlFlow("synchronized ($L)", monitorFiledName)
+                        .beginControlFlow("if (!$L.containsKey(master))", fieldName)
+                        .addStatement("result = new $T()", observersTypeName)
+                        .addStatement("$L.put(master, result)", fieldName)
+                        .endControlFlow()
+                        .endControlFlow()
+                        .endControlFlow()
+                        .addStatement("return result");
+            }
+            builder.addMethod(getObserversMethodBuilder.build());
 
             applyMethodSpecBuilder.addStatement("master.$L = $L(master)", fieldName, methodHashName);
         }
@@ -22,12 +22,14 @@ import com.squareup.javapoet.*;
 import org.brooth.jeta.Constructor;
 import org.brooth.jeta.apt.*;
 import org.brooth.jeta.inject.Producer;
+import org.brooth.jeta.inject.ProducerMetricsHolder;
 
 import javax.annotation.Nullable;
 import javax.lang.model.element.*;
 import javax.lang.model.type.TypeMirror;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Oleg Khalidov (brooth@gmail.com)
@@ -36,6 +38,8 @@ public class ProducerProcessor extends AbstractProcessor {
 
     @Nullable
     private String defaultScopeStr;
+    @Nullable
+    private String metricsStr;
 
     public ProducerProcessor() {
         super(Producer.class);
@@ -45,6 +49,16 @@ public class ProducerProcessor extends AbstractProcessor {
     public void init(ProcessingContext processingContext) {
         super.init(processingContext);
         defaultScopeStr = processingContext.processingProperties().getProperty("inject.scope.default", null);
+        metricsStr = processingContext.processingProperties().getProperty("inject.metrics", null);
+    }
+
+    /**
+     * 'inject.metrics' is either true or false, or a regex of the entity classes to instrument
+     */
+    private boolean isMetricsEnabled(String entityTypeStr) {
+        if (metricsStr == null || metricsStr.trim().isEmpty() || "false".equals(metricsStr))
+            return false;
+        return "true".equals(metricsStr) || entityTypeStr.matches(metricsStr.trim());
     }
 
     public boolean process(TypeSpec.Builder builder, RoundContext context) {
@@ -63,6 +77,7 @@ public class ProducerProcessor extends AbstractProcessor {
 
         ClassName ofClassName = ClassName.bestGuess(ofTypeStr);
         boolean isSelfProvider = masterTypeStr.equals(ofTypeStr);
+        boolean metrics = isMetricsEnabled(ofTypeStr);
 
         List<ExecutableElement> constructors = new ArrayList<>();
         for (Element subElement : ((TypeElement) element).getEnclosedElements()) {
@@ -111,8 +126,12 @@ public class ProducerProcessor extends AbstractProcessor {
                         .returns(boolean.class)
                         .build());
 
-        if (annotation.singleton())
+        if (annotation.singleton()) {
             implBuilder.addField(ofClassName, "instance", Modifier.PRIVATE, Modifier.VOLATILE);
+            if (java8Metacode)
+                implBuilder.addField(FieldSpec.builder(ReentrantLock.class, "lock", Modifier.PRIVATE, Modifier.FINAL)
+                        .initializer("new $T()", ReentrantLock.class).build());
+        }
 
         for (ExecutableElement constructor : constructors) {
             List<ParameterSpec> params = new ArrayList<>(constructor.getParameters().size());
@@ -143,35 +162,65 @@ public class ProducerProcessor extends AbstractProcessor {
                 String paramNames = Joiner.on(", ").join(paramValues);
                 String assignPrefix;
 
+                if (metrics) {
+                    methodBuilder.addStatement("long __ts__ = $T.nanoTime()", System.class);
+                    if (annotation.singleton())
+                        methodBuilder.addStatement("boolean __cached__ = true");
+                }
+
                 if (annotation.singleton()) {
-                    methodBuilder
-                            .beginControlFlow("if(instance == null)")
-                            .beginControlFlow("synchronized(this)")
-                            .beginControlFlow("if(instance == null)");
+                    methodBuilder.beginControlFlow("if(instance == null)");
+                    if (java8Metacode)
+                        methodBuilder
+                                .addStatement("lock.lock()")
+                                .beginControlFlow("try");
+                    else
+                        methodBuilder.beginControlFlow("synchronized(this)");
+                    methodBuilder.beginControlFlow("if(instance == null)");
                     assignPrefix = "instance = ";
                 } else {
-                    assignPrefix = "return ";
+                    assignPrefix = metrics ? "$T __result__ = " : "return ";
                 }
 
+                String initCode;
+                List<Object> initArgs = new ArrayList<>();
+                if (!annotation.singleton() && metrics)
+                    initArgs.add(ofClassName);
+                initArgs.add(elementClassName);
                 if (constructor.getSimpleName().contentEquals("<init>")) {
-                    methodBuilder.addStatement(assignPrefix + "new $T($L)", elementClassName, paramNames);
+                    initCode = "new $T($L)";
 
                 } else {
-                    String initCode = constructor.getModifiers().contains(Modifier.STATIC) ? "$T"
+                    initCode = (constructor.getModifiers().contains(Modifier.STATIC) ? "$T"
                             : annotation.staticConstructor().isEmpty() ? ("new $T()")
-                            : String.format("$T.%s()", annotation.staticConstructor());
-
-                    methodBuilder.addStatement(assignPrefix + initCode + ".$L($L)", elementClassName,
-                            constructor.getSimpleName().toString(), paramNames);
+                            : String.format("$T.%s()", annotation.staticConstructor())) + ".$L($L)";
+                    initArgs.add(constructor.getSimpleName().toString());
                 }
+                initArgs.add(paramNames);
+                methodBuilder.addStatement(assignPrefix + initCode, initArgs.toArray());
 
                 if (annotation.singleton()) {
+                    if (metrics)
+                        methodBuilder.addStatement("__cached__ = false");
+                    methodBuilder.endControlFlow();
+                    if (java8Metacode)
+                        methodBuilder
+                                .nextControlFlow("finally")
+                                .addStatement("lock.unlock()");
                     methodBuilder
                             .endControlFlow()
-                            .endControlFlow()
-                            .endControlFlow()
-                            .addStatement("return instance");
+                            .endControlFlow();
                 }
+
+                if (metrics)
+                    methodBuilder.addStatement("$T.get().onInstance($T.class, $T.class, $T.nanoTime() - __ts__, $L)",
+                            ProducerMetricsHolder.class, ofClassName, entityScopeClassName, System.class,
+                            annotation.singleton() ? "__cached__" : "false");
+
+                if (annotation.singleton())
+                    methodBuilder.addStatement("return instance");
+                else if (metrics)
+                    methodBuilder.addStatement("return __result__");
             }
 
             implBuilder.addMethod(methodBuilder.build());
@@ -35,6 +35,9 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Oleg Khalidov (brooth@gmail.com)
@@ -118,11 +121,11 @@ public class ScopeProcessor extends AbstractLookupScopeProcessor {
         }
 
         TypeVariableName sTypeVariableName = TypeVariableName.get("S", masterClassName);
-        TypeName metaScopeTypeName = ParameterizedTypeName.get(ClassName.get(MetaScope.class), sTypeVariableName);
+        TypeName metaScopeTypeName = ParameterizedTypeName.get(ClassName.get(RecyclableMetaScope.class), sTypeVariableName);
         TypeSpec.Builder metaScopeTypeSpecBuilder = TypeSpec.classBuilder(metaScopeSimpleNameStr)
                 .addTypeVariable(sTypeVariableName)
                 .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
-                .addField(sTypeVariableName, "scope", Modifier.PRIVATE, Modifier.FINAL)
+                .addField(sTypeVariableName, "scope", Modifier.PRIVATE)
                 .addMethod(MethodSpec.methodBuilder("getScope")
                         .addAnnotation(Override.class)
                         .addModifiers(Modifier.PUBLIC)
@@ -134,6 +137,11 @@ public class ScopeProcessor extends AbstractLookupScopeProcessor {
                 .addModifiers(Modifier.PUBLIC)
                 .addParameter(sTypeVariableName, "scope");
 
+        MethodSpec.Builder recycleMethodBuilder = MethodSpec.methodBuilder("recycle")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(sTypeVariableName, "scope");
+
         MethodSpec.Builder assignableMethodBuilder = MethodSpec.methodBuilder("isAssignable")
                 .addModifiers(Modifier.PUBLIC)
                 .addParameter(ClassName.get(Class.class), "scopeClass")
@@ -146,6 +154,7 @@ public class ScopeProcessor extends AbstractLookupScopeProcessor {
                     TypeName.get(context.metacodeContext().masterElement().asType()));
         } else {
             metaScopeConstructorBuilder.addStatement("super(scope)");
+            recycleMethodBuilder.addStatement("super.recycle(scope)");
 
             ClassName scopeExtClassName = ClassName.bestGuess(scopeExtClassStr);
             ClassName metaScopeImplClassName = ClassName.get(scopeExtClassName.packageName(),
@@ -156,7 +165,24 @@ public class ScopeProcessor extends AbstractLookupScopeProcessor {
                     TypeName.get(context.metacodeContext().masterElement().asType()));
         }
         metaScopeTypeSpecBuilder.addMethod(assignableMethodBuilder.build());
+        if (java8Metacode)
+            metaScopeTypeSpecBuilder.addField(FieldSpec.builder(ReentrantLock.class, "lock", Modifier.PRIVATE, Modifier.FINAL)
+                    .initializer("new $T()", ReentrantLock.class).build());
+        if (scopeExtClassStr == null) {
+            addMemoMethods(metaScopeTypeSpecBuilder);
+            metaScopeTypeSpecBuilder
+                    .addField(FieldSpec.builder(AtomicBoolean.class, "pooled", Modifier.PRIVATE, Modifier.FINAL)
+                            .initializer("new $T()", AtomicBoolean.class).build())
+                    .addMethod(MethodSpec.methodBuilder("setPooled")
+                            .addAnnotation(Override.class)
+                            .addModifiers(Modifier.PUBLIC)
+                            .returns(boolean.class)
+                            .addParameter(boolean.class, "pooled")
+                            .addStatement("return this.pooled.compareAndSet(!pooled, pooled)")
+                            .build());
+        }
         metaScopeConstructorBuilder.addStatement("this.scope = scope");
+        recycleMethodBuilder.addStatement("this.scope = scope");
 
         TypeVariableName eTypeVariableName = TypeVariableName.get("E", ClassName.OBJECT);
         MethodSpec.Builder getMetaProducerMethodBuilder = MethodSpec.methodBuilder("getMetaProducer")
@@ -195,20 +221,38 @@ public class ScopeProcessor extends AbstractLookupScopeProcessor {
             String metaProducerImplMethodName = ofClassName.packageName().replace('.', '_') + '_' +
                     MetacodeUtils.toSimpleMetaName(ofTypeStr, '_' + masterClassName.simpleName() + "_MetaProducer");
 
+            MethodSpec.Builder metaProducerImplMethodBuilder = MethodSpec.methodBuilder(metaProducerImplMethodName)
+                    .addModifiers(Modifier.PUBLIC)
+                    .returns(producerMetacodeClassName)
+                    .beginControlFlow("if ($L == null)", entityImplNameStr);
+            if (java8Metacode) {
+                metaProducerImplMethodBuilder
+                        .addStatement("lock.lock()")
+                        .beginControlFlow("try");
+            } else {
+                metaProducerImplMethodBuilder
+                        .beginControlFlow("synchronized($T.class)", producerMetacodeClassName);
+            }
+            metaProducerImplMethodBuilder
+                    .beginControlFlow("if ($L == null)", entityImplNameStr)
+                    .addStatement("$L = new $T(getScope())", entityImplNameStr, metaProducerImplMetacodeClassName)
+                    .endControlFlow();
+            if (java8Metacode) {
+                metaProducerImplMethodBuilder
+                        .nextControlFlow("finally")
+                        .addStatement("lock.unlock()");
+            }
+            metaProducerImplMethodBuilder
+                    .endControlFlow()
+                    .endControlFlow()
+                    .addStatement("return $L", entityImplNameStr);
+
+            recycleMethodBuilder.addStatement("$L = null", entityImplNameStr);
             metaScopeTypeSpecBuilder
-                    .addField(producerMetacodeClassName, entityImplNameStr, Modifier.PRIVATE)
-                    .addMethod(MethodSpec.methodBuilder(metaProducerImplMethodName)
-                            .addModifiers(Modifier.PUBLIC)
-                            .returns(producerMetacodeClassName)
-                            .beginControlFlow("if ($L == null)", entityImplNameStr)
-                            .beginControlFlow("synchronized($T.class)", producerMetacodeClassName)
-                            .beginControlFlow("if ($L == null)", entityImplNameStr)
-                            .addStatement("$L = new $T(getScope())", entityImplNameStr, metaProducerImplMetacodeClassName)
-                            .endControlFlow()
-                            .endControlFlow()
-                            .endControlFlow()
-                            .addStatement("return $L", entityImplNameStr)
-                            .build());
+                    .addField(java8Metacode ?
+                            FieldSpec.builder(producerMetacodeClassName, entityImplNameStr, Modifier.PRIVATE, Modifier.VOLATILE).build() :
+                            FieldSpec.builder(producerMetacodeClassName, entityImplNameStr, Modifier.PRIVATE).build())
+                    .addMethod(metaProducerImplMethodBuilder.build());
 
             TypeSpec.Builder interfaceBuilder = TypeSpec.interfaceBuilder(metaProducerNameStr)
                     .addJavadoc("emitted by " + metaProducerClassStr + '\n').addModifiers(Modifier.PUBLIC);
@@ -277,6 +321,7 @@ public class ScopeProcessor extends AbstractLookupScopeProcessor {
 
         metaScopeTypeSpecBuilder
                 .addMethod(metaScopeConstructorBuilder.build())
+                .addMethod(recycleMethodBuilder.build())
                 .addMethod(getMetaProducerMethodBuilder
                         .addStatement("return " + (scopeExtClassStr == null ? "null" : "super.getMetaProducer(entityClass)"))
                         .build());
@@ -284,6 +329,59 @@ public class ScopeProcessor extends AbstractLookupScopeProcessor {
         return false;
     }
 
+    /**
+     * Per scope instance storage of stateless providers and factories, shared by all the masters injected
+     * within the scope. Allocated on first put.
+     */
+    private void addMemoMethods(TypeSpec.Builder metaScopeTypeSpecBuilder) {
+        TypeName memoTypeName = ParameterizedTypeName.get(ClassName.get(ConcurrentHashMap.class),
+                ClassName.OBJECT, ClassName.OBJECT);
+
+        MethodSpec.Builder putMemoMethodBuilder = MethodSpec.methodBuilder("putMemo")
+                .addJavadoc("used by metacode\n")
+                .addModifiers(Modifier.PUBLIC)
+                .addParameter(Object.class, "key")
+                .addParameter(Object.class, "value")
+                .returns(Object.class)
+                .addStatement("$T m = memo", memoTypeName)
+                .beginControlFlow("if (m == null)");
+        if (java8Metacode) {
+            putMemoMethodBuilder
+                    .addStatement("lock.lock()")
+                    .beginControlFlow("try");
+        } else {
+            putMemoMethodBuilder
+                    .beginControlFlow("synchronized(this)");
+        }
+        putMemoMethodBuilder
+                .beginControlFlow("if (memo == null)")
+                .addStatement("memo = new $T()", memoTypeName)
+                .endControlFlow()
+                .addStatement("m = memo");
+        if (java8Metacode) {
+            putMemoMethodBuilder
+                    .nextControlFlow("finally")
+                    .addStatement("lock.unlock()");
+        }
+        putMemoMethodBuilder
+                .endControlFlow()
+                .endControlFlow()
+                .addStatement("$T quicker = m.putIfAbsent(key, value)", Object.class)
+                .addStatement("return quicker == null ? value : quicker");
+
+        metaScopeTypeSpecBuilder
+                .addField(memoTypeName, "memo", Modifier.PRIVATE, Modifier.VOLATILE)
+                .addMethod(MethodSpec.methodBuilder("getMemo")
+                        .addJavadoc("used by metacode\n")
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(Object.class, "key")
+                        .returns(Object.class)
+                        .addStatement("$T m = memo", memoTypeName)
+                        .addStatement("return m == null ? null : m.get(key)")
+                        .build())
+                .addMethod(putMemoMethodBuilder.build());
+    }
+
     private Set<? extends Element> getScopeEntities(final String scopeClassStr, final boolean isDefaultScope) {
         return Sets.filter(allProducers, new Predicate<Element>() {
             public boolean apply(Element input) {
@@ -19,12 +19,17 @@ package org.brooth.jeta.apt.processors;
 import com.google.common.base.Joiner;
 import com.squareup.javapoet.*;
 import org.brooth.jeta.apt.MetacodeUtils;
+import org.brooth.jeta.apt.ProcessingContext;
+import org.brooth.jeta.apt.ProcessingException;
 import org.brooth.jeta.apt.RoundContext;
 import org.brooth.jeta.eventbus.*;
 import org.brooth.jeta.observer.EventObserver;
 
 import javax.lang.model.element.*;
+import javax.lang.model.type.TypeMirror;
 import javax.lang.model.util.Elements;
+import java.lang.ref.WeakReference;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -32,10 +37,32 @@ import java.util.List;
  */
 public class SubscribeProcessor extends AbstractProcessor {
 
+    private static final String SUBSCRIPTION_FIELD_PREFIX = "SUBSCRIPTION_";
+
+    private int fieldsCount;
+    private boolean weakDefault;
+    private String metricsStr;
+
     public SubscribeProcessor() {
         super(Subscribe.class);
     }
 
+    @Override
+    public void init(ProcessingContext processingContext) {
+        super.init(processingContext);
+        weakDefault = "true".equals(processingContext.processingProperties().getProperty("subscribe.weak"));
+        metricsStr = processingContext.processingProperties().getProperty("subscribe.metrics", null);
+    }
+
+    /**
+     * 'subscribe.metrics' is either true or false, or a regex of the master classes to name
+     */
+    private boolean isMetricsEnabled(String masterTypeStr) {
+        if (metricsStr == null || metricsStr.trim().isEmpty() || "false".equals(metricsStr))
+            return false;
+        return "true".equals(metricsStr) || masterTypeStr.matches(metricsStr.trim());
+    }
+
     public boolean process(TypeSpec.Builder builder, RoundContext context) {
         ClassName masterClassName = ClassName.get(context.metacodeContext().masterElement());
         builder.addSuperinterface(ParameterizedTypeName.get(
@@ -52,6 +79,8 @@ public class SubscribeProcessor extends AbstractProcessor {
                 .addStatement("$T handler = new $T()", handlerClassName, handlerClassName);
 
         Elements elementUtils = processingContext.processingEnv().getElementUtils();
+        fieldsCount = 0;
+        boolean weakMasterDefined = false;
 
         for (Element element : context.elements()) {
             final Subscribe annotation = element.getAnnotation(Subscribe.class);
@@ -59,47 +88,66 @@ public class SubscribeProcessor extends AbstractProcessor {
             if (params.size() != 1)
                 throw new IllegalArgumentException("Subscriber method must have one parameter (event)");
             TypeName eventTypeName = TypeName.get(params.get(0).asType());
+            String onEventMethodNameStr = element.getSimpleName().toString();
+
+            // weak subscriber holds the master by a reference shared by all the subscribers of the master
+            boolean weak = weakDefault || annotation.weak();
+            if (weak && !weakMasterDefined) {
+                TypeName weakMasterTypeName = ParameterizedTypeName.get(ClassName.get(WeakReference.class), masterClassName);
+                methodBuilder.addStatement("final $T weakMaster = new $T(master)", weakMasterTypeName, weakMasterTypeName);
+                weakMasterDefined = true;
+            }
+
+            // batch subscriber: void onEvents(List<E> events)
+            if (eventTypeName instanceof ParameterizedTypeName &&
+                    ((ParameterizedTypeName) eventTypeName).rawType.equals(ClassName.get(List.class))) {
+                List<?> batchFilterList = (List<?>) MetacodeUtils.getAnnotationValue(element, annotationElement, "filters");
+                if (batchFilterList != null && !batchFilterList.isEmpty())
+                    throw new ProcessingException("Filters aren't supported by batch subscriber " +
+                            element.getEnclosingElement().toString() + "." + onEventMethodNameStr + "()");
+
+                TypeName batchTypeName = ((ParameterizedTypeName) eventTypeName).typeArguments.get(0);
+                if (batchTypeName instanceof WildcardTypeName)
+                    batchTypeName = ((WildcardTypeName) batchTypeName).upperBounds.get(0);
+                if (batchTypeName instanceof ParameterizedTypeName)
+                    batchTypeName = ((ParameterizedTypeName) batchTypeName).rawType;
+                addRegisterStatement(methodBuilder, batchTypeName, weak ?
+                                getWeakBatchObserverTypeSpec(masterClassName, batchTypeName, onEventMethodNameStr) :
+                                getBatchObserverTypeSpec(batchTypeName, onEventMethodNameStr),
+                        getSubscriptionStr(builder, element, annotation, masterClassName, onEventMethodNameStr));
+                continue;
+            }
+
             if (eventTypeName instanceof ParameterizedTypeName)
                 eventTypeName = ((ParameterizedTypeName) eventTypeName).rawType;
 
             MethodSpec.Builder onEventMethodBuilder = MethodSpec.methodBuilder("onEvent")
                     .addAnnotation(Override.class)
-                    .addModifiers(Modifier.PUBLIC)
-                    .addParameter(eventTypeName, "event")
                     .returns(void.class);
-
-            // IdsFilter
-            if (annotation.id().length > 0) {
-                String[] ids = new String[annotation.id().length];
-                for (int i = 0; i < ids.length; i++)
-                    ids[i] = String.valueOf(annotation.id()[i]);
-
-                onEventMethodBuilder
-                        .beginControlFlow("if(!(new $T($L).accepts(null, null, event)))",
-                                TypeName.get(IdsFilter.class), Joiner.on(", ").join(ids))
-                        .addStatement("return")
-                        .endControlFlow();
-            }
-            // TopicsFilter
-            if (annotation.topic().length > 0) {
+            if (weak)
                 onEventMethodBuilder
-                        .beginControlFlow("if(!(new $T($L).accepts(null, null, event)))",
-                                TypeName.get(TopicsFilter.class), '"' + Joiner.on("\", \"").join(annotation.topic()) + '"')
-                        .addStatement("return")
-                        .endControlFlow();
-            }
+                        .addModifiers(Modifier.PROTECTED)
+                        .addParameter(masterClassName, "master");
+            else
+                onEventMethodBuilder.addModifiers(Modifier.PUBLIC);
+            onEventMethodBuilder.addParameter(eventTypeName, "event");
 
             // Filters
-            String onEventMethodNameStr = element.getSimpleName().toString();
             List<?> filterList = (List<?>) MetacodeUtils.getAnnotationValue(element, annotationElement, "filters");
             if (filterList != null) {
                 for (Object filterStr : filterList) {
                     String filter = filterStr.toString().replace(".class", "");
                     TypeElement filterTypeElement = elementUtils.getTypeElement(filter);
                     if (filterTypeElement.getKind() == ElementKind.CLASS) {
+                        ClassName filterClassName = ClassName.bestGuess(filter);
+                        String filterFieldStr = "FILTER_" + fieldsCount++;
+                        builder.addField(FieldSpec.builder(filterClassName, filterFieldStr,
+                                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                                .initializer("new $T()", filterClassName)
+                                .build());
                         onEventMethodBuilder
-                                .beginControlFlow("if(!(new $T().accepts(master, \"$L\", event)))",
-                                        ClassName.bestGuess(filter), onEventMethodNameStr)
+                                .beginControlFlow("if(!($L.accepts(master, \"$L\", event)))",
+                                        filterFieldStr, onEventMethodNameStr)
                                 .addStatement("return")
                                 .endControlFlow();
 
@@ -126,14 +174,20 @@ public class SubscribeProcessor extends AbstractProcessor {
                     .addStatement("master.$N(event)", onEventMethodNameStr)
                     .build();
 
-            TypeSpec eventObserverTypeSpec = TypeSpec.anonymousClassBuilder("")
-                    .addSuperinterface(ParameterizedTypeName.get(
-                            ClassName.get(EventObserver.class), eventTypeName))
-                    .addMethod(onEventMethodSpec)
-                    .build();
+            TypeSpec eventObserverTypeSpec = weak ?
+                    TypeSpec.anonymousClassBuilder("weakMaster")
+                            .superclass(ParameterizedTypeName.get(
+                                    ClassName.get(WeakEventObserver.class), masterClassName, eventTypeName))
+                            .addMethod(onEventMethodSpec)
+                            .build() :
+                    TypeSpec.anonymousClassBuilder("")
+                            .addSuperinterface(ParameterizedTypeName.get(
+                                    ClassName.get(EventObserver.class), eventTypeName))
+                            .addMethod(onEventMethodSpec)
+                            .build();
 
-            methodBuilder.addStatement("handler.add($T.class,\nbus.register($T.class, $L, $L))",
-                    eventTypeName, eventTypeName, eventObserverTypeSpec, annotation.priority());
+            addRegisterStatement(methodBuilder, eventTypeName, eventObserverTypeSpec,
+                    getSubscriptionStr(builder, element, annotation, masterClassName, onEventMethodNameStr));
         }
 
         methodBuilder.addStatement("return handler");
@@ -141,4 +195,128 @@ public class SubscribeProcessor extends AbstractProcessor {
 
         return false;
     }
+
+    /**
+     * Priority is registered on any bus, a subscription field registers itself, since only ExtendedEventBus applies it
+     */
+    private void addRegisterStatement(MethodSpec.Builder methodBuilder, TypeName eventTypeName,
+                                      TypeSpec observerTypeSpec, String subscriptionStr) {
+        if (subscriptionStr.startsWith(SUBSCRIPTION_FIELD_PREFIX))
+            methodBuilder.addStatement("handler.add($T.class,\n$L.register(bus, $T.class, $L))",
+                    eventTypeName, subscriptionStr, eventTypeName, observerTypeSpec);
+        else
+            methodBuilder.addStatement("handler.add($T.class,\nbus.register($T.class, $L, $L))",
+                    eventTypeName, eventTypeName, observerTypeSpec, subscriptionStr);
+    }
+
+    /**
+     * Ids and topics are routed by the bus, subscription of a subscriber with more than priority is a constant field.
+     * If 'subscribe.metrics' property matches the master, every subscription is, it names the subscriber
+     * for EventBusMetrics
+     */
+    private String getSubscriptionStr(TypeSpec.Builder builder, Element element, Subscribe annotation,
+                                      ClassName masterClassName, String methodNameStr) {
+        Object conflationKey = MetacodeUtils.getAnnotationValue(element, annotationElement, "conflationKey");
+        TypeName conflationKeyTypeName = conflationKey == null ? null : TypeName.get((TypeMirror) conflationKey);
+        if (conflationKeyTypeName != null && conflationKeyTypeName.equals(ClassName.get(ConflationKey.class)))
+            conflationKeyTypeName = null;
+        if (conflationKeyTypeName != null && annotation.conflate() != Conflation.NONE)
+            throw new ProcessingException("Both conflate and conflationKey are set for " +
+                    element.getEnclosingElement().toString() + "." + methodNameStr + "()");
+
+        if (annotation.lane().length() > 0 && annotation.thread() != ThreadMode.SINGLE)
+            throw new ProcessingException("Lane is set for not single thread subscriber " +
+                    element.getEnclosingElement().toString() + "." + methodNameStr + "()");
+
+        boolean metrics = isMetricsEnabled(masterClassName.toString());
+        if (!metrics && annotation.id().length == 0 && annotation.topic().length == 0 && !annotation.sticky() &&
+                annotation.thread() == ThreadMode.DEFAULT && annotation.capacity() == 0 && annotation.overflow() == OverflowPolicy.DEFAULT &&
+                annotation.conflate() == Conflation.NONE && conflationKeyTypeName == null)
+            return String.valueOf(annotation.priority());
+
+        CodeBlock.Builder initializer = CodeBlock.builder()
+                .add("new $T.Builder()", Subscription.class)
+                .add(".priority($L)", annotation.priority());
+        if (annotation.id().length > 0) {
+            String[] ids = new String[annotation.id().length];
+            for (int i = 0; i < ids.length; i++)
+                ids[i] = String.valueOf(annotation.id()[i]);
+            initializer.add(".ids($L)", Joiner.on(", ").join(ids));
+        }
+        if (annotation.topic().length > 0) {
+            String[] topics = new String[annotation.topic().length];
+            for (int i = 0; i < topics.length; i++)
+                topics[i] = CodeBlock.builder().add("$S", annotation.topic()[i]).build().toString();
+            initializer.add(".topics($L)", Joiner.on(", ").join(topics));
+        }
+        if (annotation.sticky())
+            initializer.add(".sticky(true)");
+        if (annotation.thread() != ThreadMode.DEFAULT)
+            initializer.add(".threadMode($T.$L)", ThreadMode.class, annotation.thread().name());
+        if (annotation.lane().length() > 0)
+            initializer.add(".lane($S)", annotation.lane());
+        if (annotation.capacity() != 0)
+            initializer.add(".capacity($L)", annotation.capacity());
+        if (annotation.overflow() != OverflowPolicy.DEFAULT)
+            initializer.add(".overflowPolicy($T.$L)", OverflowPolicy.class, annotation.overflow().name());
+        if (annotation.conflate() != Conflation.NONE)
+            initializer.add(".conflate($T.$L)", Conflation.class, annotation.conflate().name());
+        if (conflationKeyTypeName != null)
+            initializer.add(".conflate(new $T())", conflationKeyTypeName);
+        if (metrics)
+            initializer.add(".source($T.class, $S)", masterClassName, methodNameStr);
+
+        String fieldStr = SUBSCRIPTION_FIELD_PREFIX + fieldsCount++;
+        builder.addField(FieldSpec.builder(Subscription.class, fieldStr,
+                Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer(initializer.add(".build()").build())
+                .build());
+        return fieldStr;
+    }
+
+    private TypeSpec getWeakBatchObserverTypeSpec(TypeName masterTypeName, TypeName eventTypeName,
+                                                  String onEventsMethodNameStr) {
+        TypeName listTypeName = ParameterizedTypeName.get(ClassName.get(List.class), eventTypeName);
+        return TypeSpec.anonymousClassBuilder("weakMaster")
+                .superclass(ParameterizedTypeName.get(ClassName.get(WeakBatchEventObserver.class),
+                        masterTypeName, eventTypeName))
+                .addMethod(MethodSpec.methodBuilder("onEvent")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PROTECTED)
+                        .addParameter(masterTypeName, "master")
+                        .addParameter(eventTypeName, "event")
+                        .returns(void.class)
+                        .addStatement("master.$N($T.singletonList(event))", onEventsMethodNameStr, Collections.class)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("onEvents")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PROTECTED)
+                        .addParameter(masterTypeName, "master")
+                        .addParameter(listTypeName, "events")
+                        .returns(void.class)
+                        .addStatement("master.$N(events)", onEventsMethodNameStr)
+                        .build())
+                .build();
+    }
+
+    private TypeSpec getBatchObserverTypeSpec(TypeName eventTypeName, String onEventsMethodNameStr) {
+        TypeName listTypeName = ParameterizedTypeName.get(ClassName.get(List.class), eventTypeName);
+        return TypeSpec.anonymousClassBuilder("")
+                .addSuperinterface(ParameterizedTypeName.get(ClassName.get(BatchEventObserver.class), eventTypeName))
+                .addMethod(MethodSpec.methodBuilder("onEvent")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(eventTypeName, "event")
+                        .returns(void.class)
+                        .addStatement("master.$N($T.singletonList(event))", onEventsMethodNameStr, Collections.class)
+                        .build())
+                .addMethod(MethodSpec.methodBuilder("onEvents")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .addParameter(listTypeName, "events")
+                        .returns(void.class)
+                        .addStatement("master.$N(events)", onEventsMethodNameStr)
+                        .build())
+                .build();
+    }
 }
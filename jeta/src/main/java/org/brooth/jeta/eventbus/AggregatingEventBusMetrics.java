@@ -0,0 +1,425 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.util.LatencyHistogram;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default {@link EventBusMetrics}, aggregates publish counts and fan-out per event class
+ * and latency histograms per subscriber method and event class. Deliveries longer than the threshold
+ * are counted as slow.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class AggregatingEventBusMetrics implements EventBusMetrics, AggregatingEventBusMetricsMBean {
+
+    public static final long DEFAULT_SLOW_THRESHOLD_MILLIS = 10;
+
+    private final ConcurrentMap<Class<?>, EventMetrics> events = new ConcurrentHashMap<Class<?>, EventMetrics>();
+    private final ConcurrentMap<SubscriberKey, SubscriberMetrics> subscribers =
+            new ConcurrentHashMap<SubscriberKey, SubscriberMetrics>();
+    private volatile long slowThresholdNanos;
+
+    public AggregatingEventBusMetrics() {
+        this(DEFAULT_SLOW_THRESHOLD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public AggregatingEventBusMetrics(long slowThreshold, TimeUnit unit) {
+        this.slowThresholdNanos = unit.toNanos(slowThreshold);
+    }
+
+    @Override
+    public void onPublish(Class<?> eventClass, int fanOut) {
+        EventMetrics event = events.get(eventClass);
+        if (event == null) {
+            event = new EventMetrics(eventClass);
+            EventMetrics quicker = events.putIfAbsent(eventClass, event);
+            if (quicker != null)
+                event = quicker;
+        }
+
+        event.published.incrementAndGet();
+        event.delivered.addAndGet(fanOut);
+        long current;
+        while (fanOut > (current = event.maxFanOut.get()))
+            if (event.maxFanOut.compareAndSet(current, fanOut))
+                break;
+    }
+
+    @Override
+    public SubscriberMetrics subscriber(Class<?> masterClass, String methodName, Class<?> eventClass) {
+        SubscriberKey key = new SubscriberKey(masterClass, methodName, eventClass);
+        SubscriberMetrics subscriber = subscribers.get(key);
+        if (subscriber == null) {
+            subscriber = new SubscriberMetrics(this, key);
+            SubscriberMetrics quicker = subscribers.putIfAbsent(key, subscriber);
+            if (quicker != null)
+                subscriber = quicker;
+        }
+        return subscriber;
+    }
+
+    public EventMetrics get(Class<?> eventClass) {
+        return events.get(eventClass);
+    }
+
+    public SubscriberMetrics get(Class<?> masterClass, String methodName, Class<?> eventClass) {
+        return subscribers.get(new SubscriberKey(masterClass, methodName, eventClass));
+    }
+
+    public Map<Class<?>, EventMetrics> getAllEvents() {
+        return Collections.unmodifiableMap(events);
+    }
+
+    public Collection<SubscriberMetrics> getAllSubscribers() {
+        return Collections.unmodifiableCollection(subscribers.values());
+    }
+
+    /**
+     * @return subscribers that exceeded slow threshold, most often first
+     */
+    public List<SubscriberMetrics> getSlowSubscriberMetrics() {
+        List<SubscriberMetrics> result = new ArrayList<SubscriberMetrics>();
+        for (SubscriberMetrics subscriber : subscribers.values())
+            if (subscriber.getSlowCount() > 0)
+                result.add(subscriber);
+
+        Collections.sort(result, new Comparator<SubscriberMetrics>() {
+            public int compare(SubscriberMetrics o1, SubscriberMetrics o2) {
+                long s1 = o1.getSlowCount();
+                long s2 = o2.getSlowCount();
+                return s1 == s2 ? 0 : s1 > s2 ? -1 : 1;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return copy of current values
+     */
+    public Snapshot snapshot() {
+        Map<Class<?>, EventSnapshot> eventSnapshots = new HashMap<Class<?>, EventSnapshot>();
+        for (EventMetrics event : events.values())
+            eventSnapshots.put(event.eventClass, new EventSnapshot(event));
+
+        Map<String, SubscriberSnapshot> subscriberSnapshots = new HashMap<String, SubscriberSnapshot>();
+        for (SubscriberMetrics subscriber : subscribers.values())
+            subscriberSnapshots.put(subscriber.key.toString(), new SubscriberSnapshot(subscriber));
+
+        return new Snapshot(System.currentTimeMillis(), slowThresholdNanos,
+                Collections.unmodifiableMap(eventSnapshots), Collections.unmodifiableMap(subscriberSnapshots));
+    }
+
+    public long getSlowThresholdNanos() {
+        return slowThresholdNanos;
+    }
+
+    public void setSlowThresholdNanos(long value) {
+        slowThresholdNanos = value;
+    }
+
+    @Override
+    public long getSlowThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    @Override
+    public void setSlowThresholdMillis(long value) {
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(value);
+    }
+
+    @Override
+    public long getPublishedCount() {
+        long result = 0;
+        for (EventMetrics event : events.values())
+            result += event.getPublishedCount();
+        return result;
+    }
+
+    @Override
+    public long getDeliveredCount() {
+        long result = 0;
+        for (EventMetrics event : events.values())
+            result += event.getDeliveredCount();
+        return result;
+    }
+
+    @Override
+    public String[] getEvents() {
+        List<String> result = new ArrayList<String>();
+        for (EventMetrics event : events.values())
+            result.add(event.toString());
+        Collections.sort(result);
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public String[] getSubscribers() {
+        List<SubscriberMetrics> list = new ArrayList<SubscriberMetrics>(subscribers.values());
+        Collections.sort(list, new Comparator<SubscriberMetrics>() {
+            public int compare(SubscriberMetrics o1, SubscriberMetrics o2) {
+                long t1 = o1.latency.getTotalNanos();
+                long t2 = o2.latency.getTotalNanos();
+                return t1 == t2 ? 0 : t1 > t2 ? -1 : 1;
+            }
+        });
+
+        String[] result = new String[list.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = list.get(i).toString();
+        return result;
+    }
+
+    @Override
+    public String[] getSlowSubscribers() {
+        List<SubscriberMetrics> list = getSlowSubscriberMetrics();
+        String[] result = new String[list.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = list.get(i).toString();
+        return result;
+    }
+
+    /**
+     * Subscriber metrics are zeroed, not removed, since the subscriptions keep them
+     */
+    @Override
+    public void reset() {
+        events.clear();
+        for (SubscriberMetrics subscriber : subscribers.values())
+            subscriber.reset();
+    }
+
+    private static final class SubscriberKey {
+        final Class<?> masterClass;
+        final String methodName;
+        final Class<?> eventClass;
+
+        SubscriberKey(Class<?> masterClass, String methodName, Class<?> eventClass) {
+            this.masterClass = masterClass;
+            this.methodName = methodName;
+            this.eventClass = eventClass;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof SubscriberKey))
+                return false;
+            SubscriberKey that = (SubscriberKey) o;
+            return masterClass == that.masterClass && eventClass == that.eventClass &&
+                    methodName.equals(that.methodName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = masterClass.hashCode();
+            result = 31 * result + methodName.hashCode();
+            result = 31 * result + (eventClass == null ? 0 : eventClass.hashCode());
+            return result;
+        }
+
+        /**
+         * {@code MasterClassName#method(EventClassName)}
+         */
+        @Override
+        public String toString() {
+            return masterClass.getName() + '#' + methodName +
+                    '(' + (eventClass == null ? "" : eventClass.getName()) + ')';
+        }
+    }
+
+    public static class EventMetrics {
+        private final Class<?> eventClass;
+        private final AtomicLong published = new AtomicLong();
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong maxFanOut = new AtomicLong();
+
+        EventMetrics(Class<?> eventClass) {
+            this.eventClass = eventClass;
+        }
+
+        public Class<?> getEventClass() {
+            return eventClass;
+        }
+
+        public long getPublishedCount() {
+            return published.get();
+        }
+
+        /**
+         * @return total number of deliveries, sum of fan-outs
+         */
+        public long getDeliveredCount() {
+            return delivered.get();
+        }
+
+        public long getMaxFanOut() {
+            return maxFanOut.get();
+        }
+
+        public double getMeanFanOut() {
+            long p = published.get();
+            return p == 0 ? 0 : (double) delivered.get() / p;
+        }
+
+        @Override
+        public String toString() {
+            return "EventMetrics{" +
+                    "eventClass=" + eventClass.getName() +
+                    ", published=" + published +
+                    ", delivered=" + delivered +
+                    ", maxFanOut=" + maxFanOut +
+                    '}';
+        }
+    }
+
+    public static class SubscriberMetrics implements DeliveryRecorder {
+        private final AggregatingEventBusMetrics owner;
+        private final SubscriberKey key;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLong slow = new AtomicLong();
+
+        SubscriberMetrics(AggregatingEventBusMetrics owner, SubscriberKey key) {
+            this.owner = owner;
+            this.key = key;
+        }
+
+        @Override
+        public void onDelivery(long nanos) {
+            latency.record(nanos);
+            if (nanos > owner.slowThresholdNanos)
+                slow.incrementAndGet();
+        }
+
+        void reset() {
+            latency.reset();
+            slow.set(0);
+        }
+
+        public Class<?> getMasterClass() {
+            return key.masterClass;
+        }
+
+        public String getMethodName() {
+            return key.methodName;
+        }
+
+        /**
+         * @return event class the subscriber is registered for, null if unknown
+         */
+        public Class<?> getEventClass() {
+            return key.eventClass;
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return number of deliveries longer than slow threshold
+         */
+        public long getSlowCount() {
+            return slow.get();
+        }
+
+        @Override
+        public String toString() {
+            return "SubscriberMetrics{" +
+                    "subscriber=" + key +
+                    ", slow=" + slow +
+                    ", latency=" + latency +
+                    '}';
+        }
+    }
+
+    public static final class Snapshot {
+        private final long timestamp;
+        private final long slowThresholdNanos;
+        private final Map<Class<?>, EventSnapshot> events;
+        private final Map<String, SubscriberSnapshot> subscribers;
+
+        Snapshot(long timestamp, long slowThresholdNanos, Map<Class<?>, EventSnapshot> events,
+                 Map<String, SubscriberSnapshot> subscribers) {
+            this.timestamp = timestamp;
+            this.slowThresholdNanos = slowThresholdNanos;
+            this.events = events;
+            this.subscribers = subscribers;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getSlowThresholdNanos() {
+            return slowThresholdNanos;
+        }
+
+        public Map<Class<?>, EventSnapshot> getEvents() {
+            return events;
+        }
+
+        /**
+         * @return snapshots by {@code MasterClassName#method(EventClassName)}
+         */
+        public Map<String, SubscriberSnapshot> getSubscribers() {
+            return subscribers;
+        }
+    }
+
+    public static final class EventSnapshot {
+        public final Class<?> eventClass;
+        public final long published;
+        public final long delivered;
+        public final long maxFanOut;
+
+        EventSnapshot(EventMetrics metrics) {
+            this.eventClass = metrics.eventClass;
+            this.published = metrics.getPublishedCount();
+            this.delivered = metrics.getDeliveredCount();
+            this.maxFanOut = metrics.getMaxFanOut();
+        }
+    }
+
+    public static final class SubscriberSnapshot {
+        public final Class<?> masterClass;
+        public final String methodName;
+        public final Class<?> eventClass;
+        public final long count;
+        public final long slow;
+        public final long meanNanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+
+        SubscriberSnapshot(SubscriberMetrics metrics) {
+            this.masterClass = metrics.getMasterClass();
+            this.methodName = metrics.getMethodName();
+            this.eventClass = metrics.getEventClass();
+            this.count = metrics.latency.getCount();
+            this.slow = metrics.getSlowCount();
+            this.meanNanos = metrics.latency.getMeanNanos();
+            this.p99Nanos = metrics.latency.getPercentileNanos(99);
+            this.maxNanos = metrics.latency.getMaxNanos();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+/**
+ * JMX view of {@link AggregatingEventBusMetrics}
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface AggregatingEventBusMetricsMBean {
+
+    long getPublishedCount();
+
+    long getDeliveredCount();
+
+    long getSlowThresholdMillis();
+
+    void setSlowThresholdMillis(long value);
+
+    /**
+     * @return per event class counts
+     */
+    String[] getEvents();
+
+    /**
+     * @return per subscriber latencies, slowest first
+     */
+    String[] getSubscribers();
+
+    /**
+     * @return subscribers that exceeded slow threshold, most often first
+     */
+    String[] getSlowSubscribers();
+
+    void reset();
+}
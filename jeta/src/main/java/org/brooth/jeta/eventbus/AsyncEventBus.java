@@ -0,0 +1,187 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+import org.brooth.jeta.observer.Observers;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Delivers events on an executor. Each subscriber has own queue, so a slow subscriber doesn't stall
+ * publishers and others, and receives events in the order they were published.
+ * Priority defines the order subscribers are queued in, not the order they handle an event.
+ * <p>
+ * Mailboxes are unbounded by default. Capacity and {@link OverflowPolicy} can be set for the bus
+ * and overridden per subscriber by {@link Subscription}. Publishing to a full mailbox waits, drops an event
+ * or throws {@link java.util.concurrent.RejectedExecutionException} according to its overflow policy.
+ * <p>
+ * A subscriber with {@link ThreadMode} is delivered on its {@link DeliveryLanes lane} instead of the executor,
+ * {@link ThreadMode#POSTING} one - on publisher's thread.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class AsyncEventBus extends BaseEventBus {
+
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    protected final Executor executor;
+    protected final int capacity;
+    protected final OverflowPolicy overflowPolicy;
+
+    public AsyncEventBus(Executor executor) {
+        this(executor, false);
+    }
+
+    public AsyncEventBus(Executor executor, boolean hierarchical) {
+        this(executor, hierarchical, UNBOUNDED, OverflowPolicy.BLOCK);
+    }
+
+    public AsyncEventBus(Executor executor, int capacity, OverflowPolicy overflowPolicy) {
+        this(executor, false, capacity, overflowPolicy);
+    }
+
+    /**
+     * @param capacity       default capacity of subscribers' mailboxes
+     * @param overflowPolicy default policy of full mailboxes
+     */
+    public AsyncEventBus(Executor executor, boolean hierarchical, int capacity, OverflowPolicy overflowPolicy) {
+        super(hierarchical);
+        if (executor == null)
+            throw new IllegalArgumentException("executor is null");
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (overflowPolicy == null || overflowPolicy == OverflowPolicy.DEFAULT)
+            throw new IllegalArgumentException("overflow policy isn't defined");
+        this.executor = executor;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public <E extends Message> Observers.Handler<E> register(Class<E> eventClass, EventObserver<E> observer,
+                                                             Subscription subscription) {
+        Executor executor = this.executor;
+        int capacity = this.capacity;
+        OverflowPolicy overflowPolicy = this.overflowPolicy;
+        if (subscription != null) {
+            ThreadMode threadMode = subscription.getThreadMode();
+            if (threadMode == ThreadMode.POSTING)
+                return super.register(eventClass, observer, subscription);
+            if (threadMode != ThreadMode.DEFAULT)
+                executor = getDeliveryLanes().get(threadMode, subscription.getLane());
+
+            if (subscription.getCapacity() > 0)
+                capacity = subscription.getCapacity();
+            if (subscription.getOverflowPolicy() != OverflowPolicy.DEFAULT)
+                overflowPolicy = subscription.getOverflowPolicy();
+        }
+
+        return super.register(eventClass,
+                new Mailbox<E>(observer, executor, this, eventClass, subscription, capacity, overflowPolicy),
+                subscription);
+    }
+
+    /**
+     * @return future that completes when all the subscribers handled the event, an event dropped by a full
+     * mailbox counts as handled, rejected one fails the future
+     */
+    public <E extends Message> Future<Integer> publishAsync(E event) {
+        assert event != null;
+
+        List<Mailbox<E>> mailboxes = new ArrayList<Mailbox<E>>();
+        List<Subscribers.PriorityEventObserver<E>> posting = new ArrayList<Subscribers.PriorityEventObserver<E>>();
+        for (EventObserver<?> observer : observersOf(event.getClass())) {
+            @SuppressWarnings("unchecked")
+            Subscribers.PriorityEventObserver<E> o = (Subscribers.PriorityEventObserver<E>) observer;
+            if (o.accepts(event)) {
+                if (o.observer instanceof Mailbox)
+                    mailboxes.add((Mailbox<E>) o.observer);
+                else
+                    posting.add(o);
+            }
+        }
+
+        EventBusMetrics metrics = this.metrics;
+        if (metrics != null)
+            metrics.onPublish(event.getClass(), mailboxes.size() + posting.size());
+
+        PublishFuture future = new PublishFuture(mailboxes.size() + posting.size());
+        try {
+            for (Subscribers.PriorityEventObserver<E> observer : posting) {
+                long start = metrics == null ? 0 : System.nanoTime();
+                Throwable error = null;
+                try {
+                    observer.observer.onEvent(event);
+                } catch (Throwable t) {
+                    error = t;
+                }
+                if (metrics != null)
+                    observer.recordDelivery(metrics, System.nanoTime() - start);
+                future.done(error);
+            }
+            for (Mailbox<E> mailbox : mailboxes)
+                mailbox.enqueue(event, future);
+        } finally {
+            PooledMessage.releaseIfPooled(event);
+        }
+        return future;
+    }
+
+    /**
+     * @return metrics of the registered subscribers' mailboxes
+     */
+    public List<MailboxMetrics> getMailboxMetrics() {
+        List<MailboxMetrics> result = new ArrayList<MailboxMetrics>();
+        for (Subscribers<?> subscribers : subscribersMap.values())
+            for (EventObserver<?> observer : subscribers.getAll()) {
+                EventObserver<?> o = ((Subscribers.PriorityEventObserver<?>) observer).observer;
+                if (o instanceof Mailbox)
+                    result.add((Mailbox<?>) o);
+            }
+        return result;
+    }
+
+    private List<? extends EventObserver<?>> observersOf(Class<?> eventClass) {
+        if (hierarchical)
+            return Arrays.asList(getDispatch(eventClass).observers);
+
+        Subscribers<?> subscribers = subscribersMap.get(eventClass);
+        return subscribers == null ? Collections.<EventObserver<?>>emptyList() : subscribers.getAll();
+    }
+
+    /**
+     * @return virtual thread per task executor
+     * @throws UnsupportedOperationException if the runtime doesn't support virtual threads (java 21+)
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Virtual threads aren't supported by the runtime", e);
+        }
+    }
+}
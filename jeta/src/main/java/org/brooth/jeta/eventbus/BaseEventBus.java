@@ -1,17 +1,17 @@
 /*
  * Copyright 2016 Oleg Khalidov
  *
- *  Licensed under the Apache License, Version 2.0 (the "License");
- *  you may not use this file except in compliance with the License.
- *  You may obtain a copy of the License at
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
  *
- *      http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.apache.org/licenses/LICENSE-2.0
  *
- *  Unless required by applicable law or agreed to in writing, software
- *  distributed under the License is distributed on an "AS IS" BASIS,
- *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- *  See the License for the specific language governing permissions and
- *  limitations under the License.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
  */
 
 package org.brooth.jeta.eventbus;
@@ -19,39 +19,500 @@ package org.brooth.jeta.eventbus;
 import org.brooth.jeta.observer.EventObserver;
 import org.brooth.jeta.observer.Observers;
 
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * @author Oleg Khalidov (brooth@gmail.com)
  */
-public class BaseEventBus implements EventBus {
+public class BaseEventBus implements ExtendedEventBus {
 
     protected ConcurrentHashMap<Class<?>, Subscribers<?>> subscribersMap = new ConcurrentHashMap<Class<?>, Subscribers<?>>();
 
+    protected final boolean hierarchical;
+    /**
+     * incremented once subscribers of a new event class appear, invalidates dispatch cache.
+     * Changes of existing subscribers are tracked by their own versions.
+     */
+    private final AtomicInteger classesVersion = new AtomicInteger();
+    /**
+     * number of purged weak subscribers
+     */
+    protected final AtomicLong purged = new AtomicLong();
+    /**
+     * null if the bus isn't instrumented
+     */
+    protected volatile EventBusMetrics metrics;
+    /**
+     * created on the first subscriber with a lane
+     */
+    private volatile DeliveryLanes lanes;
+    /**
+     * created on the first delayed event
+     */
+    private volatile HashedTimingWheel timingWheel;
+    private final ConcurrentHashMap<Class<?>, Dispatch> dispatchCache = new ConcurrentHashMap<Class<?>, Dispatch>();
+    private final ConcurrentHashMap<Class<?>, StickyEvents> stickyEvents = new ConcurrentHashMap<Class<?>, StickyEvents>();
+
+    public BaseEventBus() {
+        this(false);
+    }
+
+    /**
+     * @param hierarchical deliver events to the subscribers of their super classes and interfaces too
+     */
+    public BaseEventBus(boolean hierarchical) {
+        this.hierarchical = hierarchical;
+    }
+
     public <E extends Message> Observers.Handler<E> register(Class<E> eventClass, EventObserver<E> observer, int priority) {
+        return register(eventClass, observer, new Subscription.Builder().priority(priority).build());
+    }
+
+    public <E extends Message> Observers.Handler<E> register(Class<E> eventClass, EventObserver<E> observer,
+                                                             Subscription subscription) {
         assert eventClass != null;
         assert observer != null;
 
+        if (subscription != null && !(observer instanceof Mailbox)) {
+            ThreadMode threadMode = subscription.getThreadMode();
+            if (threadMode != ThreadMode.DEFAULT && threadMode != ThreadMode.POSTING)
+                observer = new Mailbox<E>(observer, getDeliveryLanes().get(threadMode, subscription.getLane()),
+                        this, eventClass, subscription,
+                        subscription.getCapacity() > 0 ? subscription.getCapacity() : AsyncEventBus.UNBOUNDED,
+                        subscription.getOverflowPolicy() != OverflowPolicy.DEFAULT ?
+                                subscription.getOverflowPolicy() : OverflowPolicy.BLOCK);
+        }
+
         @SuppressWarnings("unchecked")
         Subscribers<E> subscribers = (Subscribers<E>) subscribersMap.get(eventClass);
         if (subscribers == null) {
-            subscribers = new Subscribers<E>();
+            subscribers = new Subscribers<E>(eventClass, purged);
             @SuppressWarnings("unchecked")
             Subscribers<E> quicker = (Subscribers<E>) subscribersMap.putIfAbsent(eventClass, subscribers);
             if (quicker != null)
                 subscribers = quicker;
+            else
+                classesVersion.incrementAndGet();
+        }
+
+        Observers.Handler<E> handler = subscribers.register(observer, subscription);
+        if (subscription != null && subscription.isSticky()) {
+            StickyEvents sticky = stickyEvents.get(eventClass);
+            if (sticky != null)
+                for (Message event : sticky.matching(subscription))
+                    observer.onEvent(eventClass.cast(event));
+        }
+        return handler;
+    }
+
+    /**
+     * A sticky subscriber that registers while the event is being published may receive it twice
+     */
+    public <E extends Message> void publishSticky(E event) {
+        assert event != null;
+        if (event instanceof PooledMessage)
+            throw new IllegalArgumentException("Pooled message can't be sticky");
+
+        StickyEvents sticky = stickyEvents.get(event.getClass());
+        if (sticky == null) {
+            sticky = new StickyEvents();
+            StickyEvents quicker = stickyEvents.putIfAbsent(event.getClass(), sticky);
+            if (quicker != null)
+                sticky = quicker;
         }
+        sticky.put(event);
+        publish(event);
+    }
+
+    public <E extends Message> E getStickyEvent(Class<E> eventClass) {
+        StickyEvents sticky = stickyEvents.get(eventClass);
+        return sticky == null ? null : eventClass.cast(sticky.last);
+    }
 
-        return subscribers.register(observer, priority);
+    public <E extends Message> E removeStickyEvent(Class<E> eventClass) {
+        StickyEvents sticky = stickyEvents.remove(eventClass);
+        return sticky == null ? null : eventClass.cast(sticky.last);
+    }
+
+    /**
+     * Publishes the event after the delay on the timing wheel's thread. Exceptions of the subscribers
+     * are passed to {@link #onSubscriberException(Throwable, Object)}.
+     * {@link PooledMessage} is released if the publication is cancelled.
+     *
+     * @return handle to cancel the publication
+     */
+    public <E extends Message> HashedTimingWheel.Timeout publishDelayed(E event, long delay, TimeUnit unit) {
+        assert event != null;
+        return getTimingWheel().schedulePublish(this, event, delay, 0, unit);
+    }
+
+    /**
+     * Publishes the same event after the initial delay and then every period until cancelled.
+     * {@link PooledMessage} is retained for each publication and released once cancelled.
+     *
+     * @return handle to stop the publications
+     */
+    public <E extends Message> HashedTimingWheel.Timeout publishPeriodically(E event, long initialDelay, long period,
+                                                                             TimeUnit unit) {
+        assert event != null;
+        if (period <= 0)
+            throw new IllegalArgumentException("period must be positive");
+        return getTimingWheel().schedulePublish(this, event, initialDelay, period, unit);
     }
 
+    /**
+     * {@link PooledMessage} is released once the subscribers returned
+     */
     public <E extends Message> void publish(E event) {
         assert event != null;
 
+        try {
+            EventBusMetrics metrics = this.metrics;
+            if (metrics != null) {
+                publishInstrumented(event, metrics);
+                return;
+            }
+
+            if (hierarchical) {
+                for (EventObserver<?> observer : getDispatch(event.getClass()).observers) {
+                    @SuppressWarnings("unchecked")
+                    EventObserver<E> o = (EventObserver<E>) observer;
+                    o.onEvent(event);
+                }
+                return;
+            }
+
+            @SuppressWarnings("unchecked")
+            Subscribers<E> subscribers = (Subscribers<E>) subscribersMap.get(event.getClass());
+            if (subscribers != null) {
+                subscribers.notify(event);
+            }
+
+        } finally {
+            PooledMessage.releaseIfPooled(event);
+        }
+    }
+
+    public <E extends Message> void publishAll(Collection<? extends E> events) {
+        assert events != null;
+        publishRuns(events instanceof List && events instanceof RandomAccess ?
+                (List<? extends Message>) events : new ArrayList<E>(events));
+    }
+
+    public <E extends Message> void publishAll(E[] events) {
+        assert events != null;
+        publishRuns(Arrays.asList(events));
+    }
+
+    /**
+     * Delivers the runs of same class events, each subscriber receives a run in a row
+     */
+    protected void publishRuns(List<? extends Message> events) {
+        try {
+            dispatchRuns(events);
+        } finally {
+            for (int i = 0; i < events.size(); i++)
+                PooledMessage.releaseIfPooled(events.get(i));
+        }
+    }
+
+    private void dispatchRuns(List<? extends Message> events) {
+        EventBusMetrics metrics = this.metrics;
+        if (metrics != null) {
+            for (Message event : events)
+                publishInstrumented(event, metrics);
+            return;
+        }
+
+        int size = events.size();
+        int start = 0;
+        while (start < size) {
+            Class<?> eventClass = events.get(start).getClass();
+            int end = start + 1;
+            while (end < size && events.get(end).getClass() == eventClass)
+                end++;
+
+            List<? extends Message> run = events.subList(start, end);
+            for (EventObserver<?> observer : getDispatch(eventClass).observers) {
+                @SuppressWarnings("unchecked")
+                Subscribers.PriorityEventObserver<Message> o = (Subscribers.PriorityEventObserver<Message>) observer;
+                @SuppressWarnings("unchecked")
+                List<Message> r = (List<Message>) run;
+                o.onEvents(r);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Must be set before subscribers with lanes are registered
+     */
+    public void setDeliveryLanes(DeliveryLanes lanes) {
+        if (lanes == null)
+            throw new IllegalArgumentException("lanes is null");
+        this.lanes = lanes;
+    }
+
+    /**
+     * @return lanes of the subscribers that set {@link Subscription#getThreadMode()}
+     */
+    public DeliveryLanes getDeliveryLanes() {
+        DeliveryLanes result = lanes;
+        if (result == null) {
+            synchronized (this) {
+                result = lanes;
+                if (result == null)
+                    lanes = result = new DeliveryLanes();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Must be set before the first delayed event. A wheel can be shared by many buses.
+     */
+    public void setTimingWheel(HashedTimingWheel timingWheel) {
+        if (timingWheel == null)
+            throw new IllegalArgumentException("timingWheel is null");
+        this.timingWheel = timingWheel;
+    }
+
+    /**
+     * @return timer of {@link #publishDelayed(Message, long, TimeUnit)} and
+     * {@link #publishPeriodically(Message, long, long, TimeUnit)}
+     */
+    public HashedTimingWheel getTimingWheel() {
+        HashedTimingWheel result = timingWheel;
+        if (result == null) {
+            synchronized (this) {
+                result = timingWheel;
+                if (result == null)
+                    timingWheel = result = new HashedTimingWheel();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param metrics receives publish counts and subscribers' latencies, null to turn instrumentation off
+     */
+    public void setMetrics(EventBusMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public EventBusMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Delivers the event one by one to the subscribers that accept it, timing each
+     *
+     * @return fan-out
+     */
+    protected int publishInstrumented(Object event, EventBusMetrics metrics) {
+        int fanOut = 0;
+        for (EventObserver<?> observer : getDispatch(event.getClass()).observers) {
+            if (((Subscribers.PriorityEventObserver<?>) observer).accepts(event)) {
+                fanOut++;
+                deliverInstrumented(observer, event, metrics);
+            }
+        }
+        metrics.onPublish(event.getClass(), fanOut);
+        return fanOut;
+    }
+
+    /**
+     * Mailboxes of asynchronous buses time deliveries on delivery thread
+     */
+    protected void deliverInstrumented(EventObserver<?> observer, Object event, EventBusMetrics metrics) {
         @SuppressWarnings("unchecked")
-        Subscribers<E> subscribers = (Subscribers<E>) subscribersMap.get(event.getClass());
-        if (subscribers != null) {
-            subscribers.notify(event);
+        Subscribers.PriorityEventObserver<Object> o = (Subscribers.PriorityEventObserver<Object>) observer;
+        if (o.observer instanceof Mailbox) {
+            o.observer.onEvent(event);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            o.observer.onEvent(event);
+        } finally {
+            o.recordDelivery(metrics, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Subscriber's recorder, resolved once per metrics instance
+     */
+    static final class MetricsBinding {
+        final EventBusMetrics metrics;
+        final EventBusMetrics.DeliveryRecorder recorder;
+
+        private MetricsBinding(EventBusMetrics metrics, EventBusMetrics.DeliveryRecorder recorder) {
+            this.metrics = metrics;
+            this.recorder = recorder;
+        }
+
+        static MetricsBinding bind(MetricsBinding binding, EventBusMetrics metrics, Subscription subscription,
+                                   EventObserver<?> observer, Class<?> eventClass) {
+            if (binding != null && binding.metrics == metrics)
+                return binding;
+
+            EventBusMetrics.DeliveryRecorder recorder;
+            if (subscription != null && subscription.getMasterClass() != null)
+                recorder = metrics.subscriber(subscription.getMasterClass(), subscription.getMethodName(), eventClass);
+            else
+                recorder = metrics.subscriber(observer.getClass(), "onEvent", eventClass);
+            return new MetricsBinding(metrics, recorder);
+        }
+    }
+
+    /**
+     * Removes weak subscribers whose masters are collected. Dead subscribers of published events are purged
+     * lazily, this sweeps the others, e.g. periodically.
+     *
+     * @return number of purged subscribers
+     */
+    public int purge() {
+        int result = 0;
+        for (Subscribers<?> subscribers : subscribersMap.values())
+            result += subscribers.purge();
+        return result;
+    }
+
+    /**
+     * @return total number of purged weak subscribers, lazily and by {@link #purge()}
+     */
+    public long getPurgedCount() {
+        return purged.get();
+    }
+
+    /**
+     * Subscribers of the event class, in hierarchical mode also of its super classes and interfaces,
+     * merged by priority. Subscribers of the same priority are ordered from the most specific type.
+     */
+    protected Dispatch getDispatch(Class<?> eventClass) {
+        Dispatch dispatch = dispatchCache.get(eventClass);
+        int current = classesVersion.get();
+        if (dispatch != null && dispatch.isValid(current))
+            return dispatch;
+
+        List<Subscribers<?>> sources = new ArrayList<Subscribers<?>>();
+        for (Class<?> type : hierarchical ? hierarchyOf(eventClass) : Collections.<Class<?>>singleton(eventClass)) {
+            Subscribers<?> subscribers = subscribersMap.get(type);
+            if (subscribers != null)
+                sources.add(subscribers);
+        }
+
+        Subscribers<?>[] subscribers = sources.toArray(new Subscribers<?>[sources.size()]);
+        int[] versions = new int[subscribers.length];
+        List<EventObserver<?>> observers = new ArrayList<EventObserver<?>>();
+        for (int i = 0; i < subscribers.length; i++) {
+            // read before the snapshot, so a concurrent change invalidates the entry
+            versions[i] = subscribers[i].getVersion();
+            observers.addAll(subscribers[i].getAll());
+        }
+        // stable, keeps specific types first
+        Collections.sort(observers, new Subscribers.PriorityComparator());
+
+        dispatch = new Dispatch(current, subscribers, versions, observers.toArray(new EventObserver<?>[observers.size()]));
+        dispatchCache.put(eventClass, dispatch);
+        return dispatch;
+    }
+
+    /**
+     * Called by asynchronous buses on delivery thread if a subscriber throws an exception, delivery continues.
+     * Synchronous {@link #publish(Message)} propagates exceptions to the publisher instead.
+     * By default passes the exception to the thread's uncaught exception handler.
+     */
+    protected void onSubscriberException(Throwable t, Object event) {
+        Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+    }
+
+    private static Set<Class<?>> hierarchyOf(Class<?> eventClass) {
+        Set<Class<?>> result = new LinkedHashSet<Class<?>>();
+        Deque<Class<?>> queue = new ArrayDeque<Class<?>>();
+        queue.add(eventClass);
+        while (!queue.isEmpty()) {
+            Class<?> type = queue.poll();
+            if (type == Object.class || !result.add(type))
+                continue;
+            if (type.getSuperclass() != null)
+                queue.add(type.getSuperclass());
+            Collections.addAll(queue, type.getInterfaces());
+        }
+        return result;
+    }
+
+    /**
+     * Last sticky events of a class, the last one and the last ones by id and by topic
+     */
+    private static final class StickyEvents {
+        volatile Message last;
+        final ConcurrentHashMap<Integer, Message> byId = new ConcurrentHashMap<Integer, Message>();
+        final ConcurrentHashMap<String, Message> byTopic = new ConcurrentHashMap<String, Message>();
+
+        void put(Message event) {
+            last = event;
+            byId.put(event.id(), event);
+            if (event.topic() != null)
+                byTopic.put(event.topic(), event);
+        }
+
+        /**
+         * @return the last event for not routed subscription, otherwise the last events of its ids or topics
+         */
+        Collection<Message> matching(Subscription subscription) {
+            if (!subscription.isRouted()) {
+                Message event = last;
+                return event == null ? Collections.<Message>emptyList() : Collections.singletonList(event);
+            }
+
+            Set<Message> result = new LinkedHashSet<Message>();
+            if (subscription.ids().length > 0) {
+                for (int id : subscription.ids()) {
+                    Message event = byId.get(id);
+                    if (event != null && subscription.accepts(event))
+                        result.add(event);
+                }
+            } else {
+                for (String topic : subscription.topics()) {
+                    Message event = byTopic.get(topic);
+                    if (event != null && subscription.accepts(event))
+                        result.add(event);
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Merged subscribers of the classes an event class is delivered to, valid while none of them changed
+     */
+    protected static final class Dispatch {
+        final int classesVersion;
+        final Subscribers<?>[] subscribers;
+        final int[] versions;
+        final EventObserver<?>[] observers;
+
+        Dispatch(int classesVersion, Subscribers<?>[] subscribers, int[] versions, EventObserver<?>[] observers) {
+            this.classesVersion = classesVersion;
+            this.subscribers = subscribers;
+            this.versions = versions;
+            this.observers = observers;
+        }
+
+        boolean isValid(int currentClassesVersion) {
+            if (classesVersion != currentClassesVersion)
+                return false;
+            for (int i = 0; i < subscribers.length; i++)
+                if (subscribers[i].getVersion() != versions[i])
+                    return false;
+            return true;
         }
     }
 }
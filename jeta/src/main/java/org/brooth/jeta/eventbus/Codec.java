@@ -0,0 +1,39 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Target;
+
+/**
+ * Generates binary encode/decode metacode of the class. Supported fields are primitives,
+ * strings, enums and {@code @Codec} annotated classes. Static and transient fields are skipped.
+ * Enums are encoded by constant names, decoding a removed or renamed constant fails.
+ * <p>
+ * Register the codec of a message class by {@link MessageCodecRegistry#register(org.brooth.jeta.metasitory.Metasitory, Class)}.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+@Target(ElementType.TYPE)
+public @interface Codec {
+
+    /**
+     * 0 to derive the id from the class name, as {@link MessageCodecRegistry#register(Class, MessageCodec)} does.
+     * Colliding ids of the codecs compiled together are reported at compile time.
+     */
+    int typeId() default 0;
+}
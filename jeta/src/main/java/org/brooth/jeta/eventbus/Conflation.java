@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.util.Arrays;
+
+/**
+ * Built-in conflation keys
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public enum Conflation implements ConflationKey {
+
+    NONE {
+        @Override
+        public Object keyOf(Message event) {
+            return null;
+        }
+    },
+
+    /**
+     * Only the latest event is kept
+     */
+    LATEST {
+        @Override
+        public Object keyOf(Message event) {
+            return this;
+        }
+    },
+
+    ID {
+        @Override
+        public Object keyOf(Message event) {
+            return event.id();
+        }
+    },
+
+    /**
+     * Events without topic aren't conflated
+     */
+    TOPIC {
+        @Override
+        public Object keyOf(Message event) {
+            return event.topic();
+        }
+    },
+
+    ID_AND_TOPIC {
+        @Override
+        public Object keyOf(Message event) {
+            return Arrays.asList(event.id(), event.topic());
+        }
+    }
+}
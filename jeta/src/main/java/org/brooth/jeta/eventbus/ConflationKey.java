@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+/**
+ * Key of conflated events. Undelivered event is replaced by a newer one with the equal key.
+ * Must have a public no-arg constructor to be used in {@link Subscribe#conflationKey()}.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface ConflationKey {
+
+    /**
+     * @return key of the event, null - the event isn't conflated
+     */
+    Object keyOf(Message event);
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executors of subscribers that set {@link Subscribe#thread()}. A subscriber on a lane has own mailbox,
+ * so it receives events in the order they were published, whatever lane it's on.
+ * Executors are created on the first use and shared by the buses the lanes are set to.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class DeliveryLanes {
+
+    public static final String DEFAULT_LANE = "single";
+
+    private final ThreadFactory threadFactory;
+    private final int poolSize;
+
+    private final ConcurrentHashMap<String, Lane> singles = new ConcurrentHashMap<String, Lane>();
+    // guarded by this
+    private Lane pool;
+    private Lane virtual;
+
+    public DeliveryLanes() {
+        this(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jeta-lane-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadFactory threads of single and pool lanes
+     * @param poolSize      threads of the pool lane
+     */
+    public DeliveryLanes(ThreadFactory threadFactory, int poolSize) {
+        if (threadFactory == null)
+            throw new IllegalArgumentException("threadFactory is null");
+        if (poolSize <= 0)
+            throw new IllegalArgumentException("poolSize must be positive");
+        this.threadFactory = threadFactory;
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * @param name lane of {@link ThreadMode#SINGLE}, empty or null - {@link #DEFAULT_LANE}
+     */
+    public Executor get(ThreadMode threadMode, String name) {
+        switch (threadMode) {
+            case SINGLE:
+                if (name == null || name.isEmpty())
+                    name = DEFAULT_LANE;
+                Lane lane = singles.get(name);
+                if (lane == null) {
+                    synchronized (this) {
+                        lane = singles.get(name);
+                        if (lane == null) {
+                            lane = new Lane(name, ThreadMode.SINGLE, Executors.newSingleThreadExecutor(threadFactory));
+                            singles.put(name, lane);
+                        }
+                    }
+                }
+                return lane;
+
+            case POOL:
+                return pool();
+
+            case VIRTUAL:
+                synchronized (this) {
+                    if (virtual == null) {
+                        try {
+                            virtual = new Lane("virtual", ThreadMode.VIRTUAL, AsyncEventBus.newVirtualThreadExecutor());
+                        } catch (UnsupportedOperationException e) {
+                            return pool();
+                        }
+                    }
+                    return virtual;
+                }
+
+            default:
+                throw new IllegalArgumentException(threadMode + " isn't a lane");
+        }
+    }
+
+    private synchronized Lane pool() {
+        if (pool == null)
+            pool = new Lane("pool", ThreadMode.POOL, Executors.newFixedThreadPool(poolSize, threadFactory));
+        return pool;
+    }
+
+    /**
+     * @return metrics of the created lanes
+     */
+    public synchronized List<LaneMetrics> getMetrics() {
+        List<LaneMetrics> result = new ArrayList<LaneMetrics>(singles.values());
+        if (pool != null)
+            result.add(pool);
+        if (virtual != null)
+            result.add(virtual);
+        return result;
+    }
+
+    /**
+     * Shuts the created executors down, queued deliveries are completed
+     */
+    public synchronized void shutdown() {
+        for (LaneMetrics lane : getMetrics())
+            ((Lane) lane).executor.shutdown();
+    }
+
+    private static final class Lane implements Executor, LaneMetrics {
+        private final String name;
+        private final ThreadMode threadMode;
+        private final ExecutorService executor;
+
+        private final AtomicInteger queued = new AtomicInteger();
+        private final AtomicLong executed = new AtomicLong();
+        private final LatencyHistogram queueLatency = new LatencyHistogram();
+        private final LatencyHistogram runTime = new LatencyHistogram();
+
+        Lane(String name, ThreadMode threadMode, ExecutorService executor) {
+            this.name = name;
+            this.threadMode = threadMode;
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(final Runnable command) {
+            final long submitted = System.nanoTime();
+            queued.incrementAndGet();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        queued.decrementAndGet();
+                        long start = System.nanoTime();
+                        queueLatency.record(start - submitted);
+                        try {
+                            command.run();
+                        } finally {
+                            runTime.record(System.nanoTime() - start);
+                            executed.incrementAndGet();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                queued.decrementAndGet();
+                throw e;
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public ThreadMode getThreadMode() {
+            return threadMode;
+        }
+
+        public int getQueueDepth() {
+            return queued.get();
+        }
+
+        public long getExecutedCount() {
+            return executed.get();
+        }
+
+        public LatencyHistogram getQueueLatency() {
+            return queueLatency;
+        }
+
+        public LatencyHistogram getRunTime() {
+            return runTime;
+        }
+
+        @Override
+        public String toString() {
+            return "Lane{" +
+                    "name='" + name + '\'' +
+                    ", threadMode=" + threadMode +
+                    ", queueDepth=" + getQueueDepth() +
+                    ", executed=" + getExecutedCount() +
+                    '}';
+        }
+    }
+}
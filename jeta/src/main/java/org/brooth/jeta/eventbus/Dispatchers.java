@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Copies of {@link EventDispatcher} per event class. Where classes can't be defined at runtime
+ * (e.g. Dalvik) or the class file isn't available, the shared class is used and the reason is kept,
+ * see {@link Subscribers#getDispatcherCopyFailure()}.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+final class Dispatchers {
+
+    private static final Constructor<? extends Subscribers.Dispatcher> SHARED = constructorOf(EventDispatcher.class);
+
+    private static final Map<Class<?>, Constructor<? extends Subscribers.Dispatcher>> copies =
+            Collections.synchronizedMap(new WeakHashMap<Class<?>, Constructor<? extends Subscribers.Dispatcher>>());
+
+    // guarded by Dispatchers.class
+    private static byte[] classBytes;
+    private static boolean classBytesLoaded = false;
+
+    private static volatile Throwable copyFailure;
+
+    private Dispatchers() {
+    }
+
+    /**
+     * @param eventClass null - the shared class
+     */
+    static Constructor<? extends Subscribers.Dispatcher> constructorFor(Class<?> eventClass) {
+        if (eventClass == null)
+            return SHARED;
+
+        Constructor<? extends Subscribers.Dispatcher> result = copies.get(eventClass);
+        if (result == null) {
+            result = copy();
+            if (result == null)
+                result = SHARED;
+            copies.put(eventClass, result);
+        }
+        return result;
+    }
+
+    static <E> Subscribers.Dispatcher newDispatcher(Constructor<? extends Subscribers.Dispatcher> constructor,
+                                                   AtomicReferenceArray<EventObserver<E>> observers) {
+        try {
+            return constructor.newInstance(observers);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create event dispatcher", e);
+        }
+    }
+
+    /**
+     * @return the last reason the shared class is used instead of a copy, null if none
+     */
+    static Throwable getCopyFailure() {
+        return copyFailure;
+    }
+
+    private static Constructor<? extends Subscribers.Dispatcher> copy() {
+        byte[] bytes = classBytes();
+        ClassLoader parent = EventDispatcher.class.getClassLoader();
+        if (bytes == null || parent == null) {
+            copyFailure = new IllegalStateException(bytes == null ?
+                    EventDispatcher.class.getName() + " class file isn't available" :
+                    EventDispatcher.class.getName() + " is loaded by bootstrap class loader");
+            return null;
+        }
+
+        try {
+            Class<?> type = new CopyLoader(parent, bytes).loadClass(EventDispatcher.class.getName());
+            return constructorOf(type.asSubclass(Subscribers.Dispatcher.class));
+        } catch (LinkageError e) {
+            copyFailure = e;
+            return null;
+        } catch (Exception e) {
+            copyFailure = e;
+            return null;
+        }
+    }
+
+    private static synchronized byte[] classBytes() {
+        if (classBytesLoaded)
+            return classBytes;
+        classBytesLoaded = true;
+
+        InputStream in = EventDispatcher.class.getResourceAsStream(EventDispatcher.class.getSimpleName() + ".class");
+        if (in == null)
+            return null;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            classBytes = out.toByteArray();
+        } catch (IOException e) {
+            classBytes = null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+        return classBytes;
+    }
+
+    private static <T extends Subscribers.Dispatcher> Constructor<T> constructorOf(Class<T> type) {
+        try {
+            Constructor<T> constructor = type.getConstructor(AtomicReferenceArray.class);
+            constructor.setAccessible(true);
+            return constructor;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Defines own copy of the dispatcher, delegates the rest to the parent
+     */
+    private static final class CopyLoader extends ClassLoader {
+        private final byte[] bytes;
+
+        CopyLoader(ClassLoader parent, byte[] bytes) {
+            super(parent);
+            this.bytes = bytes;
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.equals(EventDispatcher.class.getName()))
+                return super.loadClass(name, resolve);
+
+            Class<?> result = findLoadedClass(name);
+            if (result == null)
+                result = defineClass(name, bytes, 0, bytes.length);
+            if (resolve)
+                resolveClass(result);
+            return result;
+        }
+    }
+}
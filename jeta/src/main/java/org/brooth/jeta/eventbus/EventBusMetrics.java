@@ -0,0 +1,51 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+/**
+ * Receives publish and delivery metrics from an event bus. Set the implementation via
+ * {@link BaseEventBus#setMetrics(EventBusMetrics)}, there's no overhead if it isn't set.
+ * Subscribers are identified by master class, method and event class if 'subscribe.metrics' property
+ * matches the master class, otherwise by observer class.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface EventBusMetrics {
+
+    /**
+     * @param eventClass published event class
+     * @param fanOut     number of subscribers the event is delivered to
+     */
+    void onPublish(Class<?> eventClass, int fanOut);
+
+    /**
+     * Called once per subscription on its first delivery, or after the metrics are replaced,
+     * the result receives the subscriber's deliveries
+     *
+     * @param masterClass subscriber's master class
+     * @param methodName  subscriber's method
+     * @param eventClass  event class the subscriber is registered for
+     */
+    DeliveryRecorder subscriber(Class<?> masterClass, String methodName, Class<?> eventClass);
+
+    interface DeliveryRecorder {
+        /**
+         * @param nanos time spent by the subscriber
+         */
+        void onDelivery(long nanos);
+    }
+}
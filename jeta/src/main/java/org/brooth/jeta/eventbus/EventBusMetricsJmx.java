@@ -0,0 +1,65 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registers {@link AggregatingEventBusMetrics} in the platform MBean server. Kept apart, so the metrics
+ * can be used where {@code javax.management} isn't available.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public final class EventBusMetricsJmx {
+
+    private EventBusMetricsJmx() {
+    }
+
+    public static ObjectName objectName(String name) {
+        try {
+            return new ObjectName("org.brooth.jeta:type=EventBus,name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Invalid bus name '" + name + "'", e);
+        }
+    }
+
+    public static ObjectName register(AggregatingEventBusMetrics metrics, String name) {
+        ObjectName objectName = objectName(name);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to register metrics of '" + name + "' bus", e);
+        }
+        return objectName;
+    }
+
+    public static boolean unregister(String name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName objectName = objectName(name);
+        try {
+            if (!server.isRegistered(objectName))
+                return false;
+            server.unregisterMBean(objectName);
+            return true;
+        } catch (JMException e) {
+            throw new IllegalStateException("Failed to unregister metrics of '" + name + "' bus", e);
+        }
+    }
+}
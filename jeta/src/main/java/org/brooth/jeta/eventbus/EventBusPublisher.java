@@ -0,0 +1,285 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+import org.brooth.jeta.observer.Observers;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes events of a class from the bus to reactive subscribers. Each subscriber is registered
+ * on the bus, its events are buffered until it requests them. Once the buffer is full the overflow policy
+ * applies: {@link OverflowPolicy#BLOCK} blocks the bus' delivery thread until the subscriber requests more,
+ * {@link OverflowPolicy#FAIL} terminates the subscriber with {@link IllegalStateException}.
+ * <p>
+ * The bus never completes, {@link #complete()} completes the subscribers after their buffers are drained.
+ * Buffered {@link PooledMessage}s are retained, a subscriber must retain the item it keeps after {@code onNext}.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class EventBusPublisher<E extends Message> implements EventFlow.Publisher<E> {
+
+    private final EventBus bus;
+    private final Class<E> eventClass;
+    private final Subscription subscription;
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+
+    private final Queue<Downstream<E>> downstreams = new ConcurrentLinkedQueue<Downstream<E>>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean completed = false;
+
+    public EventBusPublisher(EventBus bus, Class<E> eventClass, int bufferSize, OverflowPolicy overflowPolicy) {
+        this(bus, eventClass, null, bufferSize, overflowPolicy);
+    }
+
+    /**
+     * @param subscription routes events to the subscribers, null - all the events of the class
+     */
+    public EventBusPublisher(EventBus bus, Class<E> eventClass, Subscription subscription,
+                             int bufferSize, OverflowPolicy overflowPolicy) {
+        if (bus == null || eventClass == null)
+            throw new IllegalArgumentException("bus or eventClass is null");
+        if (bufferSize <= 0)
+            throw new IllegalArgumentException("bufferSize must be positive");
+        if (overflowPolicy == null || overflowPolicy == OverflowPolicy.DEFAULT)
+            throw new IllegalArgumentException("overflow policy isn't defined");
+        this.bus = bus;
+        this.eventClass = eventClass;
+        this.subscription = subscription;
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public void subscribe(EventFlow.Subscriber<? super E> subscriber) {
+        if (subscriber == null)
+            throw new NullPointerException("subscriber is null");
+
+        Downstream<E> downstream = new Downstream<E>(this, subscriber);
+        subscriber.onSubscribe(downstream);
+        downstreams.add(downstream);
+        if (completed) {
+            downstream.complete();
+            return;
+        }
+
+        downstream.setHandler(subscription == null ?
+                bus.register(eventClass, downstream, 0) :
+                subscription.register(bus, eventClass, downstream));
+    }
+
+    /**
+     * Completes current and future subscribers
+     */
+    public void complete() {
+        completed = true;
+        for (Downstream<E> downstream : downstreams)
+            downstream.complete();
+    }
+
+    /**
+     * @return number of events dropped by full buffers
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private static final class Downstream<E extends Message> implements EventFlow.Subscription, EventObserver<E> {
+        private final EventBusPublisher<E> publisher;
+        private final EventFlow.Subscriber<? super E> subscriber;
+
+        // guarded by itself
+        private final ArrayDeque<E> queue = new ArrayDeque<E>();
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile boolean done = false;
+        private volatile Throwable error;
+
+        // guarded by this
+        private Observers.Handler<E> handler;
+
+        Downstream(EventBusPublisher<E> publisher, EventFlow.Subscriber<? super E> subscriber) {
+            this.publisher = publisher;
+            this.subscriber = subscriber;
+        }
+
+        synchronized void setHandler(Observers.Handler<E> handler) {
+            if (cancelled)
+                handler.unregister();
+            else
+                this.handler = handler;
+        }
+
+        @Override
+        public void onEvent(E event) {
+            if (cancelled || done)
+                return;
+
+            synchronized (queue) {
+                if (queue.size() >= publisher.bufferSize) {
+                    switch (publisher.overflowPolicy) {
+                        case BLOCK:
+                            while (queue.size() >= publisher.bufferSize && !cancelled) {
+                                try {
+                                    queue.wait();
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    publisher.dropped.incrementAndGet();
+                                    return;
+                                }
+                            }
+                            if (cancelled)
+                                return;
+                            break;
+
+                        case DROP_NEWEST:
+                            publisher.dropped.incrementAndGet();
+                            return;
+
+                        case DROP_OLDEST:
+                            PooledMessage.releaseIfPooled(queue.poll());
+                            publisher.dropped.incrementAndGet();
+                            break;
+
+                        default:
+                            if (error == null)
+                                error = new IllegalStateException("Subscriber of " + publisher.eventClass.getName() +
+                                        " is overflowed, buffer size: " + publisher.bufferSize);
+                            event = null;
+                    }
+                }
+                if (event != null) {
+                    PooledMessage.retainIfPooled(event);
+                    queue.offer(event);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (error == null)
+                    error = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, next));
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled)
+                return;
+            cancelled = true;
+            publisher.downstreams.remove(this);
+
+            Observers.Handler<E> h;
+            synchronized (this) {
+                h = handler;
+                handler = null;
+            }
+            if (h != null)
+                h.unregister();
+
+            synchronized (queue) {
+                E event;
+                while ((event = queue.poll()) != null)
+                    PooledMessage.releaseIfPooled(event);
+                queue.notifyAll();
+            }
+        }
+
+        void complete() {
+            done = true;
+            drain();
+        }
+
+        /**
+         * Emits requested events, one thread at a time
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0)
+                return;
+
+            int missed = 1;
+            while (true) {
+                long r = requested.get();
+                long emitted = 0;
+                while (!cancelled) {
+                    Throwable t = error;
+                    if (t != null) {
+                        cancel();
+                        subscriber.onError(t);
+                        return;
+                    }
+
+                    E event = null;
+                    boolean empty;
+                    synchronized (queue) {
+                        if (emitted != r) {
+                            event = queue.poll();
+                            if (event != null)
+                                queue.notifyAll();
+                        }
+                        empty = queue.isEmpty();
+                    }
+                    if (event == null) {
+                        if (done && empty) {
+                            cancel();
+                            subscriber.onComplete();
+                            return;
+                        }
+                        break;
+                    }
+
+                    try {
+                        subscriber.onNext(event);
+                    } catch (Throwable e) {
+                        // the subscriber is broken, the following events would pile up
+                        cancel();
+                        subscriber.onError(e);
+                        return;
+                    } finally {
+                        PooledMessage.releaseIfPooled(event);
+                    }
+                    emitted++;
+                }
+                if (cancelled)
+                    return;
+
+                if (emitted != 0 && r != Long.MAX_VALUE)
+                    requested.addAndGet(-emitted);
+                missed = wip.addAndGet(-missed);
+                if (missed == 0)
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the items of a reactive publisher to the bus. Requests items in batches,
+ * so the publisher never outruns {@link EventBus#publish(Message)}.
+ * If the bus throws, the subscription is cancelled and the exception is kept as {@link #getError()}.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class EventBusSubscriber<E extends Message> implements EventFlow.Subscriber<E> {
+
+    private final EventBus bus;
+    private final int batchSize;
+    /**
+     * items to receive before requesting more
+     */
+    private final int limit;
+
+    private final AtomicReference<EventFlow.Subscription> subscription = new AtomicReference<EventFlow.Subscription>();
+    private final CountDownLatch terminated = new CountDownLatch(1);
+    private volatile Throwable error;
+    // onNext is signalled serially
+    private int received;
+
+    public EventBusSubscriber(EventBus bus) {
+        this(bus, 64);
+    }
+
+    public EventBusSubscriber(EventBus bus, int batchSize) {
+        if (bus == null)
+            throw new IllegalArgumentException("bus is null");
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be positive");
+        this.bus = bus;
+        this.batchSize = batchSize;
+        this.limit = batchSize - (batchSize >> 2);
+    }
+
+    @Override
+    public void onSubscribe(EventFlow.Subscription s) {
+        if (s == null)
+            throw new NullPointerException("subscription is null");
+        if (!subscription.compareAndSet(null, s)) {
+            s.cancel();
+            return;
+        }
+        s.request(batchSize);
+    }
+
+    @Override
+    public void onNext(E item) {
+        if (item == null)
+            throw new NullPointerException("item is null");
+        if (terminated.getCount() == 0)
+            return;
+
+        try {
+            bus.publish(item);
+        } catch (Throwable t) {
+            subscription.get().cancel();
+            onError(t);
+            return;
+        }
+
+        if (++received == limit) {
+            received = 0;
+            subscription.get().request(limit);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (throwable == null)
+            throw new NullPointerException("throwable is null");
+        if (terminated.getCount() != 0) {
+            error = throwable;
+            terminated.countDown();
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        terminated.countDown();
+    }
+
+    public void cancel() {
+        EventFlow.Subscription s = subscription.get();
+        if (s != null)
+            s.cancel();
+        terminated.countDown();
+    }
+
+    public boolean isTerminated() {
+        return terminated.getCount() == 0;
+    }
+
+    /**
+     * @return error the publisher or the bus terminated the subscription with, null if none
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return false if the timeout elapsed before the publisher terminated
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return terminated.await(timeout, unit);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Delivery loop of unrouted subscribers. {@link Subscribers} defines a copy of the class per event class
+ * in own class loader, so each copy profiles the subscribers of one event type and JIT can inline them,
+ * instead of a loop shared by all the types. Must refer public types only, copies are in other runtime packages.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+final class EventDispatcher implements Subscribers.Dispatcher {
+
+    /**
+     * null slots are unregistered subscribers
+     */
+    private final AtomicReferenceArray<EventObserver<Object>> observers;
+
+    public EventDispatcher(AtomicReferenceArray<EventObserver<Object>> observers) {
+        this.observers = observers;
+    }
+
+    @Override
+    public int dispatch(Object event) {
+        int result = 0;
+        for (int i = 0, n = observers.length(); i < n; i++) {
+            EventObserver<Object> observer = observers.get(i);
+            if (observer != null) {
+                observer.onEvent(event);
+                result++;
+            }
+        }
+        return result;
+    }
+}
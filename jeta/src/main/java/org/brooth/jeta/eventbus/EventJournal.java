@@ -0,0 +1,475 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+import org.brooth.jeta.observer.Observers;
+import org.brooth.jeta.util.ConcurrentWeakIdentityMap;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Append-only journal of events in memory-mapped segment files. Events are encoded by {@link MessageCodec}s,
+ * events of classes without codecs aren't journaled. Attached to a bus, the journal appends the events
+ * of the given classes on publisher's thread, before the subscribers get them.
+ * <p>
+ * A segment is rolled over once the next event doesn't fit. Segments over the max count or older than the max
+ * age are deleted on rollover. Replay publishes the journaled events into a bus, the replayed events aren't
+ * journaled again on any thread they are delivered on. Appends are serialized, replay runs concurrently
+ * and sees the events appended before it started. Closing the journal detaches it from the buses.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class EventJournal implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String SUFFIX = ".journal";
+    private static final int MAGIC = 0x4A4A524E;
+    private static final int VERSION = 1;
+
+    // header: magic, version, first sequence, timestamp of the last event once rolled over
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int FIRST_SEQUENCE_OFFSET = 8;
+    private static final int LAST_TIMESTAMP_OFFSET = 16;
+    private static final int HEADER_SIZE = 64;
+
+    // record: size (written last, 0 - end of segment), payload length, type id, sequence, timestamp, payload
+    private static final int SIZE_OFFSET = 0;
+    private static final int LENGTH_OFFSET = 4;
+    private static final int TYPE_OFFSET = 8;
+    private static final int SEQUENCE_OFFSET = 16;
+    private static final int TIMESTAMP_OFFSET = 24;
+    private static final int RECORD_HEADER_SIZE = 32;
+
+    private final File directory;
+    private final MessageCodecRegistry codecs;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final long maxAgeMillis;
+    /**
+     * replayed events till the journal's observer gets them
+     */
+    private final ConcurrentWeakIdentityMap<Object, Boolean> replayed =
+            new ConcurrentWeakIdentityMap<Object, Boolean>();
+
+    // guarded by this
+    private final List<Long> segments = new ArrayList<Long>();
+    private final List<SubscriptionHandler> attachments = new ArrayList<SubscriptionHandler>();
+    private RandomAccessFile file;
+    private MappedByteBuffer buffer;
+    private ByteBuffer view;
+    private int position;
+    private long nextSequence;
+    private long lastTimestamp;
+    private volatile boolean closed = false;
+
+    public EventJournal(File directory, MessageCodecRegistry codecs) throws IOException {
+        this(directory, codecs, DEFAULT_SEGMENT_SIZE, 0, 0);
+    }
+
+    /**
+     * Opens the journal in the directory or creates a new one
+     *
+     * @param maxSegments  segments to keep, {@code 0} - all
+     * @param maxAgeMillis max age of the events in the segments to keep, {@code 0} - any
+     */
+    public EventJournal(File directory, MessageCodecRegistry codecs, int segmentSize, int maxSegments,
+                        long maxAgeMillis) throws IOException {
+        if (directory == null || codecs == null)
+            throw new IllegalArgumentException("directory or codecs is null");
+        if (segmentSize <= HEADER_SIZE + RECORD_HEADER_SIZE)
+            throw new IllegalArgumentException("segmentSize is too small");
+        if (maxSegments < 0 || maxAgeMillis < 0)
+            throw new IllegalArgumentException("negative retention");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create " + directory);
+
+        this.directory = directory;
+        this.codecs = codecs;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.maxAgeMillis = maxAgeMillis;
+
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SUFFIX);
+            }
+        });
+        if (files != null)
+            for (File f : files)
+                segments.add(Long.parseLong(f.getName().substring(0, f.getName().length() - SUFFIX.length())));
+        Collections.sort(segments);
+
+        if (segments.isEmpty()) {
+            openSegment(0, true);
+        } else {
+            openSegment(segments.get(segments.size() - 1), false);
+        }
+    }
+
+    private synchronized void openSegment(long firstSequence, boolean create) throws IOException {
+        File segment = segmentFile(firstSequence);
+        RandomAccessFile f = new RandomAccessFile(segment, "rw");
+        try {
+            if (!create && f.length() != segmentSize)
+                throw new IllegalArgumentException(segment + " isn't a segment of " + segmentSize + " bytes");
+            MappedByteBuffer b = f.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            if (create) {
+                b.putInt(VERSION_OFFSET, VERSION);
+                b.putLong(FIRST_SEQUENCE_OFFSET, firstSequence);
+                b.putInt(MAGIC_OFFSET, MAGIC);
+                segments.add(firstSequence);
+                position = HEADER_SIZE;
+                nextSequence = firstSequence;
+
+            } else {
+                validate(segment, b, firstSequence);
+                // recovers the end, garbage of an unfinished record is cleared
+                position = HEADER_SIZE;
+                nextSequence = firstSequence;
+                int size;
+                while (position + RECORD_HEADER_SIZE <= segmentSize &&
+                        (size = b.getInt(position + SIZE_OFFSET)) > 0) {
+                    nextSequence = b.getLong(position + SEQUENCE_OFFSET) + 1;
+                    lastTimestamp = b.getLong(position + TIMESTAMP_OFFSET);
+                    position += size;
+                }
+                for (int i = position; i + 8 <= segmentSize; i += 8)
+                    b.putLong(i, 0);
+            }
+
+            file = f;
+            buffer = b;
+            view = b.duplicate();
+
+        } catch (IOException e) {
+            f.close();
+            throw e;
+        } catch (RuntimeException e) {
+            f.close();
+            throw e;
+        }
+    }
+
+    private static void validate(File segment, ByteBuffer b, long firstSequence) {
+        if (b.getInt(MAGIC_OFFSET) != MAGIC || b.getInt(VERSION_OFFSET) != VERSION ||
+                b.getLong(FIRST_SEQUENCE_OFFSET) != firstSequence)
+            throw new IllegalArgumentException(segment + " isn't a journal segment");
+    }
+
+    private File segmentFile(long firstSequence) {
+        return new File(directory, String.format("%020d", firstSequence) + SUFFIX);
+    }
+
+    /**
+     * Journals the events of the classes published to the bus
+     *
+     * @throws IllegalArgumentException if a class has no codec
+     */
+    @SafeVarargs
+    public final SubscriptionHandler attach(EventBus bus, Class<? extends Message>... eventClasses) {
+        for (Class<? extends Message> eventClass : eventClasses)
+            if (codecs.get(eventClass) == null)
+                throw new IllegalArgumentException("No codec for " + eventClass.getName());
+
+        Subscription subscription = new Subscription.Builder()
+                .priority(Integer.MAX_VALUE)
+                .threadMode(ThreadMode.POSTING)
+                .build();
+        SubscriptionHandler handler = new SubscriptionHandler();
+        for (Class<? extends Message> eventClass : eventClasses)
+            handler.add(eventClass, attach(bus, eventClass, subscription));
+
+        boolean attached;
+        synchronized (this) {
+            attached = !closed;
+            if (attached)
+                attachments.add(handler);
+        }
+        if (!attached) {
+            handler.unregisterAll();
+            throw new IllegalStateException("Journal is closed");
+        }
+        return handler;
+    }
+
+    private <E extends Message> Observers.Handler<E> attach(EventBus bus, Class<E> eventClass,
+                                                            Subscription subscription) {
+        return subscription.register(bus, eventClass, new EventObserver<E>() {
+            @Override
+            public void onEvent(E event) {
+                if (!replayed.isEmpty() && replayed.remove(event) != null)
+                    return;
+                journal(event);
+            }
+        });
+    }
+
+    /**
+     * Appends unless the journal is closed
+     */
+    private synchronized <E extends Message> void journal(E event) {
+        if (!closed)
+            append(event);
+    }
+
+    /**
+     * @return sequence of the event, {@code -1} if its class has no codec
+     * @throws IllegalArgumentException if the encoded event doesn't fit into a segment
+     */
+    public synchronized <E extends Message> long append(E event) {
+        if (closed)
+            throw new IllegalStateException("Journal is closed");
+
+        @SuppressWarnings("unchecked")
+        MessageCodecRegistry.Entry<E> entry = (MessageCodecRegistry.Entry<E>) codecs.get(event.getClass());
+        if (entry == null)
+            return -1;
+
+        long timestamp = System.currentTimeMillis();
+        if (!write(entry, event, timestamp)) {
+            if (position == HEADER_SIZE || !rollOver() || !write(entry, event, timestamp))
+                throw new IllegalArgumentException("Encoded " + event.getClass().getName() +
+                        " exceeds segment size " + segmentSize);
+        }
+        lastTimestamp = timestamp;
+        return nextSequence++;
+    }
+
+    private <E extends Message> boolean write(MessageCodecRegistry.Entry<E> entry, E event, long timestamp) {
+        if (position + RECORD_HEADER_SIZE > segmentSize)
+            return false;
+
+        view.limit(segmentSize);
+        view.position(position + RECORD_HEADER_SIZE);
+        try {
+            entry.getCodec().encode(event, view);
+        } catch (BufferOverflowException e) {
+            return false;
+        }
+
+        int length = view.position() - position - RECORD_HEADER_SIZE;
+        int size = (RECORD_HEADER_SIZE + length + 7) & ~7;
+        if (position + size > segmentSize)
+            return false;
+        buffer.putInt(position + LENGTH_OFFSET, length);
+        buffer.putInt(position + TYPE_OFFSET, entry.getTypeId());
+        buffer.putLong(position + SEQUENCE_OFFSET, nextSequence);
+        buffer.putLong(position + TIMESTAMP_OFFSET, timestamp);
+        buffer.putInt(position + SIZE_OFFSET, size);
+        position += size;
+        return true;
+    }
+
+    /**
+     * @return false if the current segment is empty
+     */
+    private boolean rollOver() {
+        if (position == HEADER_SIZE)
+            return false;
+
+        buffer.putLong(LAST_TIMESTAMP_OFFSET, lastTimestamp);
+        try {
+            file.close();
+            openSegment(nextSequence, true);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to roll journal over", e);
+        }
+        retain();
+        return true;
+    }
+
+    private void retain() {
+        long expired = maxAgeMillis == 0 ? 0 : System.currentTimeMillis() - maxAgeMillis;
+        while (segments.size() > 1) {
+            long first = segments.get(0);
+            boolean delete = maxSegments > 0 && segments.size() > maxSegments;
+            if (!delete && expired > 0) {
+                long timestamp = lastTimestampOf(first);
+                delete = timestamp != 0 && timestamp < expired;
+            }
+            if (!delete)
+                break;
+
+            segments.remove(0);
+            segmentFile(first).delete();
+        }
+    }
+
+    private long lastTimestampOf(long firstSequence) {
+        try {
+            RandomAccessFile f = new RandomAccessFile(segmentFile(firstSequence), "r");
+            try {
+                f.seek(LAST_TIMESTAMP_OFFSET);
+                return f.readLong();
+            } finally {
+                f.close();
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Publishes the journaled events starting from the sequence
+     *
+     * @return number of published events
+     */
+    public long replay(EventBus bus, long fromSequence) throws IOException {
+        return replay(bus, fromSequence, 0);
+    }
+
+    /**
+     * Publishes the journaled events appended since the time
+     *
+     * @return number of published events
+     */
+    public long replaySince(EventBus bus, long timestampMillis) throws IOException {
+        return replay(bus, 0, timestampMillis);
+    }
+
+    private long replay(EventBus bus, long fromSequence, long fromTimestamp) throws IOException {
+        List<Long> snapshot;
+        long endSequence;
+        // records past the position may be being appended to the current segment
+        int endPosition;
+        synchronized (this) {
+            if (closed)
+                throw new IllegalStateException("Journal is closed");
+            snapshot = new ArrayList<Long>(segments);
+            endSequence = nextSequence;
+            endPosition = position;
+        }
+
+        long result = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (i + 1 < snapshot.size() && snapshot.get(i + 1) <= fromSequence)
+                continue;
+            result += replaySegment(bus, snapshot.get(i), fromSequence, fromTimestamp, endSequence,
+                    i + 1 == snapshot.size() ? endPosition : Integer.MAX_VALUE);
+        }
+        return result;
+    }
+
+    private long replaySegment(EventBus bus, long firstSequence, long fromSequence, long fromTimestamp,
+                               long endSequence, int endPosition) throws IOException {
+        File segment = segmentFile(firstSequence);
+        RandomAccessFile f;
+        try {
+            f = new RandomAccessFile(segment, "r");
+        } catch (IOException e) {
+            // deleted by retention
+            return 0;
+        }
+
+        long result = 0;
+        try {
+            MappedByteBuffer b = f.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, f.length());
+            validate(segment, b, firstSequence);
+            ByteBuffer payload = b.duplicate();
+            int limit = (int) Math.min(f.length(), endPosition);
+            int p = HEADER_SIZE;
+            int size;
+            while (p + RECORD_HEADER_SIZE <= limit && (size = b.getInt(p + SIZE_OFFSET)) > 0 && p + size <= limit) {
+                long sequence = b.getLong(p + SEQUENCE_OFFSET);
+                if (sequence >= endSequence)
+                    break;
+
+                if (sequence >= fromSequence && b.getLong(p + TIMESTAMP_OFFSET) >= fromTimestamp) {
+                    MessageCodecRegistry.Entry<?> entry = codecs.get(b.getInt(p + TYPE_OFFSET));
+                    if (entry != null) {
+                        payload.limit(p + RECORD_HEADER_SIZE + b.getInt(p + LENGTH_OFFSET));
+                        payload.position(p + RECORD_HEADER_SIZE);
+                        Message event = entry.getCodec().decode(payload);
+                        // unless the bus has no journal attached, the entry is removed on delivery
+                        replayed.putIfAbsent(event, Boolean.TRUE);
+                        bus.publish(event);
+                        result++;
+                    }
+                }
+                p += size;
+            }
+        } finally {
+            f.close();
+        }
+        return result;
+    }
+
+    /**
+     * Writes the current segment to the storage device
+     */
+    public synchronized void flush() {
+        if (!closed)
+            buffer.force();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return sequence of the oldest retained segment
+     */
+    public synchronized long getFirstSequence() {
+        return segments.get(0);
+    }
+
+    /**
+     * @return sequence of the next appended event
+     */
+    public synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Detaches the journal from the buses and closes the current segment
+     */
+    @Override
+    public void close() throws IOException {
+        List<SubscriptionHandler> detached;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            detached = new ArrayList<SubscriptionHandler>(attachments);
+            attachments.clear();
+            buffer.force();
+            file.close();
+        }
+        // out of the lock, the observers journal under it
+        for (SubscriptionHandler handler : detached)
+            handler.unregisterAll();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+import org.brooth.jeta.observer.Observers;
+
+import java.util.Collection;
+
+/**
+ * Event bus that routes subscriptions, publishes batches and keeps sticky events.
+ * {@link Subscription#register(EventBus, Class, EventObserver)} falls back to filtering for other buses.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface ExtendedEventBus extends EventBus {
+
+    /**
+     * Registers the observer routed by ids and topics of the subscription. Routed events are delivered
+     * to the matching observers only, without touching the others.
+     */
+    <E extends Message> Observers.Handler<E> register(Class<E> eventClass, EventObserver<E> observer,
+                                                      Subscription subscription);
+
+    /**
+     * Publishes the events in the given order. Subscribers are looked up once per run of same class events
+     * and receive the run in a row, batch subscribers in one call.
+     */
+    <E extends Message> void publishAll(Collection<? extends E> events);
+
+    <E extends Message> void publishAll(E[] events);
+
+    /**
+     * Publishes the event and keeps it as the last one of its class, its id and its topic.
+     * Sticky subscribers receive it on registration.
+     */
+    <E extends Message> void publishSticky(E event);
+
+    /**
+     * @return last sticky event of the class, null if none
+     */
+    <E extends Message> E getStickyEvent(Class<E> eventClass);
+
+    /**
+     * @return removed last sticky event of the class, null if none
+     */
+    <E extends Message> E removeStickyEvent(Class<E> eventClass);
+}
@@ -0,0 +1,520 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.util.LatencyHistogram;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Timer of many short-lived timeouts, most of which are expected to be cancelled.
+ * Scheduling and cancellation are O(1) and allocate the returned handle only, which also carries
+ * the event of a delayed publication; expiration is precise up to the tick duration.
+ * <p>
+ * Timeouts are hashed by their deadline tick into a circular array of buckets. A single worker thread
+ * advances one bucket per tick and runs the timeouts whose rounds are over. New and cancelled timeouts
+ * are handed to the worker through lock-free stacks linked by the timeouts themselves.
+ * <p>
+ * Tasks run on the worker thread and must not block, otherwise the following timeouts are late.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class HashedTimingWheel {
+
+    public static final long DEFAULT_TICK_MILLIS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int WORKER_INIT = 0;
+    private static final int WORKER_STARTED = 1;
+    private static final int WORKER_STOPPED = 2;
+
+    private final ThreadFactory threadFactory;
+    private final long tickNanos;
+    private final int mask;
+    private final Task[] wheel;
+    private final long startTime = System.nanoTime();
+
+    private final AtomicInteger state = new AtomicInteger(WORKER_INIT);
+    private final AtomicReference<Task> added = new AtomicReference<Task>();
+    private final AtomicReference<Task> cancelled = new AtomicReference<Task>();
+    private volatile Thread worker;
+    // worker only
+    private long tick;
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong firedCount = new AtomicLong();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+
+    public HashedTimingWheel() {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    public HashedTimingWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        this(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jeta-timing-wheel-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, tickDuration, unit, wheelSize);
+    }
+
+    /**
+     * @param threadFactory thread of the worker, started on the first scheduled timeout
+     * @param wheelSize     number of buckets, rounded up to a power of two. A timeout further than
+     *                      {@code tickDuration * wheelSize} is skipped by the worker once a round.
+     */
+    public HashedTimingWheel(ThreadFactory threadFactory, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (threadFactory == null)
+            throw new IllegalArgumentException("threadFactory is null");
+        if (tickDuration <= 0)
+            throw new IllegalArgumentException("tickDuration must be positive");
+        if (wheelSize <= 0 || wheelSize > 1 << 30)
+            throw new IllegalArgumentException("wheelSize must be in range 1..2^30");
+
+        this.threadFactory = threadFactory;
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize)
+            size <<= 1;
+        this.wheel = new Task[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Runs the task once after the delay. If the task implements {@link CancellableTask},
+     * it's notified when the timeout is cancelled.
+     *
+     * @throws IllegalStateException if the wheel is stopped
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        if (task == null)
+            throw new IllegalArgumentException("task is null");
+        return schedule(task, null, null, delay, 0, unit);
+    }
+
+    /**
+     * Runs the task after the initial delay and then every period until the timeout is cancelled.
+     * The periods missed by a late run are skipped rather than run in a burst.
+     *
+     * @throws IllegalStateException if the wheel is stopped
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (task == null)
+            throw new IllegalArgumentException("task is null");
+        if (period <= 0)
+            throw new IllegalArgumentException("period must be positive");
+        return schedule(task, null, null, initialDelay, unit.toNanos(period), unit);
+    }
+
+    /**
+     * Publishes the event to the bus once, or every period if it's positive. The timeout carries the bus
+     * and the event itself, see {@link BaseEventBus#publishDelayed(Message, long, TimeUnit)}
+     */
+    Timeout schedulePublish(BaseEventBus bus, Message event, long delay, long period, TimeUnit unit) {
+        if (period < 0)
+            throw new IllegalArgumentException("negative period");
+        return schedule(null, bus, event, delay, unit.toNanos(period), unit);
+    }
+
+    private Timeout schedule(Runnable task, BaseEventBus bus, Message event, long delay, long periodNanos,
+                             TimeUnit unit) {
+        start();
+
+        long now = System.nanoTime() - startTime;
+        long delayNanos = Math.max(0, unit.toNanos(delay));
+        long deadline = delayNanos > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + delayNanos;
+
+        Task result = new Task(this, task, bus, event, deadline, periodNanos);
+        scheduledCount.incrementAndGet();
+        pendingCount.incrementAndGet();
+        Task head;
+        do {
+            head = added.get();
+            result.nextAdded = head;
+        } while (!added.compareAndSet(head, result));
+
+        // the worker could finish before the task is pushed
+        if (state.get() == WORKER_STOPPED) {
+            result.cancel();
+            throw new IllegalStateException("Timing wheel is stopped");
+        }
+        return result;
+    }
+
+    private void start() {
+        switch (state.get()) {
+            case WORKER_INIT:
+                if (state.compareAndSet(WORKER_INIT, WORKER_STARTED)) {
+                    Thread thread = threadFactory.newThread(new Worker());
+                    worker = thread;
+                    thread.start();
+                }
+                break;
+            case WORKER_STOPPED:
+                throw new IllegalStateException("Timing wheel is stopped");
+        }
+    }
+
+    /**
+     * Stops the worker and cancels the pending timeouts
+     */
+    public void stop() {
+        int previous = state.getAndSet(WORKER_STOPPED);
+        if (previous != WORKER_STARTED)
+            return;
+
+        Thread thread = worker;
+        // the worker is about to start and will see the state
+        if (thread == null)
+            return;
+
+        thread.interrupt();
+        if (thread == Thread.currentThread())
+            return;
+
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join(100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    public boolean isStopped() {
+        return state.get() == WORKER_STOPPED;
+    }
+
+    public long getTickDuration(TimeUnit unit) {
+        return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public int getWheelSize() {
+        return wheel.length;
+    }
+
+    public long getScheduledCount() {
+        return scheduledCount.get();
+    }
+
+    /**
+     * @return number of task runs, a periodic timeout runs many times
+     */
+    public long getFiredCount() {
+        return firedCount.get();
+    }
+
+    public long getCancelledCount() {
+        return cancelledCount.get();
+    }
+
+    /**
+     * @return number of task runs that threw
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return number of timeouts neither expired nor cancelled, including periodic ones
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * @return time from deadlines to task runs, includes the tick rounding
+     */
+    public LatencyHistogram getLateness() {
+        return lateness;
+    }
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (state.get() == WORKER_STARTED) {
+                long now = waitForNextTick();
+                if (now < 0)
+                    break;
+
+                transferAdded();
+                removeCancelled();
+                expire((int) (tick & mask), now);
+                tick++;
+            }
+
+            transferAdded();
+            removeCancelled();
+            for (int i = 0; i < wheel.length; i++) {
+                Task task = wheel[i];
+                while (task != null) {
+                    Task next = task.next;
+                    unlink(task);
+                    task.cancel();
+                    task = next;
+                }
+            }
+            cancelled.set(null);
+        }
+
+        /**
+         * @return current time relative to the start, -1 if stopped
+         */
+        private long waitForNextTick() {
+            long deadline = tickNanos * (tick + 1);
+            while (true) {
+                long now = System.nanoTime() - startTime;
+                long sleepNanos = deadline - now;
+                if (sleepNanos <= 0)
+                    return now;
+
+                try {
+                    Thread.sleep((sleepNanos + 999999) / 1000000);
+                } catch (InterruptedException e) {
+                    if (state.get() == WORKER_STOPPED)
+                        return -1;
+                }
+            }
+        }
+
+        private void transferAdded() {
+            Task task = added.getAndSet(null);
+            while (task != null) {
+                Task next = task.nextAdded;
+                task.nextAdded = null;
+                if (task.state == Task.PENDING)
+                    place(task, tick);
+                task = next;
+            }
+        }
+
+        private void removeCancelled() {
+            Task task = cancelled.getAndSet(null);
+            while (task != null) {
+                Task next = task.nextCancelled;
+                task.nextCancelled = null;
+                if (task.bucket >= 0)
+                    unlink(task);
+                task = next;
+            }
+        }
+
+        private void expire(int bucket, long now) {
+            Task task = wheel[bucket];
+            while (task != null) {
+                // the periodic ones are placed at heads, so they aren't met again
+                Task next = task.next;
+                if (task.remainingRounds <= 0) {
+                    unlink(task);
+                    fire(task, now);
+                } else {
+                    task.remainingRounds--;
+                }
+                task = next;
+            }
+        }
+
+        private void fire(Task task, long now) {
+            if (task.periodNanos == 0) {
+                if (!Task.STATE.compareAndSet(task, Task.PENDING, Task.EXPIRED))
+                    return;
+                pendingCount.decrementAndGet();
+            } else if (task.state != Task.PENDING) {
+                return;
+            }
+
+            lateness.record(now - task.deadline);
+            firedCount.incrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                failedCount.incrementAndGet();
+            }
+
+            if (task.periodNanos != 0 && task.state == Task.PENDING) {
+                long missed = (now - task.deadline) / task.periodNanos;
+                task.deadline += (missed + 1) * task.periodNanos;
+                place(task, tick + 1);
+            }
+        }
+
+        private void place(Task task, long minTick) {
+            long calculated = task.deadline / tickNanos;
+            task.remainingRounds = Math.max(0, calculated - minTick) / wheel.length;
+            int bucket = (int) (Math.max(calculated, minTick) & mask);
+
+            task.bucket = bucket;
+            task.prev = null;
+            task.next = wheel[bucket];
+            if (task.next != null)
+                task.next.prev = task;
+            wheel[bucket] = task;
+        }
+
+        private void unlink(Task task) {
+            if (task.prev != null)
+                task.prev.next = task.next;
+            else
+                wheel[task.bucket] = task.next;
+            if (task.next != null)
+                task.next.prev = task.prev;
+
+            task.prev = null;
+            task.next = null;
+            task.bucket = -1;
+        }
+    }
+
+    private void pushCancelled(Task task) {
+        Task head;
+        do {
+            head = cancelled.get();
+            task.nextCancelled = head;
+        } while (!cancelled.compareAndSet(head, task));
+    }
+
+    /**
+     * Handle of a scheduled task
+     */
+    public interface Timeout {
+
+        /**
+         * @return false if the timeout has expired or is already cancelled
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+
+        /**
+         * @return true if a one-shot task has run, always false for a periodic one
+         */
+        boolean isExpired();
+
+        boolean isPeriodic();
+    }
+
+    /**
+     * A task that is notified if its timeout is cancelled, e.g. to release resources
+     */
+    public interface CancellableTask extends Runnable {
+
+        /**
+         * Called by the thread that cancelled the timeout
+         */
+        void onCancel();
+    }
+
+    private static final class Task implements Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Task> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
+
+        private final HashedTimingWheel timingWheel;
+        // either the task or the event published to the bus
+        private final Runnable task;
+        private final BaseEventBus bus;
+        private final Message event;
+        private final long periodNanos;
+        private volatile int state = PENDING;
+
+        // worker only
+        private long deadline;
+        private long remainingRounds;
+        private int bucket = -1;
+        private Task prev;
+        private Task next;
+
+        // links of the added and cancelled stacks
+        private Task nextAdded;
+        private Task nextCancelled;
+
+        private Task(HashedTimingWheel timingWheel, Runnable task, BaseEventBus bus, Message event, long deadline,
+                     long periodNanos) {
+            this.timingWheel = timingWheel;
+            this.task = task;
+            this.bus = bus;
+            this.event = event;
+            this.deadline = deadline;
+            this.periodNanos = periodNanos;
+        }
+
+        private void run() {
+            if (task != null) {
+                task.run();
+                return;
+            }
+
+            // the scheduled reference is kept for the next runs
+            if (periodNanos != 0)
+                PooledMessage.retainIfPooled(event);
+            try {
+                bus.publish(event);
+            } catch (Throwable t) {
+                bus.onSubscriberException(t, event);
+            }
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED))
+                return false;
+
+            timingWheel.cancelledCount.incrementAndGet();
+            timingWheel.pendingCount.decrementAndGet();
+            timingWheel.pushCancelled(this);
+            if (task instanceof CancellableTask)
+                ((CancellableTask) task).onCancel();
+            else if (event != null)
+                PooledMessage.releaseIfPooled(event);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        @Override
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return periodNanos != 0;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.util.LatencyHistogram;
+
+/**
+ * Live metrics of a delivery lane
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface LaneMetrics {
+
+    String getName();
+
+    ThreadMode getThreadMode();
+
+    /**
+     * @return number of tasks waiting for a thread
+     */
+    int getQueueDepth();
+
+    long getExecutedCount();
+
+    /**
+     * @return time tasks waited for a thread
+     */
+    LatencyHistogram getQueueLatency();
+
+    /**
+     * @return time tasks ran, a task delivers a batch of a subscriber's events
+     */
+    LatencyHistogram getRunTime();
+}
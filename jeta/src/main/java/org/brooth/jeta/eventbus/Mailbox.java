@@ -0,0 +1,326 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+import org.brooth.jeta.util.LatencyHistogram;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers events to a subscriber on an executor one by one, in the order they were published.
+ * At most one task per mailbox is scheduled at a time. If the mailbox is bounded,
+ * overflow policy decides what to do with an event once it's full.
+ * If the subscription conflates events, a queued event is replaced by a newer one with the same key,
+ * it keeps its place in the queue and doesn't take space.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+class Mailbox<E> implements EventObserver<E>, MailboxMetrics, Runnable {
+
+    /**
+     * max events delivered per task, so the mailbox doesn't hog executor thread
+     */
+    private static final int BATCH_SIZE = 64;
+
+    private final EventObserver<E> observer;
+    private final Executor executor;
+    private final BaseEventBus bus;
+    private final Class<E> eventClass;
+    private final Subscription subscription;
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    /**
+     * free space of bounded mailbox, null if unbounded
+     */
+    private final Semaphore permits;
+    private final ConflationKey conflationKey;
+    /**
+     * queued events by conflation key, null if events aren't conflated
+     */
+    private final Map<Object, Delivery<E>> pending;
+
+    private final Queue<Delivery<E>> queue = new ConcurrentLinkedQueue<Delivery<E>>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong conflated = new AtomicLong();
+    private final LatencyHistogram enqueueWait = new LatencyHistogram();
+    // accessed by delivery thread, a stale binding is resolved again
+    private BaseEventBus.MetricsBinding metricsBinding;
+
+    Mailbox(EventObserver<E> observer, Executor executor, BaseEventBus bus, Class<E> eventClass,
+            Subscription subscription, int capacity, OverflowPolicy overflowPolicy) {
+        this.observer = observer;
+        this.executor = executor;
+        this.bus = bus;
+        this.eventClass = eventClass;
+        this.subscription = subscription;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.permits = capacity == AsyncEventBus.UNBOUNDED ? null : new Semaphore(capacity);
+        this.conflationKey = subscription == null ? null : subscription.getConflationKey();
+        this.pending = conflationKey == null ? null : new HashMap<Object, Delivery<E>>();
+    }
+
+    EventObserver<E> getObserver() {
+        return observer;
+    }
+
+    @Override
+    public void onEvent(E event) {
+        enqueue(event, null);
+    }
+
+    /**
+     * Retains {@link PooledMessage} until it's delivered or dropped
+     */
+    void enqueue(E event, PublishFuture future) {
+        PooledMessage.retainIfPooled(event);
+        Object key = conflationKey == null ? null : conflationKey.keyOf((Message) event);
+        if (key != null && conflate(key, event, future))
+            return;
+
+        if (permits != null && !permits.tryAcquire()) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    long start = System.nanoTime();
+                    permits.acquireUninterruptibly();
+                    enqueueWait.record(System.nanoTime() - start);
+                    break;
+
+                case DROP_NEWEST:
+                    dropped.incrementAndGet();
+                    PooledMessage.releaseIfPooled(event);
+                    if (future != null)
+                        future.done(null);
+                    return;
+
+                case DROP_OLDEST:
+                    // takes over the space of the oldest
+                    while (true) {
+                        Delivery<E> oldest = take();
+                        if (oldest != null) {
+                            depth.decrementAndGet();
+                            dropped.incrementAndGet();
+                            PooledMessage.releaseIfPooled(oldest.event);
+                            if (oldest.future != null)
+                                oldest.future.done(null);
+                            break;
+                        }
+                        // taken by the subscriber, space is about to be released
+                        if (permits.tryAcquire())
+                            break;
+                        Thread.yield();
+                    }
+                    break;
+
+                default:
+                    rejected.incrementAndGet();
+                    PooledMessage.releaseIfPooled(event);
+                    RejectedExecutionException e = new RejectedExecutionException(
+                            "Mailbox of " + eventClass.getName() + " subscriber is full, capacity: " + capacity);
+                    if (future != null) {
+                        future.done(e);
+                        return;
+                    }
+                    throw e;
+            }
+        }
+
+        Delivery<E> delivery = new Delivery<E>(key, event, future);
+        if (key != null) {
+            synchronized (pending) {
+                // queued concurrently
+                if (pending.containsKey(key)) {
+                    delivery = null;
+                } else {
+                    pending.put(key, delivery);
+                    depth.incrementAndGet();
+                    queue.offer(delivery);
+                }
+            }
+            if (delivery == null) {
+                if (permits != null)
+                    permits.release();
+                if (!conflate(key, event, future)) {
+                    // retained again
+                    PooledMessage.releaseIfPooled(event);
+                    enqueue(event, future);
+                }
+                return;
+            }
+
+        } else {
+            depth.incrementAndGet();
+            queue.offer(delivery);
+        }
+        schedule();
+    }
+
+    /**
+     * @return false if there's no queued event with the key
+     */
+    private boolean conflate(Object key, E event, PublishFuture future) {
+        E replaced;
+        PublishFuture replacedFuture;
+        synchronized (pending) {
+            Delivery<E> delivery = pending.get(key);
+            if (delivery == null)
+                return false;
+            replaced = delivery.event;
+            replacedFuture = delivery.future;
+            delivery.event = event;
+            delivery.future = future;
+        }
+
+        conflated.incrementAndGet();
+        PooledMessage.releaseIfPooled(replaced);
+        if (replacedFuture != null)
+            replacedFuture.done(null);
+        return true;
+    }
+
+    private Delivery<E> take() {
+        Delivery<E> delivery = queue.poll();
+        if (delivery != null && delivery.key != null) {
+            // isn't replaced since now
+            synchronized (pending) {
+                pending.remove(delivery.key);
+            }
+        }
+        return delivery;
+    }
+
+    /**
+     * If the executor rejects the task, e.g. it's shut down, the queued events are delivered
+     * on the calling thread, otherwise they would stay queued until the next event.
+     */
+    private void schedule() {
+        if (!scheduled.compareAndSet(false, true))
+            return;
+
+        try {
+            executor.execute(this);
+            return;
+        } catch (RejectedExecutionException e) {
+            // deliver inline
+        }
+
+        do {
+            drain(Integer.MAX_VALUE);
+            scheduled.set(false);
+        } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+    }
+
+    @Override
+    public void run() {
+        drain(BATCH_SIZE);
+        scheduled.set(false);
+        if (!queue.isEmpty())
+            schedule();
+    }
+
+    private void drain(int max) {
+        for (int i = 0; i < max; i++) {
+            Delivery<E> delivery = take();
+            if (delivery == null)
+                break;
+            depth.decrementAndGet();
+            if (permits != null)
+                permits.release();
+            deliver(delivery);
+        }
+    }
+
+    private void deliver(Delivery<E> delivery) {
+        EventBusMetrics metrics = bus.metrics;
+        long start = metrics == null ? 0 : System.nanoTime();
+        Throwable error = null;
+        try {
+            observer.onEvent(delivery.event);
+        } catch (Throwable t) {
+            error = t;
+            bus.onSubscriberException(t, delivery.event);
+        } finally {
+            if (metrics != null) {
+                metricsBinding = BaseEventBus.MetricsBinding.bind(metricsBinding, metrics, subscription,
+                        observer, eventClass);
+                metricsBinding.recorder.onDelivery(System.nanoTime() - start);
+            }
+            PooledMessage.releaseIfPooled(delivery.event);
+            if (delivery.future != null)
+                delivery.future.done(error);
+        }
+    }
+
+    public Class<?> getEventClass() {
+        return eventClass;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getConflatedCount() {
+        return conflated.get();
+    }
+
+    public LatencyHistogram getEnqueueWait() {
+        return enqueueWait;
+    }
+
+    private static final class Delivery<E> {
+        final Object key;
+        // guarded by pending while queued with a key
+        E event;
+        PublishFuture future;
+
+        Delivery(Object key, E event, PublishFuture future) {
+            this.key = key;
+            this.event = event;
+            this.future = future;
+        }
+    }
+}
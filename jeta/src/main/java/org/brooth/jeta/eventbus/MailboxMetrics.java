@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.util.LatencyHistogram;
+
+/**
+ * Live metrics of a subscriber's mailbox in {@link AsyncEventBus}
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface MailboxMetrics {
+
+    Class<?> getEventClass();
+
+    /**
+     * @return {@link AsyncEventBus#UNBOUNDED} if the mailbox isn't bounded
+     */
+    int getCapacity();
+
+    OverflowPolicy getOverflowPolicy();
+
+    /**
+     * @return number of queued events
+     */
+    int getDepth();
+
+    /**
+     * @return number of events dropped by {@link OverflowPolicy#DROP_NEWEST} or {@link OverflowPolicy#DROP_OLDEST}
+     */
+    long getDroppedCount();
+
+    /**
+     * @return number of events rejected by {@link OverflowPolicy#FAIL}
+     */
+    long getRejectedCount();
+
+    /**
+     * @return number of undelivered events replaced by newer ones with the same key
+     */
+    long getConflatedCount();
+
+    /**
+     * @return time publishers waited for the space by {@link OverflowPolicy#BLOCK}
+     */
+    LatencyHistogram getEnqueueWait();
+}
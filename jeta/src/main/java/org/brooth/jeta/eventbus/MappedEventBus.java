@@ -0,0 +1,447 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bus shared by the processes of a host through a memory-mapped file. The file is a ring of fixed size slots,
+ * events are encoded into the slots by {@link MessageCodec}s. One bus at a time may publish to a file,
+ * it's guarded by a file lock. Every bus that maps the file, including the publishing one, delivers
+ * the events published after it was opened to its local subscribers on own consumer thread.
+ * <p>
+ * The publisher never waits for consumers. A consumer that falls behind by more than the ring size
+ * loses the overwritten events, see {@link #getLostCount()}.
+ * Consumers spin and then yield by default, {@link RingBufferEventBus.WaitStrategy#BUSY_SPIN} gives the lowest
+ * latency, {@code PARK} saves CPU, but polls the ring every {@value #PARK_NANOS} nanoseconds,
+ * only the consumer of the publishing bus is woken up at once.
+ * <p>
+ * Slots are published like a seqlock: the marker is cleared, the payload is written, then the marker and
+ * the cursor are stored in order. Consumers read the marker again after the payload. Mapped memory has no ordered
+ * accessors before java 9, so the accesses are ordered by a write and a read of a volatile field, which
+ * the JVM compiles to a full fence.
+ * <p>
+ * Publishing to the bus always goes through the file, events of classes without codecs are rejected.
+ * Sticky events are cached by the publishing bus only.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class MappedEventBus extends BaseEventBus implements Closeable {
+
+    public static final int DEFAULT_SLOT_SIZE = 256;
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 50000L;
+
+    private static final int MAGIC = 0x4A455441;
+    // 3 - the marker and the cursor are fenced, big endian
+    private static final int VERSION = 3;
+
+    // header: magic, version, slot size, slot count, the cursor on its own cache line
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOT_SIZE_OFFSET = 8;
+    private static final int SLOT_COUNT_OFFSET = 12;
+    private static final int CURSOR_OFFSET = 64;
+    private static final int HEADER_SIZE = 128;
+
+    // slot: marker (sequence + 1, 0 while being written), type id, payload length, payload
+    private static final int MARKER_OFFSET = 0;
+    private static final int TYPE_OFFSET = 8;
+    private static final int LENGTH_OFFSET = 12;
+    private static final int PAYLOAD_OFFSET = 16;
+
+    // file lock regions, out of the data
+    private static final long INIT_LOCK_POSITION = Long.MAX_VALUE - 2;
+    private static final long PRODUCER_LOCK_POSITION = Long.MAX_VALUE - 1;
+
+    private final File path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final MessageCodecRegistry codecs;
+    private final int slotSize;
+    private final int slotCount;
+    private final int mask;
+    private final RingBufferEventBus.WaitStrategy waitStrategy;
+
+    private final Thread consumer;
+    private volatile boolean running = true;
+    private volatile boolean consumerWaiting = false;
+    // next sequence to consume
+    private volatile long consumed;
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    // written and read to fence the mapped memory accesses, one per thread to not share the cache line
+    private volatile int producerFence;
+    private volatile int consumerFence;
+
+    // guarded by this
+    private FileLock producerLock;
+    private long producerSequence;
+    private ByteBuffer producerView;
+
+    /**
+     * Consumer spins, then yields
+     */
+    public MappedEventBus(File file, int slotCount, MessageCodecRegistry codecs) throws IOException {
+        this(file, slotCount, DEFAULT_SLOT_SIZE, codecs, RingBufferEventBus.WaitStrategy.YIELD, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jeta-mapped-event-bus");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Creates the file if it doesn't exist, otherwise it must be created with the same slot count and size.
+     *
+     * @param slotCount power of two
+     * @param slotSize  max encoded event size plus 16 bytes of slot header, multiple of 8
+     */
+    public MappedEventBus(File file, int slotCount, int slotSize, MessageCodecRegistry codecs,
+                          RingBufferEventBus.WaitStrategy waitStrategy, ThreadFactory threadFactory) throws IOException {
+        if (slotCount < 1 || Integer.bitCount(slotCount) != 1)
+            throw new IllegalArgumentException("slotCount must be a power of two");
+        if (slotSize <= PAYLOAD_OFFSET || slotSize % 8 != 0)
+            throw new IllegalArgumentException("slotSize must be a multiple of 8 greater than " + PAYLOAD_OFFSET);
+        if ((long) slotCount * slotSize > Integer.MAX_VALUE - HEADER_SIZE)
+            throw new IllegalArgumentException("Ring is too large");
+        if (codecs == null || waitStrategy == null)
+            throw new IllegalArgumentException("codecs or waitStrategy is null");
+
+        this.path = file;
+        this.codecs = codecs;
+        this.slotSize = slotSize;
+        this.slotCount = slotCount;
+        this.mask = slotCount - 1;
+        this.waitStrategy = waitStrategy;
+
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        try {
+            this.buffer = map();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            this.file.close();
+            throw e;
+        }
+
+        consumed = buffer.getLong(CURSOR_OFFSET);
+        consumerFence();
+        consumer = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        });
+        consumer.start();
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        long size = HEADER_SIZE + (long) slotCount * slotSize;
+        // file locks are held by the process, threads are excluded separately
+        synchronized (MappedEventBus.class) {
+            FileLock lock = channel.lock(INIT_LOCK_POSITION, 1, false);
+            try {
+                if (channel.size() == 0) {
+                    MappedByteBuffer result = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                    result.putInt(VERSION_OFFSET, VERSION);
+                    result.putInt(SLOT_SIZE_OFFSET, slotSize);
+                    result.putInt(SLOT_COUNT_OFFSET, slotCount);
+                    result.putLong(CURSOR_OFFSET, 0);
+                    result.putInt(MAGIC_OFFSET, MAGIC);
+                    result.force();
+                    return result;
+                }
+
+                if (channel.size() != size)
+                    throw new IllegalArgumentException(path + " isn't a ring of " + slotCount + " slots of " +
+                            slotSize + " bytes");
+                MappedByteBuffer result = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                if (result.getInt(MAGIC_OFFSET) != MAGIC || result.getInt(VERSION_OFFSET) != VERSION ||
+                        result.getInt(SLOT_SIZE_OFFSET) != slotSize || result.getInt(SLOT_COUNT_OFFSET) != slotCount)
+                    throw new IllegalArgumentException(path + " isn't a ring of " + slotCount + " slots of " +
+                            slotSize + " bytes");
+                return result;
+
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Encodes the event into the ring
+     *
+     * @throws IllegalArgumentException if there's no codec for the event or it doesn't fit into a slot
+     * @throws IllegalStateException    if another bus publishes to the file
+     */
+    @Override
+    public <E extends Message> void publish(E event) {
+        assert event != null;
+        try {
+            encode(event);
+        } finally {
+            // the file holds a copy
+            PooledMessage.releaseIfPooled(event);
+        }
+
+        if (consumerWaiting)
+            LockSupport.unpark(consumer);
+    }
+
+    private <E extends Message> void encode(E event) {
+        if (!running)
+            throw new IllegalStateException("Event bus is closed");
+
+        @SuppressWarnings("unchecked")
+        MessageCodecRegistry.Entry<E> entry = (MessageCodecRegistry.Entry<E>) codecs.get(event.getClass());
+        if (entry == null)
+            throw new IllegalArgumentException("No codec for " + event.getClass().getName());
+
+        synchronized (this) {
+            acquireProducer();
+
+            long sequence = producerSequence;
+            int offset = slotOffset(sequence);
+            buffer.putLong(offset + MARKER_OFFSET, 0);
+            // the payload isn't written before the marker is cleared
+            producerFence();
+
+            producerView.limit(offset + slotSize);
+            producerView.position(offset + PAYLOAD_OFFSET);
+            try {
+                entry.getCodec().encode(event, producerView);
+            } catch (BufferOverflowException e) {
+                throw new IllegalArgumentException("Encoded " + event.getClass().getName() +
+                        " exceeds slot payload of " + (slotSize - PAYLOAD_OFFSET) + " bytes");
+            }
+            buffer.putInt(offset + TYPE_OFFSET, entry.getTypeId());
+            buffer.putInt(offset + LENGTH_OFFSET, producerView.position() - offset - PAYLOAD_OFFSET);
+
+            producerFence();
+            buffer.putLong(offset + MARKER_OFFSET, sequence + 1);
+            producerFence();
+            buffer.putLong(CURSOR_OFFSET, sequence + 1);
+            producerSequence = sequence + 1;
+        }
+    }
+
+    @Override
+    protected void publishRuns(List<? extends Message> events) {
+        for (Message event : events)
+            publish(event);
+    }
+
+    private void acquireProducer() {
+        if (producerLock != null)
+            return;
+
+        FileLock lock;
+        try {
+            lock = channel.tryLock(PRODUCER_LOCK_POSITION, 1, false);
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to lock " + path, e);
+        }
+        if (lock == null)
+            throw new IllegalStateException("Another bus publishes to " + path);
+
+        producerLock = lock;
+        producerSequence = buffer.getLong(CURSOR_OFFSET);
+        producerView = buffer.duplicate();
+    }
+
+    private int slotOffset(long sequence) {
+        return HEADER_SIZE + ((int) sequence & mask) * slotSize;
+    }
+
+    /**
+     * Mapped memory accesses aren't reordered across the call. The volatile write keeps the preceding
+     * accesses before it, the volatile read keeps the following ones after it.
+     */
+    private int producerFence() {
+        producerFence = 1;
+        return producerFence;
+    }
+
+    private int consumerFence() {
+        consumerFence = 1;
+        return consumerFence;
+    }
+
+    private void consume() {
+        ByteBuffer view = buffer.duplicate();
+        long next = consumed;
+        int tries = 0;
+        while (running) {
+            long cursor = buffer.getLong(CURSOR_OFFSET);
+            consumerFence();
+            if (next >= cursor) {
+                if (waitStrategy == RingBufferEventBus.WaitStrategy.PARK && tries >= SPIN_TRIES) {
+                    consumerWaiting = true;
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                    consumerWaiting = false;
+                } else {
+                    tries = idle(tries);
+                }
+                continue;
+            }
+
+            tries = 0;
+            if (cursor - next > slotCount) {
+                lost.addAndGet(cursor - slotCount - next);
+                next = cursor - slotCount;
+            }
+            for (; next < cursor && running; next++) {
+                read(view, next);
+                consumed = next + 1;
+            }
+        }
+    }
+
+    private void read(ByteBuffer view, long sequence) {
+        int offset = slotOffset(sequence);
+        long marker = buffer.getLong(offset + MARKER_OFFSET);
+        consumerFence();
+        if (marker != sequence + 1) {
+            lost.incrementAndGet();
+            return;
+        }
+
+        int typeId = buffer.getInt(offset + TYPE_OFFSET);
+        int length = buffer.getInt(offset + LENGTH_OFFSET);
+        MessageCodecRegistry.Entry<?> entry = codecs.get(typeId);
+        Message event = null;
+        RuntimeException error = null;
+        if (entry != null && length >= 0 && length <= slotSize - PAYLOAD_OFFSET) {
+            view.limit(offset + PAYLOAD_OFFSET + length);
+            view.position(offset + PAYLOAD_OFFSET);
+            try {
+                event = entry.getCodec().decode(view);
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+
+        // the payload is read before the marker is checked again
+        consumerFence();
+        if (buffer.getLong(offset + MARKER_OFFSET) != marker) {
+            // overwritten while being read
+            lost.incrementAndGet();
+            return;
+        }
+        if (entry == null) {
+            skipped.incrementAndGet();
+            return;
+        }
+        if (error != null || event == null) {
+            onSubscriberException(error != null ? error :
+                    new IllegalStateException("Malformed " + entry.getMessageClass().getName()), null);
+            return;
+        }
+
+        try {
+            super.publish(event);
+        } catch (Throwable t) {
+            onSubscriberException(t, event);
+        }
+    }
+
+    private int idle(int tries) {
+        if (tries < SPIN_TRIES || waitStrategy == RingBufferEventBus.WaitStrategy.BUSY_SPIN)
+            return tries + 1;
+        Thread.yield();
+        return tries + 1;
+    }
+
+    public File getFile() {
+        return path;
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    /**
+     * @return number of events overwritten before this bus delivered them
+     */
+    public long getLostCount() {
+        return lost.get();
+    }
+
+    /**
+     * @return number of events skipped as their type ids have no codecs
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * @return number of published to the file, but not delivered by this bus yet events
+     */
+    public long getBacklog() {
+        return Math.max(0, buffer.getLong(CURSOR_OFFSET) - consumed);
+    }
+
+    /**
+     * Stops the consumer and releases the file. The mapping is released by garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(consumer);
+        if (Thread.currentThread() != consumer) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            if (producerLock != null && producerLock.isValid())
+                producerLock.release();
+            producerLock = null;
+        }
+        channel.close();
+        file.close();
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Serializes messages of a class for the buses that cross process boundaries, such as {@link MappedEventBus}.
+ * Implementations must be thread-safe.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface MessageCodec<E extends Message> {
+
+    /**
+     * Writes the message from buffer's position
+     *
+     * @throws java.nio.BufferOverflowException if the message doesn't fit into the buffer
+     */
+    void encode(E message, ByteBuffer buffer);
+
+    /**
+     * Reads a message written by {@link #encode(Message, ByteBuffer)} from buffer's position.
+     * The buffer's limit is the end of the message.
+     */
+    E decode(ByteBuffer buffer);
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.metasitory.Metasitory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Message codecs by message class and by type id. The type id is written along with an encoded message,
+ * so the processes must register the same classes by the same ids.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class MessageCodecRegistry {
+
+    private final ConcurrentHashMap<Class<?>, Entry<?>> byClass = new ConcurrentHashMap<Class<?>, Entry<?>>();
+    private final ConcurrentHashMap<Integer, Entry<?>> byTypeId = new ConcurrentHashMap<Integer, Entry<?>>();
+
+    /**
+     * Registers the codec with type id derived from the message class name
+     */
+    public <E extends Message> MessageCodecRegistry register(Class<E> messageClass, MessageCodec<E> codec) {
+        return register(messageClass.getName().hashCode(), messageClass, codec);
+    }
+
+    /**
+     * Registers the codec generated for {@code @Codec} annotated message class by its type id
+     */
+    public <E extends Message> MessageCodecRegistry register(Metasitory metasitory, Class<E> messageClass) {
+        final CodecMetacode<E> metacode = new CodecController<E>(metasitory, messageClass).getMetacode();
+        return register(metacode.getTypeId(), messageClass, new MessageCodec<E>() {
+            public void encode(E message, ByteBuffer buffer) {
+                metacode.encode(message, buffer);
+            }
+
+            public E decode(ByteBuffer buffer) {
+                return metacode.decode(buffer);
+            }
+        });
+    }
+
+    public synchronized <E extends Message> MessageCodecRegistry register(int typeId, Class<E> messageClass,
+                                                                          MessageCodec<E> codec) {
+        if (messageClass == null || codec == null)
+            throw new IllegalArgumentException("messageClass or codec is null");
+
+        Entry<?> existing = byTypeId.get(typeId);
+        if (existing != null && existing.messageClass != messageClass)
+            throw new IllegalArgumentException("Type id " + typeId + " of " + messageClass.getName() +
+                    " is already taken by " + existing.messageClass.getName());
+        existing = byClass.get(messageClass);
+        if (existing != null && existing.typeId != typeId)
+            throw new IllegalArgumentException(messageClass.getName() + " is already registered by type id " +
+                    existing.typeId);
+
+        Entry<E> entry = new Entry<E>(typeId, messageClass, codec);
+        byClass.put(messageClass, entry);
+        byTypeId.put(typeId, entry);
+        return this;
+    }
+
+    /**
+     * @return null if the class isn't registered
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends Message> Entry<E> get(Class<E> messageClass) {
+        return (Entry<E>) byClass.get(messageClass);
+    }
+
+    /**
+     * @return null if the type id isn't registered
+     */
+    public Entry<?> get(int typeId) {
+        return byTypeId.get(typeId);
+    }
+
+    public static final class Entry<E extends Message> {
+        private final int typeId;
+        private final Class<E> messageClass;
+        private final MessageCodec<E> codec;
+
+        private Entry(int typeId, Class<E> messageClass, MessageCodec<E> codec) {
+            this.typeId = typeId;
+            this.messageClass = messageClass;
+            this.codec = codec;
+        }
+
+        public int getTypeId() {
+            return typeId;
+        }
+
+        public Class<E> getMessageClass() {
+            return messageClass;
+        }
+
+        public MessageCodec<E> getCodec() {
+            return codec;
+        }
+    }
+}
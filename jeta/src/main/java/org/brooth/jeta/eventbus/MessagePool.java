@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of {@link PooledMessage}s of a class. Messages released over the capacity are left to GC.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class MessagePool<E extends PooledMessage> {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final ConcurrentHashMap<Class<?>, MessagePool<?>> pools =
+            new ConcurrentHashMap<Class<?>, MessagePool<?>>();
+
+    private final Class<E> messageClass;
+    private final Constructor<E> constructor;
+
+    // guarded by this
+    private final PooledMessage[] stack;
+    private int size;
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    /**
+     * @param messageClass must have a no-arg constructor
+     */
+    public MessagePool(Class<E> messageClass, int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("negative capacity");
+        try {
+            constructor = messageClass.getDeclaredConstructor();
+            constructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(messageClass.getName() + " has no no-arg constructor");
+        }
+        this.messageClass = messageClass;
+        this.stack = new PooledMessage[capacity];
+    }
+
+    /**
+     * @return shared pool of the class with {@link #DEFAULT_CAPACITY}
+     */
+    public static <E extends PooledMessage> MessagePool<E> of(Class<E> messageClass) {
+        @SuppressWarnings("unchecked")
+        MessagePool<E> pool = (MessagePool<E>) pools.get(messageClass);
+        if (pool == null) {
+            pool = new MessagePool<E>(messageClass, DEFAULT_CAPACITY);
+            @SuppressWarnings("unchecked")
+            MessagePool<E> quicker = (MessagePool<E>) pools.putIfAbsent(messageClass, pool);
+            if (quicker != null)
+                pool = quicker;
+        }
+        return pool;
+    }
+
+    /**
+     * @return pooled or new message, held by the caller
+     */
+    public E claim() {
+        PooledMessage message = null;
+        synchronized (this) {
+            if (size > 0) {
+                message = stack[--size];
+                stack[size] = null;
+            }
+        }
+
+        if (message == null) {
+            E result = newMessage();
+            result.pool = this;
+            created.incrementAndGet();
+            return result;
+        }
+
+        reused.incrementAndGet();
+        message.claimed();
+        return messageClass.cast(message);
+    }
+
+    void recycle(PooledMessage message) {
+        message.reset();
+        synchronized (this) {
+            if (size < stack.length)
+                stack[size++] = message;
+        }
+    }
+
+    private E newMessage() {
+        try {
+            return constructor.newInstance();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to create " + messageClass.getName(), e);
+        }
+    }
+
+    public Class<E> getMessageClass() {
+        return messageClass;
+    }
+
+    public int getCapacity() {
+        return stack.length;
+    }
+
+    /**
+     * @return number of pooled messages
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+/**
+ * What a bounded mailbox of {@link AsyncEventBus} does with an event if it's full
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public enum OverflowPolicy {
+    /**
+     * as configured by the bus, for {@link Subscribe#overflow()}
+     */
+    DEFAULT,
+    /**
+     * publisher waits until the subscriber takes an event.
+     * Deadlocks if the subscriber publishes to its own full mailbox.
+     */
+    BLOCK,
+    /**
+     * the event is dropped for the subscriber
+     */
+    DROP_NEWEST,
+    /**
+     * the oldest queued event is dropped for the subscriber
+     */
+    DROP_OLDEST,
+    /**
+     * publisher gets {@link java.util.concurrent.RejectedExecutionException}
+     */
+    FAIL
+}
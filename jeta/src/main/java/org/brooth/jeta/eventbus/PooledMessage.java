@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Reference counted message, recycled by its {@link MessagePool} once released by all the holders.
+ * A claimed message is held by the publisher, publishing passes the reference to the bus, which releases it
+ * after the subscribers returned. Subscribers and mailboxes that keep the message must {@link #retain()} it
+ * and {@link #release()} when they are done. A released message must not be touched, it's reused.
+ * <p>
+ * Pooled messages can't be published sticky.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class PooledMessage extends BaseMessage {
+
+    private static final AtomicIntegerFieldUpdater<PooledMessage> REF_COUNT =
+            AtomicIntegerFieldUpdater.newUpdater(PooledMessage.class, "refCount");
+
+    private volatile int refCount = 1;
+    /**
+     * null if the message isn't created by a pool
+     */
+    MessagePool<?> pool;
+
+    public PooledMessage() {
+    }
+
+    public PooledMessage(int id, String topic) {
+        super(id, topic);
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public int refCount() {
+        return refCount;
+    }
+
+    /**
+     * @throws IllegalStateException if the message is released
+     */
+    public PooledMessage retain() {
+        while (true) {
+            int current = refCount;
+            if (current <= 0)
+                throw new IllegalStateException("Message is released");
+            if (REF_COUNT.compareAndSet(this, current, current + 1))
+                return this;
+        }
+    }
+
+    /**
+     * @return true if the message is returned to the pool
+     * @throws IllegalStateException if the message is released
+     */
+    public boolean release() {
+        while (true) {
+            int current = refCount;
+            if (current <= 0)
+                throw new IllegalStateException("Message is released");
+            if (REF_COUNT.compareAndSet(this, current, current - 1)) {
+                if (current > 1)
+                    return false;
+                if (pool == null)
+                    return false;
+                pool.recycle(this);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Clears the state before the message is pooled
+     */
+    protected void reset() {
+        id = 0;
+        topic = null;
+    }
+
+    void claimed() {
+        refCount = 1;
+    }
+
+    static void retainIfPooled(Object event) {
+        if (event instanceof PooledMessage)
+            ((PooledMessage) event).retain();
+    }
+
+    static void releaseIfPooled(Object event) {
+        if (event instanceof PooledMessage)
+            ((PooledMessage) event).release();
+    }
+}
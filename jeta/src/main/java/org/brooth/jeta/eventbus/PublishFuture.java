@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Completes when all the subscribers handled the event. Result is number of subscribers.
+ * Fails with the first exception thrown by a subscriber.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+class PublishFuture implements Future<Integer> {
+
+    private final int subscribers;
+    private final AtomicInteger remaining;
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private volatile Throwable error;
+
+    PublishFuture(int subscribers) {
+        this.subscribers = subscribers;
+        this.remaining = new AtomicInteger(subscribers);
+        if (subscribers == 0)
+            latch.countDown();
+    }
+
+    void done(Throwable t) {
+        if (t != null && error == null)
+            error = t;
+        if (remaining.decrementAndGet() == 0)
+            latch.countDown();
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public Integer get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return result();
+    }
+
+    @Override
+    public Integer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!latch.await(timeout, unit))
+            throw new TimeoutException();
+        return result();
+    }
+
+    private Integer result() throws ExecutionException {
+        if (error != null)
+            throw new ExecutionException(error);
+        return subscribers;
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free bus for high-throughput streams. Publishers claim a sequence in a preallocated ring and
+ * a single consumer thread delivers events in batches: each subscriber receives a run of same class events
+ * in a row, priorities are kept per event. Publishers wait if the ring is full.
+ * <p>
+ * Events are delivered in the order their sequences were claimed. If a subscriber publishes while the ring
+ * is full, the event is kept in an unbounded overflow queue of the consumer and is published once the ring
+ * has space, so the events published by subscribers keep their order. A publisher that waits
+ * for space fails if the consumer thread is dead.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class RingBufferEventBus extends BaseEventBus {
+
+    public enum WaitStrategy {
+        /**
+         * lowest latency, burns a core
+         */
+        BUSY_SPIN,
+        /**
+         * spins, then yields the thread
+         */
+        YIELD,
+        /**
+         * spins, then parks the thread until an event is published. Lowest CPU usage
+         */
+        PARK
+    }
+
+    private static final int SPIN_TRIES = 100;
+    private static final long PARK_NANOS = 1000000L;
+
+    private final Object[] ring;
+    private final int mask;
+    private final int indexShift;
+    private final AtomicIntegerArray available;
+    private final WaitStrategy waitStrategy;
+
+    // last claimed sequence
+    private final Sequence cursor = new Sequence();
+    // last consumed sequence
+    private final Sequence consumed = new Sequence();
+    // events published by subscribers while the ring is full, accessed by consumer thread only
+    private final Queue<Object> overflow = new ArrayDeque<Object>();
+
+    private final Thread consumer;
+    private volatile boolean running = true;
+    private volatile boolean consumerWaiting = false;
+
+    public RingBufferEventBus(int bufferSize) {
+        this(bufferSize, WaitStrategy.PARK, false);
+    }
+
+    public RingBufferEventBus(int bufferSize, WaitStrategy waitStrategy, boolean hierarchical) {
+        this(bufferSize, waitStrategy, hierarchical, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jeta-ring-event-bus");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param bufferSize power of two
+     */
+    public RingBufferEventBus(int bufferSize, WaitStrategy waitStrategy, boolean hierarchical, ThreadFactory threadFactory) {
+        super(hierarchical);
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1)
+            throw new IllegalArgumentException("bufferSize must be a power of two");
+        if (waitStrategy == null)
+            throw new IllegalArgumentException("waitStrategy is null");
+
+        this.ring = new Object[bufferSize];
+        this.mask = bufferSize - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(bufferSize);
+        this.available = new AtomicIntegerArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++)
+            available.set(i, -1);
+        this.waitStrategy = waitStrategy;
+
+        consumer = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                consume();
+            }
+        });
+        consumer.start();
+    }
+
+    @Override
+    public <E extends Message> void publish(E event) {
+        assert event != null;
+        if (!running)
+            throw new IllegalStateException("Event bus is shut down");
+
+        if (Thread.currentThread() == consumer) {
+            // a subscriber publishes, consumer can't wait for itself if the ring is full
+            if (!overflow.isEmpty() || !tryPublish(event))
+                overflow.add(event);
+            return;
+        }
+
+        long sequence = cursor.incrementAndGet();
+        awaitSpace(sequence - ring.length);
+        ring[(int) sequence & mask] = event;
+        markAvailable(sequence, sequence);
+    }
+
+    private boolean tryPublish(Object event) {
+        long sequence;
+        do {
+            sequence = cursor.get() + 1;
+            if (sequence - ring.length > consumed.get())
+                return false;
+        } while (!cursor.compareAndSet(sequence - 1, sequence));
+
+        ring[(int) sequence & mask] = event;
+        markAvailable(sequence, sequence);
+        return true;
+    }
+
+    private void awaitSpace(long wrapPoint) {
+        int tries = 0;
+        while (wrapPoint > consumed.get()) {
+            if (tries >= SPIN_TRIES && !consumer.isAlive())
+                throw new IllegalStateException("Event bus consumer thread is dead");
+            tries = idle(tries);
+        }
+    }
+
+    /**
+     * Claims sequences for up to a ring of events at once
+     */
+    @Override
+    protected void publishRuns(List<? extends Message> events) {
+        if (!running)
+            throw new IllegalStateException("Event bus is shut down");
+        if (Thread.currentThread() == consumer) {
+            for (Message event : events)
+                publish(event);
+            return;
+        }
+
+        int size = events.size();
+        for (int start = 0; start < size; start += ring.length) {
+            int count = Math.min(ring.length, size - start);
+            long last = cursor.addAndGet(count);
+            long first = last - count + 1;
+            awaitSpace(last - ring.length);
+
+            for (int i = 0; i < count; i++) {
+                Message event = events.get(start + i);
+                assert event != null;
+                ring[(int) (first + i) & mask] = event;
+            }
+            markAvailable(first, last);
+        }
+    }
+
+    private void markAvailable(long first, long last) {
+        if (waitStrategy == WaitStrategy.PARK) {
+            for (long sequence = first; sequence <= last; sequence++)
+                available.set((int) sequence & mask, (int) (sequence >>> indexShift));
+            if (consumerWaiting)
+                LockSupport.unpark(consumer);
+        } else {
+            for (long sequence = first; sequence <= last; sequence++)
+                available.lazySet((int) sequence & mask, (int) (sequence >>> indexShift));
+        }
+    }
+
+    /**
+     * Waits until the events published before the call are delivered
+     */
+    public void flush() {
+        if (Thread.currentThread() == consumer)
+            throw new IllegalStateException("flush() from subscriber");
+
+        long target = cursor.get();
+        int tries = 0;
+        while (consumed.get() < target && consumer.isAlive())
+            tries = idle(tries);
+    }
+
+    /**
+     * Delivers published events and stops the consumer thread. Events published concurrently may be lost.
+     */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(consumer);
+        if (Thread.currentThread() != consumer)
+            consumer.join();
+    }
+
+    public int getBufferSize() {
+        return ring.length;
+    }
+
+    /**
+     * @return number of published, but not delivered yet events
+     */
+    public long getBacklog() {
+        return cursor.get() - consumed.get();
+    }
+
+    private void consume() {
+        long next = consumed.get() + 1;
+        int tries = 0;
+        while (running || next <= cursor.get() || !overflow.isEmpty()) {
+            while (!overflow.isEmpty() && tryPublish(overflow.peek()))
+                overflow.poll();
+
+            long last = highestAvailable(next, cursor.get());
+            if (last < next) {
+                if (waitStrategy == WaitStrategy.PARK && tries >= SPIN_TRIES) {
+                    consumerWaiting = true;
+                    if (highestAvailable(next, cursor.get()) < next && running)
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    consumerWaiting = false;
+                } else {
+                    tries = idle(tries);
+                }
+                continue;
+            }
+
+            tries = 0;
+            dispatchBatch(next, last);
+            consumed.lazySet(last);
+            next = last + 1;
+        }
+    }
+
+    private long highestAvailable(long from, long to) {
+        for (long sequence = from; sequence <= to; sequence++)
+            if (available.get((int) sequence & mask) != (int) (sequence >>> indexShift))
+                return sequence - 1;
+        return to;
+    }
+
+    private void dispatchBatch(long from, long to) {
+        if (metrics != null) {
+            for (long sequence = from; sequence <= to; sequence++) {
+                dispatch(ring[(int) sequence & mask]);
+                ring[(int) sequence & mask] = null;
+            }
+            return;
+        }
+
+        long runStart = from;
+        while (runStart <= to) {
+            Class<?> eventClass = ring[(int) runStart & mask].getClass();
+            long runEnd = runStart;
+            while (runEnd < to && ring[(int) (runEnd + 1) & mask].getClass() == eventClass)
+                runEnd++;
+
+            List<Object> run = null;
+            for (EventObserver<?> observer : getDispatch(eventClass).observers) {
+                @SuppressWarnings("unchecked")
+                Subscribers.PriorityEventObserver<Object> o = (Subscribers.PriorityEventObserver<Object>) observer;
+                if (o.isBatch()) {
+                    if (run == null) {
+                        run = new ArrayList<Object>((int) (runEnd - runStart + 1));
+                        for (long sequence = runStart; sequence <= runEnd; sequence++)
+                            run.add(ring[(int) sequence & mask]);
+                    }
+                    try {
+                        o.onEvents(run);
+                    } catch (Throwable t) {
+                        onSubscriberException(t, run);
+                    }
+                    continue;
+                }
+
+                for (long sequence = runStart; sequence <= runEnd; sequence++)
+                    deliver(o, ring[(int) sequence & mask]);
+            }
+
+            for (long sequence = runStart; sequence <= runEnd; sequence++) {
+                PooledMessage.releaseIfPooled(ring[(int) sequence & mask]);
+                ring[(int) sequence & mask] = null;
+            }
+            runStart = runEnd + 1;
+        }
+    }
+
+    private void dispatch(Object event) {
+        try {
+            EventBusMetrics metrics = this.metrics;
+            if (metrics != null) {
+                publishInstrumented(event, metrics);
+                return;
+            }
+
+            for (EventObserver<?> observer : getDispatch(event.getClass()).observers) {
+                @SuppressWarnings("unchecked")
+                EventObserver<Object> o = (EventObserver<Object>) observer;
+                deliver(o, event);
+            }
+
+        } finally {
+            PooledMessage.releaseIfPooled(event);
+        }
+    }
+
+    @Override
+    protected void deliverInstrumented(EventObserver<?> observer, Object event, EventBusMetrics metrics) {
+        try {
+            super.deliverInstrumented(observer, event, metrics);
+        } catch (Throwable t) {
+            onSubscriberException(t, event);
+        }
+    }
+
+    private void deliver(EventObserver<Object> observer, Object event) {
+        try {
+            observer.onEvent(event);
+        } catch (Throwable t) {
+            onSubscriberException(t, event);
+        }
+    }
+
+    private int idle(int tries) {
+        if (tries < SPIN_TRIES)
+            return tries + 1;
+        if (waitStrategy == WaitStrategy.YIELD)
+            Thread.yield();
+        else if (waitStrategy == WaitStrategy.PARK)
+            LockSupport.parkNanos(1);
+        return tries;
+    }
+
+    @SuppressWarnings("unused")
+    static class LhsPadding {
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    static class SequenceValue extends LhsPadding {
+        volatile long value;
+    }
+
+    /**
+     * Sequence padded on both sides against false sharing between producers' cursor and consumer's sequence.
+     * Superclass fields are laid out first, so the value lies between the paddings.
+     */
+    @SuppressWarnings("unused")
+    private static final class Sequence extends SequenceValue {
+        private static final AtomicLongFieldUpdater<SequenceValue> VALUE =
+                AtomicLongFieldUpdater.newUpdater(SequenceValue.class, "value");
+
+        long p9, p10, p11, p12, p13, p14, p15;
+
+        Sequence() {
+            value = -1;
+        }
+
+        long get() {
+            return value;
+        }
+
+        void lazySet(long newValue) {
+            VALUE.lazySet(this, newValue);
+        }
+
+        boolean compareAndSet(long expect, long update) {
+            return VALUE.compareAndSet(this, expect, update);
+        }
+
+        long incrementAndGet() {
+            return VALUE.incrementAndGet(this);
+        }
+
+        long addAndGet(long delta) {
+            return VALUE.addAndGet(this, delta);
+        }
+    }
+}
@@ -32,4 +32,43 @@ public @interface Subscribe {
     String[] topic() default {};
 
     int priority() default 0;
+
+    /**
+     * The subscriber holds the master weakly and is purged from the bus once the master is collected.
+     * Can be enabled for all the subscribers by {@code subscribe.weak=true} processing property.
+     */
+    boolean weak() default false;
+
+    /**
+     * Deliver the last event published by {@link ExtendedEventBus#publishSticky(Message)} on registration
+     */
+    boolean sticky() default false;
+
+    /**
+     * Lane the subscriber is delivered on, see {@link DeliveryLanes}
+     */
+    ThreadMode thread() default ThreadMode.DEFAULT;
+
+    /**
+     * Name of {@link ThreadMode#SINGLE} lane, empty - {@link DeliveryLanes#DEFAULT_LANE}
+     */
+    String lane() default "";
+
+    /**
+     * Capacity of the subscriber's mailbox in {@link AsyncEventBus}, {@code 0} - as configured by the bus
+     */
+    int capacity() default 0;
+
+    OverflowPolicy overflow() default OverflowPolicy.DEFAULT;
+
+    /**
+     * Undelivered event in {@link AsyncEventBus} subscriber's mailbox is replaced by a newer one with the same key,
+     * so a busy subscriber gets the latest value only
+     */
+    Conflation conflate() default Conflation.NONE;
+
+    /**
+     * Custom key of conflated events, instead of {@link #conflate()}
+     */
+    Class<? extends ConflationKey> conflationKey() default ConflationKey.class;
 }
@@ -1,17 +1,17 @@
 /*
  * Copyright 2016 Oleg Khalidov
  *
- *  Licensed under the Apache License, Version 2.0 (the "License");
- *  you may not use this file except in compliance with the License.
- *  You may obtain a copy of the License at
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
  *
- *      http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.apache.org/licenses/LICENSE-2.0
  *
- *  Unless required by applicable law or agreed to in writing, software
- *  distributed under the License is distributed on an "AS IS" BASIS,
- *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- *  See the License for the specific language governing permissions and
- *  limitations under the License.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
  */
 
 package org.brooth.jeta.eventbus;
@@ -19,64 +19,455 @@ package org.brooth.jeta.eventbus;
 import org.brooth.jeta.observer.EventObserver;
 import org.brooth.jeta.observer.Observers;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.lang.reflect.Constructor;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * @author Oleg Khalidov (brooth@gmail.com)
  */
 public class Subscribers<E extends Message> {
 
-    private Observers<E> observers = new ObserversDecorator<E>();
+    private static final Subscription DEFAULT_SUBSCRIPTION = new Subscription.Builder().build();
+    private static final int COMPACT_THRESHOLD = 8;
 
+    /**
+     * incremented on each change of the subscribers, invalidates caches built of them
+     */
+    private final AtomicInteger version = new AtomicInteger();
+    private final Class<E> eventClass;
+    private final AtomicLong purged;
+    private final Constructor<? extends Dispatcher> dispatcherConstructor;
+    private final ObserversDecorator observers = new ObserversDecorator();
+    private long sequence = 0;
+    /**
+     * removed subscribers that are still in the snapshot, guarded by this
+     */
+    private int removed = 0;
+
+    /**
+     * immutable snapshot, replaced as a whole on each change
+     */
+    private volatile Index<E> index;
+
+    public Subscribers() {
+        this(null, new AtomicLong());
+    }
+
+    /**
+     * @param eventClass dispatcher of the subscribers is specialized for the class
+     */
+    public Subscribers(Class<E> eventClass) {
+        this(eventClass, new AtomicLong());
+    }
+
+    /**
+     * @param eventClass dispatcher of the subscribers is specialized for the class, null - shared one
+     * @param purged     incremented by number of purged weak subscribers, may be shared
+     */
+    Subscribers(Class<E> eventClass, AtomicLong purged) {
+        this.eventClass = eventClass;
+        this.purged = purged;
+        this.dispatcherConstructor = Dispatchers.constructorFor(eventClass);
+        this.index = new Index<E>(Subscribers.<E>newArray(0), dispatcherConstructor);
+    }
+
+    /**
+     * @return class of the dispatcher, a copy of {@link EventDispatcher} specialized for the event class,
+     * or the shared one
+     */
+    public Class<?> getDispatcherClass() {
+        return dispatcherConstructor.getDeclaringClass();
+    }
+
+    /**
+     * @return why the dispatchers aren't specialized for event classes and the shared one is used,
+     * null if they are
+     */
+    public static Throwable getDispatcherCopyFailure() {
+        return Dispatchers.getCopyFailure();
+    }
+
+    /**
+     * Notifies the subscribers that accept the event. Routed subscribers are looked up by event's id and topic.
+     *
+     * @return number of notified subscribers
+     */
     public int notify(E event) {
-        return observers.notify(event);
+        Index<E> index = this.index;
+        if (!index.routed)
+            return index.dispatcher.dispatch(event);
+
+        PriorityEventObserver<E>[] general = index.general;
+        PriorityEventObserver<E>[] byId = index.byId.get(event.id());
+        PriorityEventObserver<E>[] byTopic = event.topic() == null ? null : index.byTopic.get(event.topic());
+        if (byId == null)
+            byId = index.none;
+        if (byTopic == null)
+            byTopic = index.none;
+
+        // merge of three priority ordered arrays
+        int result = 0;
+        int i = 0, j = 0, k = 0;
+        while (true) {
+            PriorityEventObserver<E> next = null;
+            int source = 0;
+            if (i < general.length) {
+                next = general[i];
+                source = 1;
+            }
+            if (j < byId.length && (next == null || byId[j].before(next))) {
+                next = byId[j];
+                source = 2;
+            }
+            if (k < byTopic.length && (next == null || byTopic[k].before(next))) {
+                next = byTopic[k];
+                source = 3;
+            }
+
+            if (source == 1) i++;
+            else if (source == 2) j++;
+            else if (source == 3) k++;
+            else break;
+
+            if (!next.removed && (source == 1 || next.subscription.accepts(event))) {
+                next.observer.onEvent(event);
+                result++;
+            }
+        }
+        return result;
     }
 
     public int notifyAndClear(E event) {
-        return observers.notifyAndClear(event);
+        int result = notify(event);
+        clear();
+        return result;
+    }
+
+    /**
+     * @return changes whenever the subscribers change
+     */
+    int getVersion() {
+        return version.get();
     }
 
-    public void clear() {
-        observers.clear();
+    public synchronized void clear() {
+        for (PriorityEventObserver<E> observer : index.all)
+            observer.removed = true;
+        index = new Index<E>(Subscribers.<E>newArray(0), dispatcherConstructor);
+        removed = 0;
+        version.incrementAndGet();
     }
 
+    /**
+     * @return snapshot of the subscribers in priority order, routed ones filter events themselves
+     */
     public List<EventObserver<E>> getAll() {
-        return observers.getAll();
+        PriorityEventObserver<E>[] all = index.all;
+        List<EventObserver<E>> result = new ArrayList<EventObserver<E>>(all.length);
+        for (PriorityEventObserver<E> observer : all)
+            if (!observer.removed)
+                result.add(observer);
+        return Collections.unmodifiableList(result);
     }
 
-    public synchronized Observers.Handler<E> register(EventObserver<E> observer, int priority) {
-        Observers.Handler<E> handler = observers.register(new PriorityEventObserver<E>(observer, priority));
-        ((ObserversDecorator<E>) observers).order();
-        return handler;
+    public Observers.Handler<E> register(EventObserver<E> observer, int priority) {
+        return register(observer, new Subscription.Builder().priority(priority).build());
     }
 
-    private static class PriorityEventObserver<E> implements EventObserver<E> {
+    public synchronized Observers.Handler<E> register(EventObserver<E> observer, Subscription subscription) {
+        PriorityEventObserver<E> o = new PriorityEventObserver<E>(observer,
+                subscription == null ? DEFAULT_SUBSCRIPTION : subscription, eventClass, sequence++);
+        WeakEventObserver<?, ?> weak = weakOf(observer);
+        if (weak != null)
+            weak.owner = this;
+
+        // after all of the same or higher priority
+        PriorityEventObserver<E>[] all = index.all;
+        int low = 0;
+        int high = all.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (all[mid].priority >= o.priority)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+
+        PriorityEventObserver<E>[] result = newArray(all.length + 1);
+        System.arraycopy(all, 0, result, 0, low);
+        result[low] = o;
+        System.arraycopy(all, low, result, low + 1, all.length - low);
+        index = new Index<E>(result, dispatcherConstructor);
+        version.incrementAndGet();
+
+        return observers.createHandler(o);
+    }
+
+    /**
+     * Removes weak subscribers whose masters are collected.
+     * Called lazily by a weak subscriber on an event after its master is gone.
+     *
+     * @return number of purged subscribers
+     */
+    public synchronized int purge() {
+        int result = 0;
+        for (PriorityEventObserver<E> observer : index.all) {
+            if (!observer.removed) {
+                WeakEventObserver<?, ?> weak = weakOf(observer.observer);
+                if (weak != null && weak.isCleared() && unregister(observer))
+                    result++;
+            }
+        }
+        purged.addAndGet(result);
+        return result;
+    }
+
+    private static WeakEventObserver<?, ?> weakOf(EventObserver<?> observer) {
+        if (observer instanceof Mailbox)
+            observer = ((Mailbox<?>) observer).getObserver();
+        return observer instanceof WeakEventObserver ? (WeakEventObserver<?, ?>) observer : null;
+    }
+
+    /**
+     * Marks the subscriber removed, the snapshot is compacted once the removed take half of it
+     */
+    private synchronized boolean unregister(EventObserver<E> observer) {
+        PriorityEventObserver<E> o = (PriorityEventObserver<E>) observer;
+        if (o.removed)
+            return false;
+
+        o.removed = true;
+        if (!index.routed)
+            index.observers.set(o.slot, null);
+        removed++;
+        if (removed >= COMPACT_THRESHOLD && removed * 2 >= index.all.length) {
+            PriorityEventObserver<E>[] all = index.all;
+            PriorityEventObserver<E>[] result = newArray(all.length - removed);
+            int i = 0;
+            for (PriorityEventObserver<E> p : all)
+                if (!p.removed)
+                    result[i++] = p;
+            index = new Index<E>(result, dispatcherConstructor);
+            removed = 0;
+            version.incrementAndGet();
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> PriorityEventObserver<E>[] newArray(int size) {
+        return (PriorityEventObserver<E>[]) new PriorityEventObserver<?>[size];
+    }
+
+    static class PriorityEventObserver<E> implements BatchEventObserver<E> {
         EventObserver<E> observer;
+        Subscription subscription;
         int priority;
+        Class<E> eventClass;
+        long sequence;
+        volatile boolean removed;
+        /**
+         * position in dispatcher of unrouted snapshot, guarded by the subscribers
+         */
+        int slot;
+        // a stale binding is resolved again
+        BaseEventBus.MetricsBinding metricsBinding;
 
-        private PriorityEventObserver(EventObserver<E> observer, int priority) {
+        private PriorityEventObserver(EventObserver<E> observer, Subscription subscription, Class<E> eventClass,
+                                      long sequence) {
             this.observer = observer;
-            this.priority = priority;
+            this.subscription = subscription;
+            this.eventClass = eventClass;
+            this.priority = subscription.getPriority();
+            this.sequence = sequence;
         }
 
         public void onEvent(E event) {
-            observer.onEvent(event);
+            if (accepts(event))
+                observer.onEvent(event);
+        }
+
+        public void onEvents(List<E> events) {
+            if (removed)
+                return;
+
+            if (subscription.isRouted()) {
+                List<E> accepted = new ArrayList<E>(events.size());
+                for (E event : events)
+                    if (accepts(event))
+                        accepted.add(event);
+                if (accepted.isEmpty())
+                    return;
+                events = accepted;
+            }
+
+            if (observer instanceof BatchEventObserver) {
+                ((BatchEventObserver<E>) observer).onEvents(events);
+                return;
+            }
+
+            for (E event : events)
+                observer.onEvent(event);
+        }
+
+        boolean accepts(Object event) {
+            return !removed && (!subscription.isRouted() || subscription.accepts((Message) event));
+        }
+
+        void recordDelivery(EventBusMetrics metrics, long nanos) {
+            BaseEventBus.MetricsBinding binding = BaseEventBus.MetricsBinding.bind(metricsBinding, metrics,
+                    subscription, observer, eventClass);
+            metricsBinding = binding;
+            binding.recorder.onDelivery(nanos);
+        }
+
+        boolean isBatch() {
+            return observer instanceof BatchEventObserver;
         }
+
+        boolean before(PriorityEventObserver<?> other) {
+            return priority > other.priority || (priority == other.priority && sequence < other.sequence);
+        }
+    }
+
+    /**
+     * Immutable subscribers in priority order and their routing index
+     */
+    private static final class Index<E> {
+        final PriorityEventObserver<E>[] all;
+        final boolean routed;
+        final PriorityEventObserver<E>[] none;
+        final PriorityEventObserver<E>[] general;
+        final IntMap<PriorityEventObserver<E>[]> byId;
+        final Map<String, PriorityEventObserver<E>[]> byTopic;
+        /**
+         * delivery of unrouted snapshot, null if routed
+         */
+        final AtomicReferenceArray<EventObserver<E>> observers;
+        final Dispatcher dispatcher;
+
+        Index(PriorityEventObserver<E>[] all, Constructor<? extends Dispatcher> dispatcherConstructor) {
+            this.all = all;
+
+            List<PriorityEventObserver<E>> general = new ArrayList<PriorityEventObserver<E>>();
+            Map<Integer, List<PriorityEventObserver<E>>> byId = new HashMap<Integer, List<PriorityEventObserver<E>>>();
+            Map<String, List<PriorityEventObserver<E>>> byTopic = new HashMap<String, List<PriorityEventObserver<E>>>();
+            for (PriorityEventObserver<E> observer : all) {
+                int[] ids = observer.subscription.ids();
+                if (ids.length > 0) {
+                    // if topics are set too, they're checked on notify
+                    for (int id : ids)
+                        add(byId, id, observer);
+
+                } else if (observer.subscription.topics().length > 0) {
+                    for (String topic : new HashSet<String>(Arrays.asList(observer.subscription.topics())))
+                        add(byTopic, topic, observer);
+
+                } else {
+                    general.add(observer);
+                }
+            }
+
+            this.routed = !byId.isEmpty() || !byTopic.isEmpty();
+            this.none = newArray(0);
+            this.general = routed ? toArray(general) : all;
+            this.byId = new IntMap<PriorityEventObserver<E>[]>(byId.size());
+            for (Map.Entry<Integer, List<PriorityEventObserver<E>>> entry : byId.entrySet())
+                this.byId.put(entry.getKey(), toArray(entry.getValue()));
+            this.byTopic = new HashMap<String, PriorityEventObserver<E>[]>(byTopic.size() * 2);
+            for (Map.Entry<String, List<PriorityEventObserver<E>>> entry : byTopic.entrySet())
+                this.byTopic.put(entry.getKey(), toArray(entry.getValue()));
+
+            if (routed) {
+                this.observers = null;
+                this.dispatcher = null;
+            } else {
+                this.observers = new AtomicReferenceArray<EventObserver<E>>(all.length);
+                for (int i = 0; i < all.length; i++) {
+                    all[i].slot = i;
+                    if (!all[i].removed)
+                        this.observers.set(i, all[i].observer);
+                }
+                this.dispatcher = Dispatchers.newDispatcher(dispatcherConstructor, this.observers);
+            }
+        }
+
+        private static <K, E> void add(Map<K, List<PriorityEventObserver<E>>> map, K key,
+                                       PriorityEventObserver<E> observer) {
+            List<PriorityEventObserver<E>> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<PriorityEventObserver<E>>();
+                map.put(key, list);
+            }
+            list.add(observer);
+        }
+
+        private static <E> PriorityEventObserver<E>[] toArray(List<PriorityEventObserver<E>> list) {
+            return list.toArray(Subscribers.<E>newArray(list.size()));
+        }
+    }
+
+    /**
+     * Open addressing int keyed map, no boxing on lookup. Not thread-safe, filled once.
+     */
+    private static final class IntMap<V> {
+        private final int[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        IntMap(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(2, expectedSize * 2) - 1) << 1;
+            keys = new int[capacity];
+            values = new Object[capacity];
+            mask = capacity - 1;
+        }
+
+        void put(int key, V value) {
+            int i = mix(key) & mask;
+            while (values[i] != null && keys[i] != key)
+                i = (i + 1) & mask;
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(int key) {
+            int i = mix(key) & mask;
+            while (values[i] != null) {
+                if (keys[i] == key)
+                    return (V) values[i];
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Public for copies of {@link EventDispatcher} in other class loaders
+     */
+    public interface Dispatcher {
+        /**
+         * @return number of notified subscribers
+         */
+        int dispatch(Object event);
     }
 
-    private static class ObserversDecorator<E> extends Observers<E> {
-        private void order() {
-            List<EventObserver<E>> copy = new ArrayList<EventObserver<E>>(getAll());
-            Collections.sort(copy, new PriorityComparator());
-            clear();
-            addAll(copy);
+    private class ObserversDecorator extends Observers<E> {
+        @Override
+        protected boolean unregister(EventObserver<E> observer) {
+            return Subscribers.this.unregister(observer);
         }
     }
 
-    private static class PriorityComparator implements Comparator<EventObserver<?>> {
+    static class PriorityComparator implements Comparator<EventObserver<?>> {
         public int compare(EventObserver<?> o1, EventObserver<?> o2) {
             return ((PriorityEventObserver<?>) o1).priority ==
                     ((PriorityEventObserver<?>) o2).priority ? 0 :
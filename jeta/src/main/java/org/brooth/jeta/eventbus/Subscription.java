@@ -0,0 +1,302 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+import org.brooth.jeta.observer.Observers;
+
+import java.util.Arrays;
+
+/**
+ * Describes how an observer is subscribed to an event. Events with ids or topics are routed by the bus
+ * to the matching subscribers only, if both are set, an event must match both.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public final class Subscription {
+
+    private static final int[] NO_IDS = new int[0];
+    private static final String[] NO_TOPICS = new String[0];
+
+    private final int priority;
+
+    private final int[] ids;
+
+    private final String[] topics;
+
+    private final boolean sticky;
+
+    private final ThreadMode threadMode;
+
+    private final String lane;
+
+    private final int capacity;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final ConflationKey conflationKey;
+
+    private final Class<?> masterClass;
+
+    private final String methodName;
+
+    private Subscription(Builder builder) {
+        this.priority = builder.priority;
+        this.ids = builder.ids.length == 0 ? NO_IDS : builder.ids.clone();
+        this.topics = builder.topics.length == 0 ? NO_TOPICS : builder.topics.clone();
+        this.sticky = builder.sticky;
+        this.threadMode = builder.threadMode;
+        this.lane = builder.lane;
+        this.capacity = builder.capacity;
+        this.overflowPolicy = builder.overflowPolicy;
+        this.conflationKey = builder.conflationKey;
+        this.masterClass = builder.masterClass;
+        this.methodName = builder.methodName;
+    }
+
+    /**
+     * Each {@link #build()} returns a new subscription, changes of the builder don't affect built ones
+     */
+    public static class Builder {
+        private int priority = 0;
+        private int[] ids = NO_IDS;
+        private String[] topics = NO_TOPICS;
+        private boolean sticky = false;
+        private ThreadMode threadMode = ThreadMode.DEFAULT;
+        private String lane;
+        private int capacity = 0;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.DEFAULT;
+        private ConflationKey conflationKey;
+        private Class<?> masterClass;
+        private String methodName;
+
+        public Subscription build() {
+            return new Subscription(this);
+        }
+
+        public Builder priority(int value) {
+            this.priority = value;
+            return this;
+        }
+
+        /**
+         * Duplicates are ignored, an observer is indexed once per id
+         */
+        public Builder ids(int... value) {
+            int[] ids = value.clone();
+            Arrays.sort(ids);
+            int size = 0;
+            for (int i = 0; i < ids.length; i++)
+                if (i == 0 || ids[i] != ids[size - 1])
+                    ids[size++] = ids[i];
+            this.ids = size == ids.length ? ids : Arrays.copyOf(ids, size);
+            return this;
+        }
+
+        public Builder topics(String... value) {
+            for (String topic : value)
+                if (topic == null)
+                    throw new IllegalArgumentException("null topic");
+            this.topics = value.clone();
+            return this;
+        }
+
+        /**
+         * On registration, deliver the last sticky events that match the subscription
+         */
+        public Builder sticky(boolean value) {
+            this.sticky = value;
+            return this;
+        }
+
+        public Builder threadMode(ThreadMode value) {
+            if (value == null)
+                throw new IllegalArgumentException("null thread mode");
+            this.threadMode = value;
+            return this;
+        }
+
+        /**
+         * Name of {@link ThreadMode#SINGLE} lane
+         */
+        public Builder lane(String value) {
+            this.lane = value;
+            return this;
+        }
+
+        /**
+         * Capacity of the subscriber's mailbox in {@link AsyncEventBus}, {@code 0} - bus default
+         */
+        public Builder capacity(int value) {
+            if (value < 0)
+                throw new IllegalArgumentException("negative capacity");
+            this.capacity = value;
+            return this;
+        }
+
+        public Builder overflowPolicy(OverflowPolicy value) {
+            if (value == null)
+                throw new IllegalArgumentException("null overflow policy");
+            this.overflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * Conflate undelivered events in the subscriber's mailbox of {@link AsyncEventBus}, null - don't
+         */
+        public Builder conflate(ConflationKey value) {
+            this.conflationKey = value == Conflation.NONE ? null : value;
+            return this;
+        }
+
+        /**
+         * Subscriber's method, identifies the subscriber in {@link EventBusMetrics}
+         */
+        public Builder source(Class<?> masterClass, String methodName) {
+            this.masterClass = masterClass;
+            this.methodName = methodName;
+            return this;
+        }
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return sorted ids, empty if any
+     */
+    public int[] getIds() {
+        return ids.clone();
+    }
+
+    /**
+     * @return topics, empty if any
+     */
+    public String[] getTopics() {
+        return topics.clone();
+    }
+
+    public boolean isSticky() {
+        return sticky;
+    }
+
+    public ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    public String getLane() {
+        return lane;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return key of conflated events, null if the events aren't conflated
+     */
+    public ConflationKey getConflationKey() {
+        return conflationKey;
+    }
+
+    /**
+     * @return master class of the subscriber's method, null if unknown
+     */
+    public Class<?> getMasterClass() {
+        return masterClass;
+    }
+
+    public String getMethodName() {
+        return methodName;
+    }
+
+    public boolean isRouted() {
+        return ids.length > 0 || topics.length > 0;
+    }
+
+    /**
+     * Registers the observer on the bus. A bus that isn't {@link ExtendedEventBus} gets the observer
+     * filtered by ids and topics, other options of the subscription aren't supported by it.
+     *
+     * @throws UnsupportedOperationException if the bus can't apply the subscription
+     */
+    public <E extends Message> Observers.Handler<E> register(EventBus bus, Class<E> eventClass,
+                                                             final EventObserver<E> observer) {
+        if (bus instanceof ExtendedEventBus)
+            return ((ExtendedEventBus) bus).register(eventClass, observer, this);
+
+        // posting thread is the only one a plain bus delivers on
+        if (sticky || (threadMode != ThreadMode.DEFAULT && threadMode != ThreadMode.POSTING) || lane != null ||
+                capacity != 0 || overflowPolicy != OverflowPolicy.DEFAULT || conflationKey != null)
+            throw new UnsupportedOperationException(bus.getClass().getName() + " can't apply " + this);
+        if (!isRouted())
+            return bus.register(eventClass, observer, priority);
+        return bus.register(eventClass, new EventObserver<E>() {
+            @Override
+            public void onEvent(E event) {
+                if (accepts(event))
+                    observer.onEvent(event);
+            }
+        }, priority);
+    }
+
+    public boolean accepts(Message msg) {
+        if (ids.length > 0 && Arrays.binarySearch(ids, msg.id()) < 0)
+            return false;
+
+        if (topics.length > 0) {
+            String topic = msg.topic();
+            if (topic == null)
+                return false;
+            for (String t : topics)
+                if (topic.equals(t))
+                    return true;
+            return false;
+        }
+
+        return true;
+    }
+
+    int[] ids() {
+        return ids;
+    }
+
+    String[] topics() {
+        return topics;
+    }
+
+    @Override
+    public String toString() {
+        return "Subscription{" +
+                "priority=" + priority +
+                ", ids=" + Arrays.toString(ids) +
+                ", topics=" + Arrays.toString(topics) +
+                ", sticky=" + sticky +
+                ", threadMode=" + threadMode +
+                (lane == null ? "" : ", lane='" + lane + '\'') +
+                ", capacity=" + capacity +
+                ", overflowPolicy=" + overflowPolicy +
+                (conflationKey == null ? "" : ", conflationKey=" + conflationKey) +
+                (masterClass == null ? "" : ", source=" + masterClass.getName() + '#' + methodName) +
+                '}';
+    }
+}
@@ -20,6 +20,8 @@ import org.brooth.jeta.observer.ObserverHandler;
 import org.brooth.jeta.observer.Observers;
 
 /**
+ * Thread-safe
+ *
  * @author Oleg Khalidov (brooth@gmail.com)
  */
 public class SubscriptionHandler {
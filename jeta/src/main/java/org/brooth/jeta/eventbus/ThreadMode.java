@@ -0,0 +1,45 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+/**
+ * Delivery lane of a subscriber, see {@link DeliveryLanes}
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public enum ThreadMode {
+    /**
+     * as the bus delivers: publisher's thread or the executor of {@link AsyncEventBus}
+     */
+    DEFAULT,
+    /**
+     * publisher's thread, also in {@link AsyncEventBus}
+     */
+    POSTING,
+    /**
+     * single-thread executor named by {@link Subscribe#lane()}, subscribers of a lane share the thread
+     */
+    SINGLE,
+    /**
+     * shared thread pool, for CPU-heavy subscribers
+     */
+    POOL,
+    /**
+     * virtual thread per task, for blocking subscribers. Falls back to {@link #POOL} before java 21.
+     */
+    VIRTUAL
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public abstract class WeakBatchEventObserver<M, E> extends WeakEventObserver<M, E> implements BatchEventObserver<E> {
+
+    protected WeakBatchEventObserver(WeakReference<M> master) {
+        super(master);
+    }
+
+    public final void onEvents(List<E> events) {
+        M m = master();
+        if (m == null) {
+            cleared();
+            return;
+        }
+        onEvents(m, events);
+    }
+
+    protected abstract void onEvents(M master, List<E> events);
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.eventbus;
+
+import org.brooth.jeta.observer.EventObserver;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * Observer of {@code @Subscribe(weak = true)} method. Holds the master weakly, once it's collected
+ * the observer is purged from the bus on the next event.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public abstract class WeakEventObserver<M, E> implements EventObserver<E> {
+
+    private final WeakReference<M> master;
+
+    /**
+     * subscribers the observer is registered to
+     */
+    volatile Subscribers<?> owner;
+
+    /**
+     * @param master reference, may be shared by the observers of the same master
+     */
+    protected WeakEventObserver(WeakReference<M> master) {
+        this.master = master;
+    }
+
+    public final void onEvent(E event) {
+        M m = master.get();
+        if (m == null) {
+            cleared();
+            return;
+        }
+        onEvent(m, event);
+    }
+
+    protected abstract void onEvent(M master, E event);
+
+    public boolean isCleared() {
+        return master.get() == null;
+    }
+
+    M master() {
+        return master.get();
+    }
+
+    void cleared() {
+        Subscribers<?> subscribers = owner;
+        if (subscribers != null)
+            subscribers.purge();
+    }
+}
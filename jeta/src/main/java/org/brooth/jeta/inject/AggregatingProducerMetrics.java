@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.inject;
+
+import org.brooth.jeta.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Default {@link ProducerMetrics}, aggregates counts and latency histograms per entity class and scope
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class AggregatingProducerMetrics implements ProducerMetrics {
+
+    /**
+     * entity class -> scope class -> metrics, looked up without allocation
+     */
+    private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, EntityMetrics>> metrics =
+            new ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, EntityMetrics>>();
+
+    @Override
+    public void onInstance(Class<?> entityClass, Class<?> scopeClass, long nanos, boolean cached) {
+        ConcurrentMap<Class<?>, EntityMetrics> scopes = metrics.get(entityClass);
+        if (scopes == null) {
+            scopes = new ConcurrentHashMap<Class<?>, EntityMetrics>(4);
+            ConcurrentMap<Class<?>, EntityMetrics> quicker = metrics.putIfAbsent(entityClass, scopes);
+            if (quicker != null)
+                scopes = quicker;
+        }
+
+        EntityMetrics entity = scopes.get(scopeClass);
+        if (entity == null) {
+            entity = new EntityMetrics(entityClass, scopeClass);
+            EntityMetrics quicker = scopes.putIfAbsent(scopeClass, entity);
+            if (quicker != null)
+                entity = quicker;
+        }
+
+        if (cached) {
+            entity.cached.incrementAndGet();
+        } else {
+            entity.created.incrementAndGet();
+            entity.latency.record(nanos);
+        }
+    }
+
+    /**
+     * @return null if the entity wasn't produced in the scope
+     */
+    public EntityMetrics get(Class<?> entityClass, Class<?> scopeClass) {
+        ConcurrentMap<Class<?>, EntityMetrics> scopes = metrics.get(entityClass);
+        return scopes == null ? null : scopes.get(scopeClass);
+    }
+
+    /**
+     * @return metrics of the entity in all the scopes it was produced in
+     */
+    public List<EntityMetrics> get(Class<?> entityClass) {
+        ConcurrentMap<Class<?>, EntityMetrics> scopes = metrics.get(entityClass);
+        return scopes == null ? new ArrayList<EntityMetrics>() : new ArrayList<EntityMetrics>(scopes.values());
+    }
+
+    public List<EntityMetrics> getAll() {
+        List<EntityMetrics> result = new ArrayList<EntityMetrics>();
+        for (ConcurrentMap<Class<?>, EntityMetrics> scopes : metrics.values())
+            result.addAll(scopes.values());
+        return result;
+    }
+
+    public void reset() {
+        metrics.clear();
+    }
+
+    public static class EntityMetrics {
+        private final Class<?> entityClass;
+        private final Class<?> scopeClass;
+        private final AtomicLong created = new AtomicLong();
+        private final AtomicLong cached = new AtomicLong();
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        EntityMetrics(Class<?> entityClass, Class<?> scopeClass) {
+            this.entityClass = entityClass;
+            this.scopeClass = scopeClass;
+        }
+
+        public Class<?> getEntityClass() {
+            return entityClass;
+        }
+
+        public Class<?> getScopeClass() {
+            return scopeClass;
+        }
+
+        /**
+         * @return number of entities constructed
+         */
+        public long getCreatedCount() {
+            return created.get();
+        }
+
+        /**
+         * @return number of times a cached singleton was returned
+         */
+        public long getCachedCount() {
+            return cached.get();
+        }
+
+        /**
+         * @return construction latency, cached singletons aren't recorded
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public String toString() {
+            return "EntityMetrics{" +
+                    "entityClass=" + entityClass +
+                    ", scopeClass=" + scopeClass +
+                    ", created=" + created +
+                    ", cached=" + cached +
+                    ", latency=" + latency +
+                    '}';
+        }
+    }
+}
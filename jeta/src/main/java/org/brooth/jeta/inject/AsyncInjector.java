@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.inject;
+
+import org.brooth.jeta.Async;
+import org.brooth.jeta.Provider;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes construction of {@link Async} and {@code CompletableFuture} injected entities
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public final class AsyncInjector {
+
+    private static volatile Executor executor;
+
+    private AsyncInjector() {
+    }
+
+    /**
+     * used by metacode
+     */
+    public static Executor getExecutor() {
+        Executor result = executor;
+        return result == null ? DefaultExecutor.INSTANCE : result;
+    }
+
+    /**
+     * @param executor executor to construct entities on, null to reset to default daemon pool
+     */
+    public static void setExecutor(Executor executor) {
+        AsyncInjector.executor = executor;
+    }
+
+    /**
+     * used by metacode
+     */
+    public static <T> Async<T> submit(Provider<T> provider) {
+        AsyncTask<T> task = new AsyncTask<T>(provider);
+        getExecutor().execute(task);
+        return task;
+    }
+
+    private static class AsyncTask<T> extends FutureTask<T> implements Async<T> {
+
+        AsyncTask(final Provider<T> provider) {
+            super(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return provider.get();
+                }
+            });
+        }
+
+        @Override
+        public T join() {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new IllegalStateException("Failed to construct async entity", cause);
+
+            } finally {
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static class DefaultExecutor {
+        private static final Executor INSTANCE = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jeta-async-inject-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
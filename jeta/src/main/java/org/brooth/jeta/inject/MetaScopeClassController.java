@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.inject;
+
+import org.brooth.jeta.MasterClassController;
+import org.brooth.jeta.metasitory.Metasitory;
+
+/**
+ * Searches scope metacode once, then creates meta scopes without metasitory lookup.
+ * Useful for the scopes created frequently, e.g. per request.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class MetaScopeClassController<S> extends MasterClassController<S, MetaScopeMetacode<S>> {
+
+    private final MetaScopeMetacode<S> metacode;
+
+    public MetaScopeClassController(Metasitory metasitory, Class<? extends S> scopeClass) {
+        super(metasitory, scopeClass, Scope.class, false);
+        if (metacodes.isEmpty())
+            throw new IllegalArgumentException(masterClass + " is not a meta scope. Put @Scope annotation on it");
+        metacode = metacodes.iterator().next();
+    }
+
+    public MetaScope<S> get(S scope) {
+        return metacode.getMetaScope(scope);
+    }
+}
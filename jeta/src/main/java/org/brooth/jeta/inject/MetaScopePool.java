@@ -0,0 +1,104 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.inject;
+
+import org.brooth.jeta.metasitory.Metasitory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of {@link RecyclableMetaScope} of a scope class. Thread-safe.
+ * <p>
+ * A released meta scope is bound to the next acquired scope. {@code Provider}s, {@code Lazy}s and factories
+ * injected from it keep the meta scope, so after {@link #release(MetaScope)} they resolve the entities
+ * of the next lease, or of no scope while it's pooled. Nothing injected from a pooled meta scope may
+ * outlive its release, inject masters that live longer from a meta scope that isn't pooled.
+ * <pre>
+ * MetaScope&lt;RequestScope&gt; metaScope = pool.acquire(new RequestScope(request));
+ * try {
+ *     ...
+ * } finally {
+ *     pool.release(metaScope);
+ * }
+ * </pre>
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class MetaScopePool<S> {
+
+    private final MetaScopeClassController<S> controller;
+    private final int maxSize;
+
+    private final Queue<RecyclableMetaScope<S>> pool = new ConcurrentLinkedQueue<RecyclableMetaScope<S>>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public MetaScopePool(Metasitory metasitory, Class<? extends S> scopeClass, int maxSize) {
+        this(new MetaScopeClassController<S>(metasitory, scopeClass), maxSize);
+    }
+
+    public MetaScopePool(MetaScopeClassController<S> controller, int maxSize) {
+        if (maxSize <= 0)
+            throw new IllegalArgumentException("maxSize must be positive");
+        this.controller = controller;
+        this.maxSize = maxSize;
+    }
+
+    public MetaScope<S> acquire(S scope) {
+        RecyclableMetaScope<S> metaScope = pool.poll();
+        if (metaScope == null)
+            return controller.get(scope);
+
+        size.decrementAndGet();
+        metaScope.setPooled(false);
+        metaScope.recycle(scope);
+        return metaScope;
+    }
+
+    /**
+     * Unbinds the meta scope from its scope and entities and returns it to the pool
+     *
+     * @return false if the pool is full and the meta scope is left for GC
+     * @throws IllegalStateException if the meta scope is already released
+     */
+    public boolean release(MetaScope<S> metaScope) {
+        if (!(metaScope instanceof RecyclableMetaScope))
+            throw new IllegalArgumentException(metaScope.getClass() + " is not recyclable. Rebuild the metacode.");
+
+        RecyclableMetaScope<S> recyclable = (RecyclableMetaScope<S>) metaScope;
+        if (!recyclable.setPooled(true))
+            throw new IllegalStateException("Meta scope is already released");
+
+        while (true) {
+            int current = size.get();
+            if (current >= maxSize) {
+                recyclable.setPooled(false);
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1))
+                break;
+        }
+        recyclable.recycle(null);
+        pool.offer(recyclable);
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+}
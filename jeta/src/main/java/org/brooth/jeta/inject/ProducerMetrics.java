@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.inject;
+
+/**
+ * Receives creation metrics from meta producers. Generated only if 'inject.metrics' property is true
+ * or matches the entity class.
+ * Set the implementation via {@link ProducerMetricsHolder#set(ProducerMetrics)}.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface ProducerMetrics {
+
+    /**
+     * @param entityClass produced entity class
+     * @param scopeClass  scope the entity is produced in
+     * @param nanos       time spent in getInstance()
+     * @param cached      true if singleton entity was already created
+     */
+    void onInstance(Class<?> entityClass, Class<?> scopeClass, long nanos, boolean cached);
+}
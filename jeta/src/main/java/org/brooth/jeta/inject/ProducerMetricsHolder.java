@@ -0,0 +1,47 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.inject;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public final class ProducerMetricsHolder {
+
+    private static final ProducerMetrics NONE = new ProducerMetrics() {
+        public void onInstance(Class<?> entityClass, Class<?> scopeClass, long nanos, boolean cached) {
+        }
+    };
+
+    private static volatile ProducerMetrics metrics = NONE;
+
+    private ProducerMetricsHolder() {
+    }
+
+    /**
+     * used by metacode
+     */
+    public static ProducerMetrics get() {
+        return metrics;
+    }
+
+    /**
+     * @param metrics implementation to report to, null to disable
+     */
+    public static void set(ProducerMetrics metrics) {
+        ProducerMetricsHolder.metrics = metrics == null ? NONE : metrics;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.inject;
+
+/**
+ * Meta scope that can be bound to a new scope instance instead of being created again.
+ * All the producers are dropped, so scope singletons are created for the new scope.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public interface RecyclableMetaScope<S> extends MetaScope<S> {
+    void recycle(S scope);
+
+    /**
+     * Used by {@link MetaScopePool} to reject a meta scope released twice
+     *
+     * @return false if the meta scope is already in this state
+     */
+    boolean setPooled(boolean pooled);
+}
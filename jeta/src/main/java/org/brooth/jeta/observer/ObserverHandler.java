@@ -16,12 +16,10 @@
 
 package org.brooth.jeta.observer;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 /**
- * Not thread-safe
+ * Thread-safe. Records are grouped by event class, {@link #handlers} lists them in order of adding
  *
  * @author Oleg Khalidov (brooth@gmail.com)
  */
@@ -31,6 +29,7 @@ public class ObserverHandler {
         Class<?> row;
         Class<?> column;
         Observers.Handler<?> handler;
+        boolean removed;
 
         Record(Class<?> row, Class<?> column, Observers.Handler<?> handler) {
             this.row = row;
@@ -39,13 +38,20 @@ public class ObserverHandler {
         }
     }
 
-    protected final List<Record> handlers = new ArrayList<Record>();
+    // guarded by handlers
+    private final List<Record> records = new ArrayList<Record>();
+    private final Map<Class<?>, List<Record>> byEventClass = new HashMap<Class<?>, List<Record>>();
+
+    /**
+     * Read-only view of the records, synchronize on it to iterate
+     */
+    protected final List<Record> handlers = Collections.synchronizedList(Collections.unmodifiableList(records));
 
     /**
      * used by metacode
      */
     public void add(Class<?> observableClass, Class<?> eventClass, Observers.Handler<?> handler) {
-        handlers.add(new Record(observableClass, eventClass, handler));
+        add(new Record(observableClass, eventClass, handler));
     }
 
     /**
@@ -54,7 +60,24 @@ public class ObserverHandler {
      * @param other @ObserverHandler of another event/observable
      */
     public void add(ObserverHandler other) {
-        handlers.addAll(other.handlers);
+        List<Record> others;
+        synchronized (other.handlers) {
+            others = new ArrayList<Record>(other.records);
+        }
+        for (Record record : others)
+            add(record);
+    }
+
+    private void add(Record record) {
+        synchronized (handlers) {
+            List<Record> column = byEventClass.get(record.column);
+            if (column == null) {
+                column = new ArrayList<Record>(2);
+                byEventClass.put(record.column, column);
+            }
+            column.add(record);
+            records.add(record);
+        }
     }
 
     /**
@@ -65,18 +88,26 @@ public class ObserverHandler {
      * @return number of unregistered events
      */
     public int unregister(Class<?> eventClass, Class<?> observableClass) {
-        int result = 0;
-        Iterator<Record> records = handlers.iterator();
-        while (records.hasNext()) {
-            Record record = records.next();
-            if (record.row == observableClass && record.column == eventClass) {
-                if (record.handler.unregister())
-                    result++;
-                records.remove();
+        List<Record> removed = new ArrayList<Record>();
+        synchronized (handlers) {
+            List<Record> column = byEventClass.get(eventClass);
+            if (column == null)
+                return 0;
+
+            Iterator<Record> iterator = column.iterator();
+            while (iterator.hasNext()) {
+                Record record = iterator.next();
+                if (record.row == observableClass) {
+                    record.removed = true;
+                    removed.add(record);
+                    iterator.remove();
+                }
             }
+            if (column.isEmpty())
+                byEventClass.remove(eventClass);
+            compact();
         }
-
-        return result;
+        return unregister(removed);
     }
 
     /**
@@ -86,17 +117,16 @@ public class ObserverHandler {
      * @return number of unregistered events
      */
     public int unregister(Class<?> eventClass) {
-        int result = 0;
-        Iterator<Record> records = handlers.iterator();
-        while (records.hasNext()) {
-            Record record = records.next();
-            if (record.column == eventClass) {
-                if (record.handler.unregister())
-                    result++;
-                records.remove();
-            }
+        List<Record> removed;
+        synchronized (handlers) {
+            removed = byEventClass.remove(eventClass);
+            if (removed == null)
+                return 0;
+            for (Record record : removed)
+                record.removed = true;
+            compact();
         }
-        return result;
+        return unregister(removed);
     }
 
     /**
@@ -106,17 +136,26 @@ public class ObserverHandler {
      * @return number of unregistered events
      */
     public int unregisterAll(Class<?> observableClass) {
-        int result = 0;
-        Iterator<Record> records = handlers.iterator();
-        while (records.hasNext()) {
-            Record record = records.next();
-            if (record.row == observableClass) {
-                if (record.handler.unregister())
-                    result++;
-                records.remove();
+        List<Record> removed = new ArrayList<Record>();
+        synchronized (handlers) {
+            Iterator<List<Record>> columns = byEventClass.values().iterator();
+            while (columns.hasNext()) {
+                List<Record> column = columns.next();
+                Iterator<Record> iterator = column.iterator();
+                while (iterator.hasNext()) {
+                    Record record = iterator.next();
+                    if (record.row == observableClass) {
+                        record.removed = true;
+                        removed.add(record);
+                        iterator.remove();
+                    }
+                }
+                if (column.isEmpty())
+                    columns.remove();
             }
+            compact();
         }
-        return result;
+        return unregister(removed);
     }
 
     /**
@@ -125,12 +164,36 @@ public class ObserverHandler {
      * @return number of unregistered events
      */
     public int unregisterAll() {
+        List<Record> removed;
+        synchronized (handlers) {
+            removed = new ArrayList<Record>(records);
+            records.clear();
+            byEventClass.clear();
+        }
+        return unregister(removed);
+    }
+
+    /**
+     * Drops the removed records from the list in one pass, guarded by handlers
+     */
+    private void compact() {
+        int size = 0;
+        for (int i = 0; i < records.size(); i++) {
+            Record record = records.get(i);
+            if (!record.removed)
+                records.set(size++, record);
+        }
+        records.subList(size, records.size()).clear();
+    }
+
+    /**
+     * called out of the lock, observers may unregister concurrently
+     */
+    private static int unregister(List<Record> records) {
         int result = 0;
-        for (Record record : handlers)
+        for (Record record : records)
             if (record.handler.unregister())
                 result++;
-
-        handlers.clear();
         return result;
     }
 }
@@ -1,36 +1,64 @@
 /*
  * Copyright 2016 Oleg Khalidov
  *
- *  Licensed under the Apache License, Version 2.0 (the "License");
- *  you may not use this file except in compliance with the License.
- *  You may obtain a copy of the License at
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
  *
- *      http://www.apache.org/licenses/LICENSE-2.0
+ *     http://www.apache.org/licenses/LICENSE-2.0
  *
- *  Unless required by applicable law or agreed to in writing, software
- *  distributed under the License is distributed on an "AS IS" BASIS,
- *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- *  See the License for the specific language governing permissions and
- *  limitations under the License.
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
  */
 
 package org.brooth.jeta.observer;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
+ * Observers are kept in slots, removal of an observer by its handler is O(1) and leaves a tombstone.
+ * Tombstones are compacted in batch, once they take half of the slots.
+ *
  * @param <E>
  * @author Oleg Khalidov (brooth@gmail.com)
  */
 public class Observers<E> {
 
-    private final List<EventObserver<E>> observers = new CopyOnWriteArrayList<EventObserver<E>>();
+    private static final int MIN_CAPACITY = 8;
+
+    /**
+     * replaced on growth and compaction, unused slots are at the tail
+     */
+    private volatile AtomicReferenceArray<Slot<E>> slots = new AtomicReferenceArray<Slot<E>>(MIN_CAPACITY);
+    /**
+     * used slots including tombstones, guarded by this
+     */
+    private int size = 0;
+    /**
+     * tombstones, guarded by this
+     */
+    private int removed = 0;
 
     public int notify(E event) {
-        int result = observers.size();
-        for (EventObserver<E> observer : observers)
-            observer.onEvent(event);
+        AtomicReferenceArray<Slot<E>> slots = this.slots;
+        int result = 0;
+        for (int i = 0, length = slots.length(); i < length; i++) {
+            Slot<E> slot = slots.get(i);
+            if (slot == null)
+                break;
+
+            EventObserver<E> observer = slot.observer;
+            if (observer != null) {
+                observer.onEvent(event);
+                result++;
+            }
+        }
         return result;
     }
 
@@ -40,37 +68,134 @@ public class Observers<E> {
         return result;
     }
 
-    public void clear() {
-        observers.clear();
+    public synchronized void clear() {
+        AtomicReferenceArray<Slot<E>> slots = this.slots;
+        for (int i = 0; i < size; i++)
+            slots.get(i).observer = null;
+
+        this.slots = new AtomicReferenceArray<Slot<E>>(MIN_CAPACITY);
+        size = 0;
+        removed = 0;
     }
 
+    /**
+     * @return snapshot of the observers
+     */
     public List<EventObserver<E>> getAll() {
-        return observers;
+        AtomicReferenceArray<Slot<E>> slots = this.slots;
+        List<EventObserver<E>> result = new ArrayList<EventObserver<E>>(slots.length());
+        for (int i = 0, length = slots.length(); i < length; i++) {
+            Slot<E> slot = slots.get(i);
+            if (slot == null)
+                break;
+
+            EventObserver<E> observer = slot.observer;
+            if (observer != null)
+                result.add(observer);
+        }
+        return Collections.unmodifiableList(result);
     }
 
     protected void addAll(List<EventObserver<E>> list) {
-        observers.addAll(list);
+        for (EventObserver<E> observer : list)
+            register(observer);
+    }
+
+    public synchronized Handler<E> register(EventObserver<E> observer) {
+        if (size == slots.length())
+            rebuild();
+
+        Slot<E> slot = new Slot<E>(this, observer);
+        slots.set(size++, slot);
+        return createHandler(slot);
     }
 
-    public Handler<E> register(EventObserver<E> observer) {
-        observers.add(observer);
-        return new Handler<E>(observers, observer);
+    protected synchronized boolean unregister(EventObserver<E> observer) {
+        Slot<E> slot = null;
+        if (observer instanceof Slot && ((Slot<E>) observer).owner == this) {
+            slot = (Slot<E>) observer;
+
+        } else {
+            for (int i = 0; i < size; i++) {
+                Slot<E> s = slots.get(i);
+                if (s.observer != null && s.observer.equals(observer)) {
+                    slot = s;
+                    break;
+                }
+            }
+        }
+
+        if (slot == null || slot.observer == null)
+            return false;
+
+        slot.observer = null;
+        removed++;
+        if (removed >= MIN_CAPACITY && removed * 2 >= size)
+            rebuild();
+        return true;
+    }
+
+    /**
+     * For subclasses and owners that keep observers on their own
+     */
+    public Handler<E> createHandler(EventObserver<E> observer) {
+        return new Handler<E>(this, observer);
+    }
+
+    /**
+     * drops tombstones, doubles capacity if the live slots take more than half of it
+     */
+    private void rebuild() {
+        AtomicReferenceArray<Slot<E>> slots = this.slots;
+        int live = size - removed;
+        int capacity = Math.max(MIN_CAPACITY, live * 2);
+        AtomicReferenceArray<Slot<E>> result = new AtomicReferenceArray<Slot<E>>(capacity);
+        int index = 0;
+        for (int i = 0; i < size; i++) {
+            Slot<E> slot = slots.get(i);
+            if (slot.observer != null)
+                result.lazySet(index++, slot);
+        }
+
+        size = index;
+        removed = 0;
+        // volatile write publishes the slots
+        this.slots = result;
+    }
+
+    /**
+     * Observer's position in the list. Tombstone once the observer is null
+     */
+    private static final class Slot<E> implements EventObserver<E> {
+        private final Observers<E> owner;
+        private volatile EventObserver<E> observer;
+
+        private Slot(Observers<E> owner, EventObserver<E> observer) {
+            this.owner = owner;
+            this.observer = observer;
+        }
+
+        public void onEvent(E event) {
+            EventObserver<E> o = observer;
+            if (o != null)
+                o.onEvent(event);
+        }
     }
 
     /**
      * @param <E> event type
      */
     public static final class Handler<E> {
-        private List<EventObserver<E>> observers;
+        private Observers<E> observers;
         private EventObserver<E> observer;
 
-        private Handler(List<EventObserver<E>> observers, EventObserver<E> observer) {
+        private Handler(Observers<E> observers, EventObserver<E> observer) {
             this.observers = observers;
             this.observer = observer;
         }
 
         public boolean unregister() {
-            return observers.remove(observer);
+            return observers.unregister(observer);
         }
     }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Lock-free map of weakly referenced keys compared by identity. An entry is removed
+ * on a following write once its key is garbage collected.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class ConcurrentWeakIdentityMap<K, V> {
+
+    private final ConcurrentHashMap<Object, V> map = new ConcurrentHashMap<Object, V>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+    /**
+     * @return null if there's no value for the key
+     */
+    public V get(K key) {
+        return map.get(new LookupKey(key));
+    }
+
+    /**
+     * @return the present value or null if the value is put
+     */
+    public V putIfAbsent(K key, V value) {
+        expunge();
+        return map.putIfAbsent(new WeakKey<K>(key, queue), value);
+    }
+
+    public V remove(K key) {
+        expunge();
+        return map.remove(new LookupKey(key));
+    }
+
+    public boolean isEmpty() {
+        expunge();
+        return map.isEmpty();
+    }
+
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    private void expunge() {
+        Object key;
+        while ((key = queue.poll()) != null)
+            map.remove(key);
+    }
+
+    private static final class WeakKey<K> extends WeakReference<K> {
+        private final int hash;
+
+        private WeakKey(K key, ReferenceQueue<K> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this)
+                return true;
+            if (o instanceof LookupKey)
+                return ((LookupKey) o).key == get();
+            // a collected key equals itself only, so it can be expunged
+            if (o instanceof WeakKey) {
+                Object key = get();
+                return key != null && key == ((WeakKey<?>) o).get();
+            }
+            return false;
+        }
+    }
+
+    private static final class LookupKey {
+        private final Object key;
+
+        private LookupKey(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof WeakKey && ((WeakKey<?>) o).get() == key;
+        }
+    }
+}
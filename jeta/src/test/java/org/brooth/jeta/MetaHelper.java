@@ -20,12 +20,18 @@ package org.brooth.jeta;
 import org.brooth.jeta.collector.ObjectCollectorController;
 import org.brooth.jeta.collector.TypeCollectorController;
 import org.brooth.jeta.eventbus.BaseEventBus;
+import org.brooth.jeta.eventbus.CodecController;
+import org.brooth.jeta.eventbus.CodecMetacode;
 import org.brooth.jeta.eventbus.EventBus;
+import org.brooth.jeta.eventbus.ExtendedEventBus;
+import org.brooth.jeta.eventbus.Message;
+import org.brooth.jeta.eventbus.MessageCodecRegistry;
 import org.brooth.jeta.eventbus.SubscriberController;
 import org.brooth.jeta.eventbus.SubscriptionHandler;
 import org.brooth.jeta.inject.InjectController;
 import org.brooth.jeta.inject.MetaScope;
 import org.brooth.jeta.inject.MetaScopeController;
+import org.brooth.jeta.inject.MetaScopePool;
 import org.brooth.jeta.inject.StaticInjectController;
 import org.brooth.jeta.log.LogController;
 import org.brooth.jeta.log.NamedLoggerProvider;
@@ -103,7 +109,7 @@ public class MetaHelper {
         return new ImplementationController<I>(getInstance().metasitory, of);
     }
 
-    public static EventBus getEventBus() {
+    public static ExtendedEventBus getEventBus() {
         return getInstance().bus;
     }
 
@@ -111,6 +117,18 @@ public class MetaHelper {
         return new SubscriberController<Object>(getInstance().metasitory, master).registerSubscriber(getEventBus());
     }
 
+    public static SubscriptionHandler registerSubscriber(EventBus bus, Object master) {
+        return new SubscriberController<Object>(getInstance().metasitory, master).registerSubscriber(bus);
+    }
+
+    public static <M> CodecMetacode<M> getCodec(Class<M> masterClass) {
+        return new CodecController<M>(getInstance().metasitory, masterClass).getMetacode();
+    }
+
+    public static <E extends Message> MessageCodecRegistry registerCodec(MessageCodecRegistry codecs, Class<E> messageClass) {
+        return codecs.register(getInstance().metasitory, messageClass);
+    }
+
     public static void createObservable(Object master) {
         new ObservableController<Object>(getInstance().metasitory, master).createObservable();
     }
@@ -158,4 +176,8 @@ public class MetaHelper {
     public static <S> MetaScope<S> getMetaScope(S scope) {
         return new MetaScopeController<S>(getInstance().metasitory, scope).get();
     }
+
+    public static <S> MetaScopePool<S> createMetaScopePool(Class<S> scopeClass, int maxSize) {
+        return new MetaScopePool<S>(getInstance().metasitory, scopeClass, maxSize);
+    }
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.tests.eventbus;
+
+import org.brooth.jeta.BaseTest;
+import org.brooth.jeta.Logger;
+import org.brooth.jeta.MetaHelper;
+import org.brooth.jeta.eventbus.AsyncEventBus;
+import org.brooth.jeta.eventbus.Conflation;
+import org.brooth.jeta.eventbus.ConflationKey;
+import org.brooth.jeta.eventbus.EventBusMetrics;
+import org.brooth.jeta.eventbus.MailboxMetrics;
+import org.brooth.jeta.eventbus.Message;
+import org.brooth.jeta.eventbus.OverflowPolicy;
+import org.brooth.jeta.eventbus.Subscribe;
+import org.brooth.jeta.eventbus.SubscriptionHandler;
+import org.brooth.jeta.log.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class AsyncEventBusTest extends BaseTest {
+
+    @Log
+    Logger logger;
+
+    private ExecutorService executor;
+    private AsyncEventBus bus;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+        bus = new AsyncEventBus(executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    public static class OrderSubscribeHolder {
+        final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile Thread thread;
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            thread = Thread.currentThread();
+            ids.add(message.id());
+        }
+    }
+
+    @Test
+    public void testFifoDelivery() throws Exception {
+        logger.debug("testFifoDelivery()");
+
+        OrderSubscribeHolder subscriber1 = new OrderSubscribeHolder();
+        OrderSubscribeHolder subscriber2 = new OrderSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber1);
+        handler.add(MetaHelper.registerSubscriber(bus, subscriber2));
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 999; i++) {
+            bus.publish(new MessageOne(i, null));
+            expected.add(i);
+        }
+        expected.add(999);
+        assertThat(bus.publishAsync(new MessageOne(999, null)).get(5, TimeUnit.SECONDS), is(2));
+
+        assertThat(subscriber1.ids, equalTo(expected));
+        assertThat(subscriber2.ids, equalTo(expected));
+        assertThat(subscriber1.thread, not(Thread.currentThread()));
+        handler.unregisterAll();
+    }
+
+    public static class SlowSubscribeHolder {
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile int invokes = 0;
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            invokes++;
+        }
+    }
+
+    @Test
+    public void testSlowSubscriber() throws Exception {
+        logger.debug("testSlowSubscriber()");
+
+        SlowSubscribeHolder slow = new SlowSubscribeHolder();
+        OrderSubscribeHolder fast = new OrderSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, slow);
+        handler.add(MetaHelper.registerSubscriber(bus, fast));
+
+        Future<Integer> future = bus.publishAsync(new MessageOne(1, null));
+        bus.publish(new MessageOne(2, null));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fast.ids.size() < 2 && System.currentTimeMillis() < deadline)
+            sleepQuietly(10);
+
+        assertThat(fast.ids, contains(1, 2));
+        assertThat(future.isDone(), is(false));
+
+        slow.release.countDown();
+        assertThat(future.get(5, TimeUnit.SECONDS), is(2));
+        assertThat(slow.invokes, greaterThanOrEqualTo(1));
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testRejectedExecution() throws Exception {
+        logger.debug("testRejectedExecution()");
+
+        OrderSubscribeHolder subscriber = new OrderSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+        executor.shutdown();
+
+        bus.publish(new MessageOne(1, null));
+        assertThat(bus.publishAsync(new MessageOne(2, null)).get(5, TimeUnit.SECONDS), is(1));
+        assertThat(subscriber.ids, contains(1, 2));
+        assertThat(subscriber.thread, is(Thread.currentThread()));
+        assertThat(bus.getMailboxMetrics().get(0).getDepth(), is(0));
+        handler.unregisterAll();
+    }
+
+    private static class CountingMetrics implements EventBusMetrics {
+        final AtomicInteger published = new AtomicInteger();
+        final AtomicInteger delivered = new AtomicInteger();
+
+        public void onPublish(Class<?> eventClass, int fanOut) {
+            published.addAndGet(fanOut);
+        }
+
+        public DeliveryRecorder subscriber(Class<?> masterClass, String methodName, Class<?> eventClass) {
+            return new DeliveryRecorder() {
+                public void onDelivery(long nanos) {
+                    delivered.incrementAndGet();
+                }
+            };
+        }
+    }
+
+    @Test
+    public void testPublishAsyncMetrics() throws Exception {
+        logger.debug("testPublishAsyncMetrics()");
+
+        CountingMetrics metrics = new CountingMetrics();
+        bus.setMetrics(metrics);
+        OrderSubscribeHolder subscriber = new OrderSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        assertThat(bus.publishAsync(new MessageOne(1, null)).get(5, TimeUnit.SECONDS), is(1));
+        assertThat(metrics.published.get(), is(1));
+        assertThat(metrics.delivered.get(), is(1));
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testNoSubscribers() throws Exception {
+        logger.debug("testNoSubscribers()");
+        assertThat(bus.publishAsync(new MessageTwo(1, null)).get(), is(0));
+    }
+
+    private static class ManualExecutor implements Executor {
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null)
+                task.run();
+        }
+    }
+
+    public static class BoundedSubscribeHolder {
+        final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Subscribe(capacity = 1, overflow = OverflowPolicy.DROP_OLDEST)
+        void onMessageOne(MessageOne message) {
+            ids.add(message.id());
+        }
+    }
+
+    @Test
+    public void testDropPolicies() throws Exception {
+        logger.debug("testDropPolicies()");
+
+        ManualExecutor manual = new ManualExecutor();
+        AsyncEventBus bounded = new AsyncEventBus(manual, 2, OverflowPolicy.DROP_NEWEST);
+        OrderSubscribeHolder newest = new OrderSubscribeHolder();
+        BoundedSubscribeHolder oldest = new BoundedSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bounded, newest);
+        handler.add(MetaHelper.registerSubscriber(bounded, oldest));
+
+        for (int i = 1; i <= 4; i++)
+            bounded.publish(new MessageOne(i, null));
+        Future<Integer> future = bounded.publishAsync(new MessageOne(5, null));
+        assertThat(future.isDone(), is(false));
+
+        for (MailboxMetrics metrics : bounded.getMailboxMetrics()) {
+            assertThat(metrics.getEventClass(), equalTo((Object) MessageOne.class));
+            if (metrics.getOverflowPolicy() == OverflowPolicy.DROP_NEWEST) {
+                assertThat(metrics.getCapacity(), is(2));
+                assertThat(metrics.getDepth(), is(2));
+                assertThat(metrics.getDroppedCount(), is(3L));
+            } else {
+                assertThat(metrics.getCapacity(), is(1));
+                assertThat(metrics.getDepth(), is(1));
+                assertThat(metrics.getDroppedCount(), is(4L));
+            }
+        }
+
+        manual.runAll();
+        assertThat(future.get(5, TimeUnit.SECONDS), is(2));
+        assertThat(newest.ids, contains(1, 2));
+        assertThat(oldest.ids, contains(5));
+        handler.unregisterAll();
+    }
+
+    public static class ParityKey implements ConflationKey {
+        public Object keyOf(Message event) {
+            return event.id() % 2;
+        }
+    }
+
+    public static class ConflateSubscribeHolder {
+        final List<String> topics = Collections.synchronizedList(new ArrayList<String>());
+        final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Subscribe(conflate = Conflation.TOPIC)
+        void onMessageOne(MessageOne message) {
+            topics.add(message.topic() + ":" + message.id());
+        }
+
+        @Subscribe(conflationKey = ParityKey.class)
+        void onMessageTwo(MessageTwo message) {
+            ids.add(message.id());
+        }
+    }
+
+    @Test
+    public void testConflation() throws Exception {
+        logger.debug("testConflation()");
+
+        ManualExecutor manual = new ManualExecutor();
+        AsyncEventBus conflating = new AsyncEventBus(manual, 4, OverflowPolicy.FAIL);
+        ConflateSubscribeHolder subscriber = new ConflateSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(conflating, subscriber);
+
+        Future<Integer> replaced = conflating.publishAsync(new MessageOne(1, "a"));
+        conflating.publish(new MessageOne(2, "b"));
+        conflating.publish(new MessageOne(3, "a"));
+        conflating.publish(new MessageOne(4, null));
+        conflating.publish(new MessageOne(5, null));
+        conflating.publish(new MessageOne(6, "b"));
+        for (int i = 1; i <= 6; i++)
+            conflating.publish(new MessageTwo(i, null));
+        assertThat(replaced.get(5, TimeUnit.SECONDS), is(1));
+
+        for (MailboxMetrics metrics : conflating.getMailboxMetrics()) {
+            if (metrics.getEventClass() == MessageOne.class) {
+                assertThat(metrics.getDepth(), is(4));
+                assertThat(metrics.getConflatedCount(), is(2L));
+            } else {
+                assertThat(metrics.getDepth(), is(2));
+                assertThat(metrics.getConflatedCount(), is(4L));
+            }
+        }
+
+        manual.runAll();
+        assertThat(subscriber.topics, contains("a:3", "b:6", "null:4", "null:5"));
+        assertThat(subscriber.ids, contains(5, 6));
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testFailPolicy() throws Exception {
+        logger.debug("testFailPolicy()");
+
+        ManualExecutor manual = new ManualExecutor();
+        AsyncEventBus bounded = new AsyncEventBus(manual, 1, OverflowPolicy.FAIL);
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bounded, new OrderSubscribeHolder());
+
+        bounded.publish(new MessageOne(1, null));
+        try {
+            bounded.publish(new MessageOne(2, null));
+            fail("RejectedExecutionException expected");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        try {
+            bounded.publishAsync(new MessageOne(3, null)).get(5, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(RejectedExecutionException.class));
+        }
+        assertThat(bounded.getMailboxMetrics().get(0).getRejectedCount(), is(2L));
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testBlockPolicy() throws Exception {
+        logger.debug("testBlockPolicy()");
+
+        ManualExecutor manual = new ManualExecutor();
+        final AsyncEventBus bounded = new AsyncEventBus(manual, 1, OverflowPolicy.BLOCK);
+        OrderSubscribeHolder subscriber = new OrderSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bounded, subscriber);
+
+        bounded.publish(new MessageOne(1, null));
+        Thread publisher = new Thread() {
+            public void run() {
+                bounded.publish(new MessageOne(2, null));
+            }
+        };
+        publisher.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (publisher.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline)
+            sleepQuietly(10);
+        assertThat(publisher.isAlive(), is(true));
+
+        manual.runAll();
+        publisher.join(5000);
+        manual.runAll();
+        assertThat(subscriber.ids, contains(1, 2));
+        assertThat(bounded.getMailboxMetrics().get(0).getEnqueueWait().getCount(), is(1L));
+        handler.unregisterAll();
+    }
+}
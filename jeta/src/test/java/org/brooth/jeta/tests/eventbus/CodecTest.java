@@ -0,0 +1,179 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.tests.eventbus;
+
+import org.brooth.jeta.BaseTest;
+import org.brooth.jeta.Logger;
+import org.brooth.jeta.MetaHelper;
+import org.brooth.jeta.eventbus.BaseMessage;
+import org.brooth.jeta.eventbus.Codec;
+import org.brooth.jeta.eventbus.CodecMetacode;
+import org.brooth.jeta.eventbus.MessageCodecRegistry;
+import org.brooth.jeta.eventbus.MessageCodecs;
+import org.brooth.jeta.eventbus.PooledMessage;
+import org.brooth.jeta.log.Log;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class CodecTest extends BaseTest {
+
+    @Log
+    Logger logger;
+
+    public enum Side {
+        BUY, SELL
+    }
+
+    @Codec
+    public static class Quote {
+        double price;
+        long size;
+        Quote next;
+    }
+
+    @Codec(typeId = 42)
+    public static class TradeMessage extends BaseMessage {
+        boolean urgent;
+        byte venue;
+        short lot;
+        char flag;
+        int count;
+        long timestamp;
+        float ratio;
+        String symbol;
+        Side side;
+        Side lastSide;
+        Quote quote;
+        transient String cached;
+
+        public TradeMessage(int id, String topic) {
+            super(id, topic);
+        }
+    }
+
+    @Codec
+    public static class PooledTradeMessage extends PooledMessage {
+        long timestamp;
+        Side side;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        logger.debug("testRoundTrip()");
+
+        TradeMessage message = new TradeMessage(7, "trades");
+        message.urgent = true;
+        message.venue = 3;
+        message.lot = 100;
+        message.flag = 'x';
+        message.count = -5;
+        message.timestamp = 1234567890123L;
+        message.ratio = 0.5f;
+        message.symbol = "JETA";
+        message.side = Side.SELL;
+        message.quote = new Quote();
+        message.quote.price = 10.25;
+        message.quote.size = 300;
+        message.quote.next = new Quote();
+        message.quote.next.price = 10.5;
+        message.cached = "cached";
+
+        CodecMetacode<TradeMessage> codec = MetaHelper.getCodec(TradeMessage.class);
+        assertThat(codec.getTypeId(), is(42));
+
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        codec.encode(message, buffer);
+        buffer.flip();
+        TradeMessage decoded = codec.decode(buffer);
+        assertThat(buffer.remaining(), is(0));
+
+        assertThat(decoded.id(), is(7));
+        assertThat(decoded.topic(), is("trades"));
+        assertThat(decoded.urgent, is(true));
+        assertThat(decoded.venue, is((byte) 3));
+        assertThat(decoded.lot, is((short) 100));
+        assertThat(decoded.flag, is('x'));
+        assertThat(decoded.count, is(-5));
+        assertThat(decoded.timestamp, is(1234567890123L));
+        assertThat(decoded.ratio, is(0.5f));
+        assertThat(decoded.symbol, is("JETA"));
+        assertThat(decoded.side, is(Side.SELL));
+        assertThat(decoded.lastSide, nullValue());
+        assertThat(decoded.quote.price, is(10.25));
+        assertThat(decoded.quote.size, is(300L));
+        assertThat(decoded.quote.next.price, is(10.5));
+        assertThat(decoded.quote.next.next, nullValue());
+        assertThat(decoded.cached, nullValue());
+    }
+
+    @Test
+    public void testEnumByName() {
+        logger.debug("testEnumByName()");
+
+        PooledTradeMessage message = new PooledTradeMessage();
+        message.timestamp = 1;
+        message.side = Side.BUY;
+
+        CodecMetacode<PooledTradeMessage> codec = MetaHelper.getCodec(PooledTradeMessage.class);
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        codec.encode(message, buffer);
+        buffer.flip();
+
+        // id, topic, timestamp, side
+        buffer.getInt();
+        MessageCodecs.getString(buffer);
+        buffer.getLong();
+        assertThat(MessageCodecs.getString(buffer), is("BUY"));
+        assertThat(buffer.remaining(), is(0));
+    }
+
+    @Test
+    public void testRegistry() {
+        logger.debug("testRegistry()");
+
+        MessageCodecRegistry codecs = new MessageCodecRegistry();
+        MetaHelper.registerCodec(codecs, TradeMessage.class);
+        MetaHelper.registerCodec(codecs, PooledTradeMessage.class);
+
+        assertThat(codecs.get(42).getMessageClass(), equalTo((Object) TradeMessage.class));
+        MessageCodecRegistry.Entry<PooledTradeMessage> entry = codecs.get(PooledTradeMessage.class);
+        assertThat(entry.getTypeId(), is(PooledTradeMessage.class.getName().hashCode()));
+
+        PooledTradeMessage message = new PooledTradeMessage();
+        message.setId(3);
+        message.setTopic("pooled");
+        message.timestamp = 99;
+        message.side = Side.BUY;
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+        entry.getCodec().encode(message, buffer);
+        buffer.flip();
+        PooledTradeMessage decoded = entry.getCodec().decode(buffer);
+        assertThat(decoded.id(), is(3));
+        assertThat(decoded.topic(), is("pooled"));
+        assertThat(decoded.timestamp, is(99L));
+        assertThat(decoded.side, is(Side.BUY));
+        assertThat(decoded.refCount(), is(1));
+    }
+}
@@ -22,11 +22,30 @@ import org.brooth.jeta.Logger;
 import org.brooth.jeta.MetaHelper;
 import org.brooth.jeta.eventbus.*;
 import org.brooth.jeta.log.Log;
+import org.brooth.jeta.observer.EventObserver;
+import org.brooth.jeta.observer.Observers;
 import org.hamcrest.MatcherAssert;
+import org.junit.Assume;
 import org.junit.Test;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
 
 /**
  * @author Oleg Khalidov (brooth@gmail.com)
@@ -421,4 +440,695 @@ public class EventBusTest extends BaseTest {
 
         handler.unregisterAll();
     }
+
+    public static class HierarchySubscribeHolder {
+        final List<String> invokes = new ArrayList<String>();
+
+        @Subscribe(priority = 10)
+        void onMessage(Message message) {
+            invokes.add("message");
+        }
+
+        @Subscribe
+        void onBaseMessage(BaseMessage message) {
+            invokes.add("base");
+        }
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            invokes.add("one");
+        }
+    }
+
+    @Test
+    public void testHierarchicalDispatch() {
+        logger.debug("testHierarchicalDispatch()");
+
+        EventBus bus = new BaseEventBus(true);
+        HierarchySubscribeHolder subscriber = new HierarchySubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        bus.publish(new MessageOne(1, "one"));
+        assertThat(subscriber.invokes, contains("message", "one", "base"));
+
+        subscriber.invokes.clear();
+        bus.publish(new MessageTwo(2, "two"));
+        assertThat(subscriber.invokes, contains("message", "base"));
+
+        subscriber.invokes.clear();
+        handler.unregister(BaseMessage.class);
+        bus.publish(new MessageOne(3, "three"));
+        assertThat(subscriber.invokes, contains("message", "one"));
+
+        subscriber.invokes.clear();
+        handler.unregisterAll();
+        bus.publish(new MessageOne(4, "four"));
+        assertThat(subscriber.invokes, empty());
+
+        handler = MetaHelper.registerSubscriber(subscriber);
+        MetaHelper.getEventBus().publish(new MessageOne(5, "five"));
+        assertThat(subscriber.invokes, contains("one"));
+        handler.unregisterAll();
+    }
+
+    private static class DispatchCacheBus extends BaseEventBus {
+        DispatchCacheBus() {
+            super(true);
+        }
+
+        Object dispatchOf(Class<?> eventClass) {
+            return getDispatch(eventClass);
+        }
+    }
+
+    @Test
+    public void testDispatchCacheInvalidation() {
+        logger.debug("testDispatchCacheInvalidation()");
+
+        DispatchCacheBus bus = new DispatchCacheBus();
+        HierarchySubscribeHolder subscriber = new HierarchySubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+        EventObserver<MessageTwo> two = new EventObserver<MessageTwo>() {
+            public void onEvent(MessageTwo event) {
+            }
+        };
+        bus.register(MessageTwo.class, two, 0).unregister();
+
+        Object dispatch = bus.dispatchOf(MessageOne.class);
+        assertThat(bus.dispatchOf(MessageOne.class), sameInstance(dispatch));
+
+        // churn of an unrelated class keeps the entry
+        for (int i = 0; i < 10; i++)
+            bus.register(MessageTwo.class, two, 0).unregister();
+        assertThat(bus.dispatchOf(MessageOne.class), sameInstance(dispatch));
+
+        // a change of a class in the hierarchy drops it
+        Observers.Handler<BaseMessage> base = bus.register(BaseMessage.class, new EventObserver<BaseMessage>() {
+            public void onEvent(BaseMessage event) {
+            }
+        }, 0);
+        Object rebuilt = bus.dispatchOf(MessageOne.class);
+        assertThat(rebuilt, not(sameInstance(dispatch)));
+        assertThat(bus.dispatchOf(MessageOne.class), sameInstance(rebuilt));
+
+        base.unregister();
+        handler.unregisterAll();
+    }
+
+    public static class BatchSubscribeHolder {
+        final List<Integer> batchSizes = new ArrayList<Integer>();
+        final List<Integer> ids = new ArrayList<Integer>();
+        int onMessageTwoInvokes = 0;
+
+        @Subscribe
+        void onMessagesOne(List<MessageOne> messages) {
+            batchSizes.add(messages.size());
+            for (MessageOne message : messages)
+                ids.add(message.id());
+        }
+
+        @Subscribe
+        void onMessageTwo(MessageTwo message) {
+            onMessageTwoInvokes++;
+        }
+    }
+
+    @Test
+    public void testPublishAll() {
+        logger.debug("testPublishAll()");
+
+        BatchSubscribeHolder subscriber = new BatchSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(subscriber);
+
+        MetaHelper.getEventBus().publishAll(new Message[]{new MessageOne(1, null), new MessageOne(2, null),
+                new MessageOne(3, null), new MessageTwo(4, null), new MessageTwo(5, null), new MessageOne(6, null)});
+        assertThat(subscriber.batchSizes, contains(3, 1));
+        assertThat(subscriber.ids, contains(1, 2, 3, 6));
+        assertThat(subscriber.onMessageTwoInvokes, is(2));
+
+        MetaHelper.getEventBus().publishAll(Arrays.asList(new MessageTwo(7, null), new MessageTwo(8, null)));
+        assertThat(subscriber.onMessageTwoInvokes, is(4));
+
+        MetaHelper.getEventBus().publish(new MessageOne(9, null));
+        assertThat(subscriber.batchSizes, contains(3, 1, 1));
+        assertThat(subscriber.ids, contains(1, 2, 3, 6, 9));
+
+        handler.unregisterAll();
+    }
+
+    public static class RoutedSubscribeHolder {
+        final List<String> invokes = new ArrayList<String>();
+
+        @Subscribe(priority = 1)
+        void onMessageOne(MessageOne message) {
+            invokes.add("all:" + message.id());
+        }
+
+        @Subscribe(id = {1, 300}, priority = 2)
+        void onMessageOneIds(MessageOne message) {
+            invokes.add("ids:" + message.id());
+        }
+
+        @Subscribe(topic = "one")
+        void onMessageOneTopic(MessageOne message) {
+            invokes.add("topic:" + message.id());
+        }
+
+        @Subscribe(id = 300, topic = "three", priority = 3)
+        void onMessageOneIdAndTopic(MessageOne message) {
+            invokes.add("both:" + message.id());
+        }
+    }
+
+    @Test
+    public void testRouting() {
+        logger.debug("testRouting()");
+
+        RoutedSubscribeHolder subscriber = new RoutedSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(subscriber);
+
+        MetaHelper.getEventBus().publish(new MessageOne(1, "one"));
+        assertThat(subscriber.invokes, contains("ids:1", "all:1", "topic:1"));
+
+        subscriber.invokes.clear();
+        MetaHelper.getEventBus().publish(new MessageOne(300, "three"));
+        assertThat(subscriber.invokes, contains("both:300", "ids:300", "all:300"));
+
+        subscriber.invokes.clear();
+        MetaHelper.getEventBus().publish(new MessageOne(300, null));
+        assertThat(subscriber.invokes, contains("ids:300", "all:300"));
+
+        subscriber.invokes.clear();
+        MetaHelper.getEventBus().publishAll(Arrays.asList(new MessageOne(2, "one"), new MessageOne(3, "two")));
+        assertThat(subscriber.invokes, contains("all:2", "all:3", "topic:2"));
+
+        subscriber.invokes.clear();
+        handler.unregister(MessageOne.class);
+        MetaHelper.getEventBus().publish(new MessageOne(1, "one"));
+        assertThat(subscriber.invokes, empty());
+
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testRegisterWhilePublishing() throws InterruptedException {
+        logger.debug("testRegisterWhilePublishing()");
+
+        final BaseEventBus bus = new BaseEventBus();
+        final AtomicInteger invokes = new AtomicInteger();
+        bus.register(MessageOne.class, new EventObserver<MessageOne>() {
+            public void onEvent(MessageOne event) {
+                invokes.incrementAndGet();
+            }
+        }, 0);
+
+        final AtomicInteger missed = new AtomicInteger();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread publisher = new Thread() {
+            public void run() {
+                while (!done.get()) {
+                    int before = invokes.get();
+                    bus.publish(new MessageOne(1, null));
+                    if (invokes.get() == before)
+                        missed.incrementAndGet();
+                }
+            }
+        };
+        publisher.start();
+
+        List<Observers.Handler<MessageOne>> handlers = new ArrayList<Observers.Handler<MessageOne>>();
+        for (int i = 0; i < 1000; i++) {
+            handlers.add(bus.register(MessageOne.class, new EventObserver<MessageOne>() {
+                public void onEvent(MessageOne event) {
+                }
+            }, i % 3));
+            if (i % 2 == 0)
+                handlers.remove(0).unregister();
+        }
+        done.set(true);
+        publisher.join();
+
+        assertThat(missed.get(), is(0));
+    }
+
+    public static class WeakSubscribeHolder {
+        static final AtomicInteger invokes = new AtomicInteger();
+
+        @Subscribe(weak = true)
+        void onMessageOne(MessageOne message) {
+            invokes.incrementAndGet();
+        }
+
+        @Subscribe(weak = true, id = 1)
+        void onMessagesTwo(List<MessageTwo> messages) {
+            invokes.addAndGet(messages.size());
+        }
+    }
+
+    @Test
+    public void testWeakSubscribers() throws InterruptedException {
+        logger.debug("testWeakSubscribers()");
+
+        BaseEventBus bus = new BaseEventBus();
+        WeakSubscribeHolder subscriber = new WeakSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        bus.publish(new MessageOne(1, null));
+        bus.publishAll(Arrays.asList(new MessageTwo(1, null), new MessageTwo(2, null)));
+        assertThat(WeakSubscribeHolder.invokes.get(), is(2));
+
+        WeakReference<WeakSubscribeHolder> reference = new WeakReference<WeakSubscribeHolder>(subscriber);
+        subscriber = null;
+        for (int i = 0; i < 100 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertThat(reference.get(), nullValue());
+
+        // purged lazily on publish
+        bus.publish(new MessageOne(2, null));
+        assertThat(WeakSubscribeHolder.invokes.get(), is(2));
+        assertThat(bus.getPurgedCount(), is(1L));
+
+        assertThat(bus.purge(), is(1));
+        assertThat(bus.getPurgedCount(), is(2L));
+        assertThat(handler.unregisterAll(), is(0));
+    }
+
+    public static class StickySubscribeHolder {
+        final List<String> invokes = new ArrayList<String>();
+
+        @Subscribe(sticky = true)
+        void onMessageOne(MessageOne message) {
+            invokes.add("sticky:" + message.id());
+        }
+
+        @Subscribe(sticky = true, id = {1, 3})
+        void onMessageOneIds(MessageOne message) {
+            invokes.add("ids:" + message.id());
+        }
+
+        @Subscribe
+        void onMessageTwo(MessageTwo message) {
+            invokes.add("two:" + message.id());
+        }
+    }
+
+    @Test
+    public void testStickyEvents() {
+        logger.debug("testStickyEvents()");
+
+        ExtendedEventBus bus = new BaseEventBus();
+        bus.publishSticky(new MessageOne(1, null));
+        bus.publishSticky(new MessageOne(2, null));
+        bus.publishSticky(new MessageTwo(3, null));
+        assertThat(bus.getStickyEvent(MessageOne.class).id(), is(2));
+
+        StickySubscribeHolder subscriber = new StickySubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+        assertThat(subscriber.invokes, containsInAnyOrder("sticky:2", "ids:1"));
+
+        subscriber.invokes.clear();
+        bus.publishSticky(new MessageOne(3, null));
+        assertThat(subscriber.invokes, containsInAnyOrder("sticky:3", "ids:3"));
+
+        handler.unregisterAll();
+        assertThat(bus.removeStickyEvent(MessageOne.class).id(), is(3));
+        assertThat(bus.getStickyEvent(MessageOne.class), nullValue());
+
+        subscriber.invokes.clear();
+        MetaHelper.registerSubscriber(bus, subscriber).unregisterAll();
+        assertThat(subscriber.invokes, empty());
+    }
+
+    public static class MetricsSubscribeHolder {
+        @Subscribe(priority = 1)
+        void onMessageOneSlow(MessageOne message) {
+            try {
+                Thread.sleep(3);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Subscribe(id = 1)
+        void onMessageOneFast(MessageOne message) {
+        }
+
+        @Subscribe
+        void onMessageOneFast(MessageTwo message) {
+        }
+    }
+
+    public static class PlainSubscribeHolder {
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+        }
+
+        @Subscribe
+        void onMessageTwo(MessageTwo message) {
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        logger.debug("testMetrics()");
+
+        BaseEventBus bus = new BaseEventBus();
+        AggregatingEventBusMetrics metrics = new AggregatingEventBusMetrics(2, TimeUnit.MILLISECONDS);
+        bus.setMetrics(metrics);
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, new MetricsSubscribeHolder());
+        // 'subscribe.metrics' doesn't match, identified by observer class
+        handler.add(MetaHelper.registerSubscriber(bus, new PlainSubscribeHolder()));
+
+        bus.publish(new MessageOne(1, null));
+        bus.publishAll(Arrays.asList(new MessageOne(2, null), new MessageOne(1, null)));
+        bus.publish(new MessageTwo(1, null));
+
+        AggregatingEventBusMetrics.EventMetrics event = metrics.get(MessageOne.class);
+        assertThat(event.getPublishedCount(), is(3L));
+        assertThat(event.getDeliveredCount(), is(8L));
+        assertThat(event.getMaxFanOut(), is(3L));
+
+        AggregatingEventBusMetrics.SubscriberMetrics slow =
+                metrics.get(MetricsSubscribeHolder.class, "onMessageOneSlow", MessageOne.class);
+        assertThat(slow.getLatency().getCount(), is(3L));
+        assertThat(slow.getSlowCount(), is(3L));
+        assertThat(metrics.get(MetricsSubscribeHolder.class, "onMessageOneFast", MessageOne.class)
+                .getLatency().getCount(), is(2L));
+        assertThat(metrics.get(MetricsSubscribeHolder.class, "onMessageOneFast", MessageTwo.class)
+                .getLatency().getCount(), is(1L));
+        assertThat(metrics.getSlowSubscriberMetrics(), contains(slow));
+
+        assertThat(metrics.get(PlainSubscribeHolder.class, "onMessageOne", MessageOne.class), nullValue());
+        int unnamed = 0;
+        for (AggregatingEventBusMetrics.SubscriberMetrics subscriber : metrics.getAllSubscribers())
+            if (subscriber.getMethodName().equals("onEvent"))
+                unnamed++;
+        assertThat(unnamed, is(2));
+
+        AggregatingEventBusMetrics.Snapshot snapshot = metrics.snapshot();
+        assertThat(snapshot.getEvents().get(MessageOne.class).published, is(3L));
+        assertThat(snapshot.getSubscribers().get(MetricsSubscribeHolder.class.getName() +
+                "#onMessageOneSlow(" + MessageOne.class.getName() + ")").slow, is(3L));
+
+        ObjectName name = EventBusMetricsJmx.register(metrics, "test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertThat((Long) server.getAttribute(name, "PublishedCount"), is(4L));
+            assertThat(((String[]) server.getAttribute(name, "SlowSubscribers")).length, is(1));
+        } finally {
+            assertThat(EventBusMetricsJmx.unregister("test"), is(true));
+        }
+
+        // bound subscriber metrics are zeroed, not dropped
+        metrics.reset();
+        bus.publish(new MessageOne(2, null));
+        assertThat(slow.getLatency().getCount(), is(1L));
+
+        handler.unregisterAll();
+    }
+
+    public static class LaneSubscribeHolder {
+        final CountDownLatch latch = new CountDownLatch(4);
+        volatile Thread posting;
+        volatile Thread io;
+        volatile Thread pool;
+        volatile Thread virtual;
+
+        @Subscribe(thread = ThreadMode.POSTING)
+        void onPosting(MessageOne message) {
+            posting = Thread.currentThread();
+            latch.countDown();
+        }
+
+        @Subscribe(thread = ThreadMode.SINGLE, lane = "io")
+        void onIo(MessageOne message) {
+            io = Thread.currentThread();
+            latch.countDown();
+        }
+
+        @Subscribe(thread = ThreadMode.POOL)
+        void onPool(MessageOne message) {
+            pool = Thread.currentThread();
+            latch.countDown();
+        }
+
+        @Subscribe(thread = ThreadMode.VIRTUAL)
+        void onVirtual(MessageOne message) {
+            virtual = Thread.currentThread();
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void testLanes() throws InterruptedException {
+        logger.debug("testLanes()");
+
+        BaseEventBus bus = new BaseEventBus();
+        DeliveryLanes lanes = new DeliveryLanes();
+        bus.setDeliveryLanes(lanes);
+        LaneSubscribeHolder subscriber = new LaneSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        bus.publish(new MessageOne(1, null));
+        assertThat(subscriber.posting, sameInstance(Thread.currentThread()));
+        assertThat(subscriber.latch.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(subscriber.io, not(sameInstance(Thread.currentThread())));
+        assertThat(subscriber.pool, not(sameInstance(Thread.currentThread())));
+        assertThat(subscriber.virtual, not(sameInstance(Thread.currentThread())));
+        assertThat(subscriber.io, not(sameInstance(subscriber.pool)));
+
+        List<String> names = new ArrayList<String>();
+        for (LaneMetrics metrics : lanes.getMetrics()) {
+            names.add(metrics.getName());
+            assertThat(metrics.getQueueLatency().getCount(), greaterThanOrEqualTo(1L));
+        }
+        assertThat(names, hasItems("io", "pool"));
+
+        handler.unregisterAll();
+        lanes.shutdown();
+    }
+
+    public static class PooledEvent extends PooledMessage {
+    }
+
+    public static class PooledSubscribeHolder {
+        int invokes = 0;
+        boolean retain = false;
+        PooledEvent retained;
+
+        @Subscribe
+        void onPooledEvent(PooledEvent event) {
+            invokes++;
+            if (retain) {
+                event.retain();
+                retained = event;
+            }
+        }
+    }
+
+    @Test
+    public void testPooledMessages() {
+        logger.debug("testPooledMessages()");
+
+        BaseEventBus bus = new BaseEventBus();
+        MessagePool<PooledEvent> pool = new MessagePool<PooledEvent>(PooledEvent.class, 4);
+        PooledSubscribeHolder subscriber = new PooledSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        PooledEvent event = pool.claim();
+        event.setId(1);
+        bus.publish(event);
+        assertThat(event.refCount(), is(0));
+        assertThat(pool.getSize(), is(1));
+
+        PooledEvent reused = pool.claim();
+        assertThat(reused, sameInstance(event));
+        assertThat(reused.id(), is(0));
+        assertThat(reused.refCount(), is(1));
+
+        subscriber.retain = true;
+        bus.publish(reused);
+        assertThat(subscriber.retained, sameInstance(reused));
+        assertThat(pool.getSize(), is(0));
+        assertThat(reused.release(), is(true));
+        assertThat(pool.getSize(), is(1));
+        try {
+            reused.release();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        subscriber.retain = false;
+
+        try {
+            bus.publishSticky(pool.claim());
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        assertThat(pool.getCreatedCount(), is(1L));
+        assertThat(pool.getReusedCount(), is(2L));
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testPooledPublishAllocation() {
+        logger.debug("testPooledPublishAllocation()");
+
+        BaseEventBus bus = new BaseEventBus();
+        MessagePool<PooledEvent> pool = new MessagePool<PooledEvent>(PooledEvent.class, 4);
+        PooledSubscribeHolder subscriber = new PooledSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        for (int i = 0; i < 20000; i++)
+            publishPooled(bus, pool, i);
+
+        long before = allocatedBytes();
+        Assume.assumeTrue(before >= 0);
+        int publishes = 100000;
+        for (int i = 0; i < publishes; i++)
+            publishPooled(bus, pool, i);
+        long allocated = allocatedBytes() - before;
+
+        logger.debug("allocated %d bytes per %d publishes", allocated, publishes);
+        assertThat(allocated, lessThan((long) publishes));
+        assertThat(subscriber.invokes, is(120000));
+        assertThat(pool.getCreatedCount(), is(1L));
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testDispatcherPerEventClass() {
+        logger.debug("testDispatcherPerEventClass()");
+
+        Class<?> shared = new Subscribers<MessageOne>().getDispatcherClass();
+        Class<?> one = new Subscribers<MessageOne>(MessageOne.class).getDispatcherClass();
+        Class<?> two = new Subscribers<MessageTwo>(MessageTwo.class).getDispatcherClass();
+
+        assertThat(Subscribers.getDispatcherCopyFailure(), nullValue());
+        assertThat(one.getName(), is(shared.getName()));
+        assertThat(two.getName(), is(shared.getName()));
+        assertThat(one, not(sameInstance((Object) shared)));
+        assertThat(two, not(sameInstance((Object) shared)));
+        assertThat(one, not(sameInstance((Object) two)));
+        assertThat(new Subscribers<MessageOne>(MessageOne.class).getDispatcherClass(), sameInstance((Object) one));
+    }
+
+    @Test
+    public void testSubscriptionBuilderReuse() {
+        logger.debug("testSubscriptionBuilderReuse()");
+
+        Subscription.Builder builder = new Subscription.Builder().priority(1).ids(3, 1).topics("a");
+        Subscription first = builder.build();
+        builder.priority(2).ids(2).topics("b");
+        Subscription second = builder.build();
+
+        assertThat(first, not(sameInstance(second)));
+        assertThat(first.getPriority(), is(1));
+        assertThat(first.getIds(), equalTo(new int[]{1, 3}));
+        assertThat(first.getTopics(), equalTo(new String[]{"a"}));
+        assertThat(first.accepts(new MessageOne(3, "a")), is(true));
+        assertThat(first.accepts(new MessageOne(2, "b")), is(false));
+        assertThat(second.getPriority(), is(2));
+        assertThat(second.accepts(new MessageOne(2, "b")), is(true));
+    }
+
+    public static class DuplicateIdsSubscribeHolder {
+        final List<Integer> ids = new ArrayList<Integer>();
+
+        @Subscribe(id = {1, 1, 2})
+        void onMessageOne(MessageOne message) {
+            ids.add(message.id());
+        }
+    }
+
+    @Test
+    public void testDuplicateIds() {
+        logger.debug("testDuplicateIds()");
+
+        Subscription subscription = new Subscription.Builder().ids(2, 1, 2, 1, 1).build();
+        assertThat(subscription.getIds(), equalTo(new int[]{1, 2}));
+
+        BaseEventBus bus = new BaseEventBus();
+        DuplicateIdsSubscribeHolder holder = new DuplicateIdsSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, holder);
+        bus.publish(new MessageOne(1, null));
+        bus.publish(new MessageOne(2, null));
+        bus.publish(new MessageOne(3, null));
+        assertThat(holder.ids, contains(1, 2));
+        handler.unregisterAll();
+    }
+
+    /**
+     * Bus implemented against the plain interface
+     */
+    private static class PlainEventBus implements EventBus {
+        private final Map<Class<?>, Observers<Message>> observers = new HashMap<Class<?>, Observers<Message>>();
+
+        @SuppressWarnings("unchecked")
+        public <E extends Message> Observers.Handler<E> register(Class<E> eventClass, EventObserver<E> observer,
+                                                                 int priority) {
+            Observers<Message> result = observers.get(eventClass);
+            if (result == null) {
+                result = new Observers<Message>();
+                observers.put(eventClass, result);
+            }
+            return (Observers.Handler<E>) (Observers.Handler<?>) result.register((EventObserver<Message>) observer);
+        }
+
+        public <E extends Message> void publish(E event) {
+            Observers<Message> result = observers.get(event.getClass());
+            if (result != null)
+                result.notify(event);
+        }
+    }
+
+    @Test
+    public void testPlainEventBus() {
+        logger.debug("testPlainEventBus()");
+
+        PlainEventBus bus = new PlainEventBus();
+        DuplicateIdsSubscribeHolder holder = new DuplicateIdsSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, holder);
+        bus.publish(new MessageOne(1, null));
+        bus.publish(new MessageOne(3, null));
+        bus.publish(new MessageOne(2, null));
+        assertThat(holder.ids, contains(1, 2));
+
+        try {
+            new Subscription.Builder().sticky(true).build().register(bus, MessageOne.class,
+                    new EventObserver<MessageOne>() {
+                        public void onEvent(MessageOne event) {
+                        }
+                    });
+            fail("sticky subscription on a plain bus");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        handler.unregisterAll();
+        bus.publish(new MessageOne(1, null));
+        assertThat(holder.ids, hasSize(2));
+    }
+
+    private static void publishPooled(BaseEventBus bus, MessagePool<PooledEvent> pool, int id) {
+        PooledEvent event = pool.claim();
+        event.setId(id);
+        bus.publish(event);
+    }
+
+    /**
+     * @return -1 if the JVM doesn't measure allocations
+     */
+    private static long allocatedBytes() {
+        try {
+            Method method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            return (Long) method.invoke(ManagementFactory.getThreadMXBean(), Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.tests.eventbus;
+
+import org.brooth.jeta.BaseTest;
+import org.brooth.jeta.Logger;
+import org.brooth.jeta.MetaHelper;
+import org.brooth.jeta.eventbus.BaseEventBus;
+import org.brooth.jeta.eventbus.EventBusPublisher;
+import org.brooth.jeta.eventbus.EventBusSubscriber;
+import org.brooth.jeta.eventbus.EventFlow;
+import org.brooth.jeta.eventbus.OverflowPolicy;
+import org.brooth.jeta.eventbus.Subscribe;
+import org.brooth.jeta.eventbus.SubscriptionHandler;
+import org.brooth.jeta.log.Log;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class EventFlowTest extends BaseTest {
+
+    @Log
+    Logger logger;
+
+    private static class RecordingSubscriber implements EventFlow.Subscriber<MessageOne> {
+        final List<Integer> ids = new ArrayList<Integer>();
+        EventFlow.Subscription subscription;
+        Throwable error;
+        boolean completed;
+
+        public void onSubscribe(EventFlow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        public void onNext(MessageOne item) {
+            ids.add(item.id());
+        }
+
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        public void onComplete() {
+            completed = true;
+        }
+    }
+
+    public static class FlowSubscribeHolder {
+        final List<Integer> ids = new ArrayList<Integer>();
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            ids.add(message.id());
+        }
+    }
+
+    @Test
+    public void testDemand() {
+        logger.debug("testDemand()");
+
+        BaseEventBus bus = new BaseEventBus();
+        EventBusPublisher<MessageOne> publisher =
+                new EventBusPublisher<MessageOne>(bus, MessageOne.class, 4, OverflowPolicy.DROP_OLDEST);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        subscriber.subscription.request(2);
+        for (int i = 1; i <= 8; i++)
+            bus.publish(new MessageOne(i, null));
+        assertThat(subscriber.ids, contains(1, 2));
+        assertThat(publisher.getDroppedCount(), is(2L));
+
+        subscriber.subscription.request(10);
+        assertThat(subscriber.ids, contains(1, 2, 5, 6, 7, 8));
+
+        publisher.complete();
+        assertThat(subscriber.completed, is(true));
+        bus.publish(new MessageOne(9, null));
+        assertThat(subscriber.ids, hasSize(6));
+    }
+
+    @Test
+    public void testOverflow() {
+        logger.debug("testOverflow()");
+
+        BaseEventBus bus = new BaseEventBus();
+        EventBusPublisher<MessageOne> publisher =
+                new EventBusPublisher<MessageOne>(bus, MessageOne.class, 1, OverflowPolicy.FAIL);
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+
+        bus.publish(new MessageOne(1, null));
+        bus.publish(new MessageOne(2, null));
+        assertThat(subscriber.error, instanceOf(IllegalStateException.class));
+        assertThat(subscriber.ids, empty());
+
+        RecordingSubscriber invalid = new RecordingSubscriber();
+        publisher.subscribe(invalid);
+        invalid.subscription.request(0);
+        assertThat(invalid.error, instanceOf(IllegalArgumentException.class));
+    }
+
+    @Test(timeout = 5000)
+    public void testThrowingSubscriber() {
+        logger.debug("testThrowingSubscriber()");
+
+        BaseEventBus bus = new BaseEventBus();
+        EventBusPublisher<MessageOne> publisher =
+                new EventBusPublisher<MessageOne>(bus, MessageOne.class, 1, OverflowPolicy.BLOCK);
+        RecordingSubscriber subscriber = new RecordingSubscriber() {
+            @Override
+            public void onNext(MessageOne item) {
+                super.onNext(item);
+                if (item.id() == 2)
+                    throw new IllegalStateException("broken subscriber");
+            }
+        };
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        // blocks on the full buffer if the subscriber is left registered
+        for (int i = 1; i <= 5; i++)
+            bus.publish(new MessageOne(i, null));
+        assertThat(subscriber.ids, contains(1, 2));
+        assertThat(subscriber.error, instanceOf(IllegalStateException.class));
+        assertThat(subscriber.error.getMessage(), is("broken subscriber"));
+    }
+
+    @Test
+    public void testBusToBus() throws InterruptedException {
+        logger.debug("testBusToBus()");
+
+        BaseEventBus source = new BaseEventBus();
+        BaseEventBus target = new BaseEventBus();
+        FlowSubscribeHolder holder = new FlowSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(target, holder);
+
+        EventBusPublisher<MessageOne> publisher =
+                new EventBusPublisher<MessageOne>(source, MessageOne.class, 2, OverflowPolicy.BLOCK);
+        EventBusSubscriber<MessageOne> subscriber = new EventBusSubscriber<MessageOne>(target, 2);
+        publisher.subscribe(subscriber);
+
+        for (int i = 1; i <= 10; i++)
+            source.publish(new MessageOne(i, null));
+        publisher.complete();
+
+        assertThat(subscriber.await(5, TimeUnit.SECONDS), is(true));
+        assertThat(subscriber.getError(), nullValue());
+        assertThat(holder.ids, contains(1, 2, 3, 4, 5, 6, 7, 8, 9, 10));
+        handler.unregisterAll();
+    }
+}
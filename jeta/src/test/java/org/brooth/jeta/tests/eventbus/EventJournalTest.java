@@ -0,0 +1,193 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.tests.eventbus;
+
+import org.brooth.jeta.BaseTest;
+import org.brooth.jeta.Logger;
+import org.brooth.jeta.MetaHelper;
+import org.brooth.jeta.eventbus.BaseEventBus;
+import org.brooth.jeta.eventbus.EventJournal;
+import org.brooth.jeta.eventbus.MessageCodecRegistry;
+import org.brooth.jeta.eventbus.RingBufferEventBus;
+import org.brooth.jeta.eventbus.Subscribe;
+import org.brooth.jeta.eventbus.SubscriptionHandler;
+import org.brooth.jeta.log.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class EventJournalTest extends BaseTest {
+
+    @Log
+    Logger logger;
+
+    private File directory;
+    private MessageCodecRegistry codecs;
+
+    public static class JournalSubscribeHolder {
+        final List<Integer> ids = new ArrayList<Integer>();
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            ids.add(message.id());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("jeta-journal", "");
+        assertThat(directory.delete(), is(true));
+        codecs = new MessageCodecRegistry().register(MessageOne.class, new MappedEventBusTest.MessageOneCodec());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null)
+            for (File file : files)
+                file.delete();
+        directory.delete();
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        logger.debug("testReplay()");
+
+        BaseEventBus bus = new BaseEventBus();
+        EventJournal journal = new EventJournal(directory, codecs, 256, 0, 0);
+        SubscriptionHandler handler = journal.attach(bus, MessageOne.class);
+        for (int i = 0; i < 20; i++) {
+            bus.publish(new MessageOne(i, "t"));
+            bus.publish(new MessageTwo(i, "t"));
+        }
+        handler.unregisterAll();
+        assertThat(journal.getNextSequence(), is(20L));
+        assertThat(journal.getSegmentCount(), greaterThan(1));
+        journal.close();
+
+        journal = new EventJournal(directory, codecs, 256, 0, 0);
+        assertThat(journal.getNextSequence(), is(20L));
+
+        BaseEventBus replayBus = new BaseEventBus();
+        JournalSubscribeHolder subscriber = new JournalSubscribeHolder();
+        handler = MetaHelper.registerSubscriber(replayBus, subscriber);
+        handler.add(journal.attach(replayBus, MessageOne.class));
+
+        assertThat(journal.replay(replayBus, 0), is(20L));
+        assertThat(subscriber.ids, hasSize(20));
+        for (int i = 0; i < 20; i++)
+            assertThat(subscriber.ids.get(i), is(i));
+        // replayed events aren't journaled again
+        assertThat(journal.getNextSequence(), is(20L));
+
+        subscriber.ids.clear();
+        assertThat(journal.replay(replayBus, 15), is(5L));
+        assertThat(subscriber.ids, contains(15, 16, 17, 18, 19));
+        assertThat(journal.replaySince(replayBus, System.currentTimeMillis() + 60000), is(0L));
+        assertThat(journal.replaySince(replayBus, 0), is(20L));
+
+        replayBus.publish(new MessageOne(20, "t"));
+        assertThat(journal.getNextSequence(), is(21L));
+
+        handler.unregisterAll();
+        journal.close();
+    }
+
+    @Test
+    public void testReplayOnConsumerThread() throws Exception {
+        logger.debug("testReplayOnConsumerThread()");
+
+        // subscribers get the events on the consumer thread, not the replaying one
+        RingBufferEventBus bus = new RingBufferEventBus(8);
+        EventJournal journal = new EventJournal(directory, codecs, 4096, 0, 0);
+        SubscriptionHandler handler = journal.attach(bus, MessageOne.class);
+        for (int i = 0; i < 5; i++)
+            bus.publish(new MessageOne(i, "t"));
+        bus.flush();
+        assertThat(journal.getNextSequence(), is(5L));
+
+        assertThat(journal.replay(bus, 0), is(5L));
+        bus.flush();
+        assertThat(journal.getNextSequence(), is(5L));
+
+        bus.publish(new MessageOne(5, "t"));
+        bus.flush();
+        assertThat(journal.getNextSequence(), is(6L));
+
+        handler.unregisterAll();
+        journal.close();
+        bus.shutdown();
+    }
+
+    @Test
+    public void testCloseDetaches() throws Exception {
+        logger.debug("testCloseDetaches()");
+
+        BaseEventBus bus = new BaseEventBus();
+        EventJournal journal = new EventJournal(directory, codecs, 4096, 0, 0);
+        journal.attach(bus, MessageOne.class);
+        bus.publish(new MessageOne(0, "t"));
+        journal.close();
+
+        JournalSubscribeHolder subscriber = new JournalSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+        bus.publish(new MessageOne(1, "t"));
+        assertThat(subscriber.ids, contains(1));
+        assertThat(journal.getNextSequence(), is(1L));
+        try {
+            journal.attach(bus, MessageOne.class);
+            fail("attach() to a closed journal");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        logger.debug("testRetention()");
+
+        EventJournal journal = new EventJournal(directory, codecs, 256, 2, 0);
+        for (int i = 0; i < 40; i++)
+            assertThat(journal.append(new MessageOne(i, "t")), is((long) i));
+        assertThat(journal.append(new MessageTwo(0, null)), is(-1L));
+        assertThat(journal.getSegmentCount(), is(2));
+        assertThat(directory.listFiles().length, is(2));
+
+        BaseEventBus bus = new BaseEventBus();
+        JournalSubscribeHolder subscriber = new JournalSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+        long first = journal.getFirstSequence();
+        assertThat(first, greaterThan(0L));
+        assertThat(journal.replay(bus, 0), is(40 - first));
+        assertThat(subscriber.ids.get(0), is((int) first));
+
+        handler.unregisterAll();
+        journal.close();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.tests.eventbus;
+
+import org.brooth.jeta.BaseTest;
+import org.brooth.jeta.Logger;
+import org.brooth.jeta.MetaHelper;
+import org.brooth.jeta.eventbus.BaseEventBus;
+import org.brooth.jeta.eventbus.HashedTimingWheel;
+import org.brooth.jeta.eventbus.PooledMessage;
+import org.brooth.jeta.eventbus.Subscribe;
+import org.brooth.jeta.eventbus.SubscriptionHandler;
+import org.brooth.jeta.log.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class HashedTimingWheelTest extends BaseTest {
+
+    @Log
+    Logger logger;
+
+    private HashedTimingWheel timingWheel;
+    private BaseEventBus bus;
+
+    public static class DelayedSubscribeHolder {
+        final AtomicInteger count = new AtomicInteger();
+        volatile long receivedAt;
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            receivedAt = System.nanoTime();
+            count.incrementAndGet();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        timingWheel = new HashedTimingWheel(1, TimeUnit.MILLISECONDS, 64);
+        bus = new BaseEventBus();
+        bus.setTimingWheel(timingWheel);
+    }
+
+    @After
+    public void tearDown() {
+        timingWheel.stop();
+    }
+
+    @Test
+    public void testPublishDelayed() throws Exception {
+        logger.debug("testPublishDelayed()");
+
+        DelayedSubscribeHolder subscriber = new DelayedSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        long start = System.nanoTime();
+        HashedTimingWheel.Timeout timeout = bus.publishDelayed(new MessageOne(1, "delayed"), 100, TimeUnit.MILLISECONDS);
+        assertThat(timeout.isPeriodic(), is(false));
+        assertThat(subscriber.count.get(), is(0));
+
+        waitFor(subscriber.count, 1);
+        assertThat(subscriber.receivedAt - start, greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100)));
+        assertThat(timeout.isExpired(), is(true));
+        assertThat(timeout.cancel(), is(false));
+        assertThat(timingWheel.getFiredCount(), is(1L));
+        assertThat(timingWheel.getPendingCount(), is(0L));
+        assertThat(timingWheel.getLateness().getCount(), is(1L));
+
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        logger.debug("testCancel()");
+
+        final AtomicInteger fired = new AtomicInteger();
+        Runnable task = new Runnable() {
+            public void run() {
+                fired.incrementAndGet();
+            }
+        };
+
+        int count = 100000;
+        HashedTimingWheel.Timeout[] timeouts = new HashedTimingWheel.Timeout[count];
+        for (int i = 0; i < count; i++)
+            timeouts[i] = timingWheel.schedule(task, 500 + i % 500, TimeUnit.MILLISECONDS);
+        assertThat(timingWheel.getPendingCount(), is((long) count));
+
+        for (int i = 0; i < count; i++)
+            if (i % 100 != 0)
+                assertThat(timeouts[i].cancel(), is(true));
+        assertThat(timeouts[1].cancel(), is(false));
+        assertThat(timeouts[1].isCancelled(), is(true));
+        assertThat(timingWheel.getCancelledCount(), is((long) count - count / 100));
+
+        waitFor(fired, count / 100);
+        Thread.sleep(20);
+        assertThat(fired.get(), is(count / 100));
+        assertThat(timingWheel.getPendingCount(), is(0L));
+
+        DelayedSubscribeHolder subscriber = new DelayedSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+        PooledMessage message = new PooledMessage(1, null);
+        HashedTimingWheel.Timeout timeout = bus.publishDelayed(message, 20, TimeUnit.MILLISECONDS);
+        assertThat(timeout.cancel(), is(true));
+        assertThat(message.refCount(), is(0));
+
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testPublishPeriodically() throws Exception {
+        logger.debug("testPublishPeriodically()");
+
+        DelayedSubscribeHolder subscriber = new DelayedSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        HashedTimingWheel.Timeout timeout = bus.publishPeriodically(new MessageOne(2, "periodic"),
+                0, 5, TimeUnit.MILLISECONDS);
+        assertThat(timeout.isPeriodic(), is(true));
+        waitFor(subscriber.count, 5);
+        assertThat(timeout.isExpired(), is(false));
+        assertThat(timingWheel.getPendingCount(), is(1L));
+
+        assertThat(timeout.cancel(), is(true));
+        // a run could be in progress
+        Thread.sleep(10);
+        int published = subscriber.count.get();
+        Thread.sleep(30);
+        assertThat(subscriber.count.get(), is(published));
+        assertThat(timingWheel.getPendingCount(), is(0L));
+
+        handler.unregisterAll();
+    }
+
+    @Test
+    public void testStop() throws Exception {
+        logger.debug("testStop()");
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        HashedTimingWheel.Timeout timeout = timingWheel.schedule(new HashedTimingWheel.CancellableTask() {
+            public void run() {
+            }
+
+            public void onCancel() {
+                latch.countDown();
+            }
+        }, 1, TimeUnit.HOURS);
+
+        timingWheel.stop();
+        assertThat(timingWheel.isStopped(), is(true));
+        assertThat(latch.await(1, TimeUnit.SECONDS), is(true));
+        assertThat(timeout.isCancelled(), is(true));
+
+        try {
+            bus.publishDelayed(new MessageOne(3, null), 1, TimeUnit.MILLISECONDS);
+            fail("publishDelayed() on stopped wheel");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static void waitFor(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counter.get() < expected) {
+            if (System.currentTimeMillis() > deadline)
+                fail("timed out waiting for " + expected + ", got " + counter.get());
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.tests.eventbus;
+
+import org.brooth.jeta.BaseTest;
+import org.brooth.jeta.Logger;
+import org.brooth.jeta.MetaHelper;
+import org.brooth.jeta.eventbus.MappedEventBus;
+import org.brooth.jeta.eventbus.MessageCodec;
+import org.brooth.jeta.eventbus.MessageCodecRegistry;
+import org.brooth.jeta.eventbus.MessageCodecs;
+import org.brooth.jeta.eventbus.RingBufferEventBus;
+import org.brooth.jeta.eventbus.Subscribe;
+import org.brooth.jeta.log.Log;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Both buses are in the same process, they share the file as two processes would.
+ *
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class MappedEventBusTest extends BaseTest {
+
+    @Log
+    Logger logger;
+
+    private File file;
+    private MessageCodecRegistry codecs;
+
+    public static class MessageOneCodec implements MessageCodec<MessageOne> {
+        @Override
+        public void encode(MessageOne message, ByteBuffer buffer) {
+            buffer.putInt(message.id());
+            MessageCodecs.putString(buffer, message.topic());
+        }
+
+        @Override
+        public MessageOne decode(ByteBuffer buffer) {
+            return new MessageOne(buffer.getInt(), MessageCodecs.getString(buffer));
+        }
+    }
+
+    public static class MappedSubscribeHolder {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            events.add(message.id() + ":" + message.topic());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("jeta-mapped", ".bus");
+        assertThat(file.delete(), is(true));
+        codecs = new MessageCodecRegistry().register(MessageOne.class, new MessageOneCodec());
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testPublish() throws Exception {
+        logger.debug("testPublish()");
+
+        MappedEventBus producer = new MappedEventBus(file, 16, 64, codecs,
+                RingBufferEventBus.WaitStrategy.YIELD, Executors.defaultThreadFactory());
+        MappedEventBus consumer = new MappedEventBus(file, 16, 64, codecs,
+                RingBufferEventBus.WaitStrategy.PARK, Executors.defaultThreadFactory());
+        try {
+            MappedSubscribeHolder producerSubscriber = new MappedSubscribeHolder();
+            MappedSubscribeHolder consumerSubscriber = new MappedSubscribeHolder();
+            MetaHelper.registerSubscriber(producer, producerSubscriber);
+            MetaHelper.registerSubscriber(consumer, consumerSubscriber);
+
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < 100; i++) {
+                String topic = i % 2 == 0 ? "even" : null;
+                producer.publish(new MessageOne(i, topic));
+                expected.add(i + ":" + topic);
+                // don't lap the consumers
+                while (producer.getBacklog() > 8 || consumer.getBacklog() > 8)
+                    Thread.yield();
+            }
+
+            awaitSize(producerSubscriber.events, 100);
+            awaitSize(consumerSubscriber.events, 100);
+            assertThat(producerSubscriber.events, contains(expected.toArray()));
+            assertThat(consumerSubscriber.events, contains(expected.toArray()));
+            assertThat(consumer.getLostCount(), is(0L));
+            assertThat(consumer.getSkippedCount(), is(0L));
+
+            try {
+                consumer.publish(new MessageOne(0, null));
+                fail("second producer");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+
+            StringBuilder topic = new StringBuilder();
+            for (int i = 0; i < 64; i++)
+                topic.append('a');
+            try {
+                producer.publish(new MessageOne(0, topic.toString()));
+                fail("oversized event");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+            try {
+                producer.publish(new MessageTwo(0, null));
+                fail("no codec");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+
+        } finally {
+            producer.close();
+            consumer.close();
+        }
+    }
+
+    @Test
+    public void testGeometryMismatch() throws Exception {
+        logger.debug("testGeometryMismatch()");
+
+        MappedEventBus bus = new MappedEventBus(file, 16, 64, codecs,
+                RingBufferEventBus.WaitStrategy.PARK, Executors.defaultThreadFactory());
+        try {
+            new MappedEventBus(file, 32, 64, codecs,
+                    RingBufferEventBus.WaitStrategy.PARK, Executors.defaultThreadFactory());
+            fail("geometry mismatch");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            bus.close();
+        }
+    }
+
+    private void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (list.size() < size && System.currentTimeMillis() < deadline)
+            Thread.sleep(5);
+    }
+}
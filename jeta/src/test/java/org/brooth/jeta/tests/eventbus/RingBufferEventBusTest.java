@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016 Oleg Khalidov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.brooth.jeta.tests.eventbus;
+
+import org.brooth.jeta.BaseTest;
+import org.brooth.jeta.Logger;
+import org.brooth.jeta.MetaHelper;
+import org.brooth.jeta.eventbus.Message;
+import org.brooth.jeta.eventbus.RingBufferEventBus;
+import org.brooth.jeta.eventbus.Subscribe;
+import org.brooth.jeta.eventbus.SubscriptionHandler;
+import org.brooth.jeta.log.Log;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Oleg Khalidov (brooth@gmail.com)
+ */
+public class RingBufferEventBusTest extends BaseTest {
+
+    @Log
+    Logger logger;
+
+    public static class CountSubscribeHolder {
+        // accessed by consumer thread only
+        final List<Integer> ids = new ArrayList<Integer>();
+        int onMessageTwoInvokes = 0;
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            ids.add(message.id());
+        }
+
+        @Subscribe
+        void onMessageTwo(MessageTwo message) {
+            onMessageTwoInvokes++;
+        }
+    }
+
+    @Test
+    public void testConcurrentPublish() throws Exception {
+        logger.debug("testConcurrentPublish()");
+
+        for (RingBufferEventBus.WaitStrategy waitStrategy : RingBufferEventBus.WaitStrategy.values()) {
+            final RingBufferEventBus bus = new RingBufferEventBus(8, waitStrategy, false);
+            CountSubscribeHolder subscriber = new CountSubscribeHolder();
+            SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    public void run() {
+                        for (int j = 0; j < 1000; j++) {
+                            bus.publish(new MessageOne(j, null));
+                            bus.publish(new MessageTwo(j, null));
+                        }
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+
+            bus.flush();
+            assertThat(bus.getBacklog(), is(0L));
+            assertThat(subscriber.ids.size(), is(4000));
+            assertThat(subscriber.onMessageTwoInvokes, is(4000));
+
+            handler.unregisterAll();
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void testOrderAndPriority() throws Exception {
+        logger.debug("testOrderAndPriority()");
+
+        RingBufferEventBus bus = new RingBufferEventBus(16);
+        EventBusTest.LowPrioritySubscribeHolder low = new EventBusTest.LowPrioritySubscribeHolder();
+        EventBusTest.HighPrioritySubscribeHolder high = new EventBusTest.HighPrioritySubscribeHolder();
+        CountSubscribeHolder order = new CountSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, low);
+        handler.add(MetaHelper.registerSubscriber(bus, high));
+        handler.add(MetaHelper.registerSubscriber(bus, order));
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            // high priority increments id before the others
+            bus.publish(new MessageOne(1, null));
+            expected.add(2);
+        }
+        bus.flush();
+
+        assertThat(high.onMessageOneInvokes, is(100));
+        assertThat(low.onMessageOneInvokes, is(100));
+        assertThat(order.ids, equalTo(expected));
+
+        handler.unregisterAll();
+        bus.shutdown();
+    }
+
+    public static class RepublishSubscribeHolder {
+        RingBufferEventBus bus;
+        volatile int onMessageTwoInvokes = 0;
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            for (int i = 0; i < 10; i++)
+                bus.publish(new MessageTwo(i, null));
+        }
+
+        @Subscribe
+        void onMessageTwo(MessageTwo message) {
+            onMessageTwoInvokes++;
+        }
+    }
+
+    @Test
+    public void testPublishFromSubscriber() throws Exception {
+        logger.debug("testPublishFromSubscriber()");
+
+        RingBufferEventBus bus = new RingBufferEventBus(4);
+        RepublishSubscribeHolder subscriber = new RepublishSubscribeHolder();
+        subscriber.bus = bus;
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        for (int i = 0; i < 10; i++)
+            bus.publish(new MessageOne(i, null));
+        bus.flush();
+        // flush covers events published before it only
+        long deadline = System.currentTimeMillis() + 5000;
+        while (subscriber.onMessageTwoInvokes < 100 && System.currentTimeMillis() < deadline)
+            sleepQuietly(10);
+        assertThat(subscriber.onMessageTwoInvokes, is(100));
+
+        handler.unregisterAll();
+        bus.shutdown();
+    }
+
+    public static class OrderedRepublishSubscribeHolder {
+        RingBufferEventBus bus;
+        final List<Integer> ids = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Subscribe
+        void onMessageOne(MessageOne message) {
+            for (int i = 0; i < 10; i++)
+                bus.publish(new MessageTwo(message.id() * 10 + i, null));
+        }
+
+        @Subscribe
+        void onMessageTwo(MessageTwo message) {
+            ids.add(message.id());
+        }
+    }
+
+    @Test
+    public void testPublishFromSubscriberOrder() throws Exception {
+        logger.debug("testPublishFromSubscriberOrder()");
+
+        RingBufferEventBus bus = new RingBufferEventBus(2);
+        OrderedRepublishSubscribeHolder subscriber = new OrderedRepublishSubscribeHolder();
+        subscriber.bus = bus;
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 3; i++) {
+            bus.publish(new MessageOne(i, null));
+            for (int j = 0; j < 10; j++)
+                expected.add(i * 10 + j);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (subscriber.ids.size() < 30 && System.currentTimeMillis() < deadline)
+            sleepQuietly(10);
+        assertThat(subscriber.ids, equalTo(expected));
+
+        handler.unregisterAll();
+        bus.shutdown();
+    }
+
+    @Test
+    public void testDeadConsumer() throws Exception {
+        logger.debug("testDeadConsumer()");
+
+        RingBufferEventBus bus = new RingBufferEventBus(2, RingBufferEventBus.WaitStrategy.BUSY_SPIN, false,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        // never consumes
+                        return new Thread();
+                    }
+                });
+
+        bus.publish(new MessageOne(1, null));
+        bus.publish(new MessageOne(2, null));
+        try {
+            bus.publish(new MessageOne(3, null));
+            fail("publish() into a full ring with a dead consumer");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("dead"));
+        }
+    }
+
+    @Test
+    public void testPublishAll() throws Exception {
+        logger.debug("testPublishAll()");
+
+        RingBufferEventBus bus = new RingBufferEventBus(8);
+        EventBusTest.BatchSubscribeHolder subscriber = new EventBusTest.BatchSubscribeHolder();
+        SubscriptionHandler handler = MetaHelper.registerSubscriber(bus, subscriber);
+
+        List<Message> events = new ArrayList<Message>();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            events.add(new MessageOne(i, null));
+            expected.add(i);
+        }
+        events.add(new MessageTwo(100, null));
+        bus.publishAll(events);
+        bus.flush();
+
+        assertThat(subscriber.ids, equalTo(expected));
+        assertThat(subscriber.onMessageTwoInvokes, is(1));
+
+        handler.unregisterAll();
+        bus.shutdown();
+    }
+}
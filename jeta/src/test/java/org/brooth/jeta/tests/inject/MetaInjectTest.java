@@ -18,9 +18,14 @@
 package org.brooth.jeta.tests.inject;
 
 import org.brooth.jeta.*;
+import org.brooth.jeta.inject.AggregatingProducerMetrics;
+import org.brooth.jeta.inject.AsyncInjector;
 import org.brooth.jeta.inject.Inject;
 import org.brooth.jeta.inject.MetaScope;
+import org.brooth.jeta.inject.MetaScopePool;
 import org.brooth.jeta.inject.Producer;
+import org.brooth.jeta.inject.ProducerMetrics;
+import org.brooth.jeta.inject.ProducerMetricsHolder;
 import org.brooth.jeta.log.Log;
 import org.brooth.jeta.metasitory.ClassForNameMetasitory;
 import org.brooth.jeta.metasitory.Criteria;
@@ -28,6 +33,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -192,6 +200,191 @@ public class MetaInjectTest extends BaseTest {
         assertTrue(holder.entity != holder2.entity);
     }
 
+    @Test
+    public void testProducerMetrics() {
+        logger.debug("testProducerMetrics()");
+
+        AggregatingProducerMetrics metrics = new AggregatingProducerMetrics();
+        ProducerMetrics prev = ProducerMetricsHolder.get();
+        ProducerMetricsHolder.set(metrics);
+        try {
+            EntityHolder holder = new EntityHolder();
+            MetaHelper.injectMeta(holder);
+            MetaHelper.injectMeta(holder);
+            AggregatingProducerMetrics.EntityMetrics entityMetrics = metrics.get(EntityOne.class, DefaultScope.class);
+            assertThat(entityMetrics, notNullValue());
+            assertThat(entityMetrics.getCreatedCount(), is(2L));
+            assertThat(entityMetrics.getCachedCount(), is(0L));
+            assertThat(entityMetrics.getLatency().getCount(), is(2L));
+
+            MetaScope<CustomScope> customMetaScope = MetaHelper.getMetaScope(new CustomScope());
+            SingletonHolder singletonHolder = new SingletonHolder();
+            MetaHelper.injectMeta(customMetaScope, singletonHolder);
+            MetaHelper.injectMeta(customMetaScope, singletonHolder);
+            MetaHelper.injectMeta(customMetaScope, singletonHolder);
+            entityMetrics = metrics.get(SingletonEntity.class, CustomScope.class);
+            assertThat(entityMetrics, notNullValue());
+            assertEquals(entityMetrics.getScopeClass(), CustomScope.class);
+            assertThat(entityMetrics.getCreatedCount(), is(1L));
+            assertThat(entityMetrics.getCachedCount(), is(2L));
+
+            // same entity in another scope is counted apart
+            MetaHelper.injectMeta(MetaHelper.getMetaScope(new DefaultScope()), new SingletonHolder());
+            entityMetrics = metrics.get(SingletonEntity.class, DefaultScope.class);
+            assertThat(entityMetrics, notNullValue());
+            assertThat(entityMetrics.getCachedCount() + entityMetrics.getCreatedCount(), is(1L));
+            assertThat(metrics.get(SingletonEntity.class), hasSize(2));
+            assertThat(metrics.get(SingletonEntity.class, CustomScope.class).getCachedCount(), is(2L));
+
+            // 'inject.metrics' instruments these two entities only, the others are generated without metrics
+            for (AggregatingProducerMetrics.EntityMetrics m : metrics.getAll())
+                assertThat(m.getEntityClass(), anyOf(equalTo((Object) EntityOne.class),
+                        equalTo((Object) SingletonEntity.class)));
+
+        } finally {
+            ProducerMetricsHolder.set(prev);
+        }
+    }
+
+    public static class AsyncEntityHolder {
+        @Inject
+        Async<EntityOne> entity;
+    }
+
+    @Test
+    public void testAsyncInject() throws Exception {
+        logger.debug("testAsyncInject()");
+
+        AsyncEntityHolder holder = new AsyncEntityHolder();
+        MetaHelper.injectMeta(holder);
+        assertThat(holder.entity, notNullValue());
+        assertThat(holder.entity.join().value, is("one"));
+        assertTrue(holder.entity.isDone());
+        assertTrue(holder.entity.join() == holder.entity.get());
+
+        final AtomicInteger executed = new AtomicInteger();
+        AsyncInjector.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        });
+        try {
+            MetaHelper.injectMeta(holder);
+            assertThat(executed.get(), is(1));
+            assertTrue(holder.entity.isDone());
+            assertThat(holder.entity.join().value, is("one"));
+
+        } finally {
+            AsyncInjector.setExecutor(null);
+        }
+    }
+
+    public static class CompletableEntityHolder {
+        @Inject
+        CompletableFuture<EntityOne> entity;
+    }
+
+    @Test
+    public void testCompletableFutureInject() throws Exception {
+        logger.debug("testCompletableFutureInject()");
+
+        CompletableEntityHolder holder = new CompletableEntityHolder();
+        MetaHelper.injectMeta(holder);
+        assertThat(holder.entity, notNullValue());
+        assertThat(holder.entity.get().value, is("one"));
+        assertTrue(holder.entity.isDone());
+        assertTrue(holder.entity.join() == holder.entity.get());
+
+        CompletableFuture<EntityOne> first = holder.entity;
+        final AtomicInteger executed = new AtomicInteger();
+        AsyncInjector.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executed.incrementAndGet();
+                command.run();
+            }
+        });
+        try {
+            MetaHelper.injectMeta(holder);
+            assertThat(executed.get(), is(1));
+            assertTrue(holder.entity.isDone());
+            assertFalse(holder.entity == first);
+            assertFalse(holder.entity.join() == first.join());
+            assertThat(holder.entity.join().value, is("one"));
+
+        } finally {
+            AsyncInjector.setExecutor(null);
+        }
+    }
+
+    @Test
+    public void testMetaScopePool() {
+        logger.debug("testMetaScopePool()");
+
+        MetaScopePool<CustomScope> pool = MetaHelper.createMetaScopePool(CustomScope.class, 1);
+        MetaScope<CustomScope> metaScope = pool.acquire(new CustomScope());
+        SingletonHolder holder = new SingletonHolder();
+        MetaHelper.injectMeta(metaScope, holder);
+        SingletonEntity entityOne = holder.entity;
+        assertThat(entityOne.value, is("provider"));
+        MetaHelper.injectMeta(metaScope, holder);
+        assertTrue(entityOne == holder.entity);
+
+        assertTrue(pool.release(metaScope));
+        assertThat(pool.size(), is(1));
+        assertThat(metaScope.getScope(), nullValue());
+        try {
+            pool.release(metaScope);
+            fail("released twice");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertThat(pool.size(), is(1));
+
+        CustomScope scope = new CustomScope();
+        MetaScope<CustomScope> recycled = pool.acquire(scope);
+        assertTrue(recycled == metaScope);
+        assertTrue(recycled.getScope() == scope);
+        assertThat(pool.size(), is(0));
+        MetaHelper.injectMeta(recycled, holder);
+        assertTrue(entityOne != holder.entity);
+        assertThat(holder.entity.value, is("provider"));
+
+        MetaScope<CustomScope> other = pool.acquire(new CustomScope());
+        assertTrue(other != recycled);
+        assertTrue(pool.release(other));
+        assertFalse(pool.release(recycled));
+    }
+
+    public static class SingletonProviderHolder {
+        @Inject
+        Provider<SingletonEntity> provider;
+    }
+
+    @Test
+    public void testMetaScopePoolLease() {
+        logger.debug("testMetaScopePoolLease()");
+
+        MetaScopePool<CustomScope> pool = MetaHelper.createMetaScopePool(CustomScope.class, 1);
+        MetaScope<CustomScope> metaScope = pool.acquire(new CustomScope());
+        SingletonProviderHolder holder = new SingletonProviderHolder();
+        MetaHelper.injectMeta(metaScope, holder);
+        SingletonEntity entity = holder.provider.get();
+        assertTrue(entity == holder.provider.get());
+        assertTrue(pool.release(metaScope));
+
+        // the provider outlives the release and resolves the entities of the next lease
+        MetaScope<CustomScope> next = pool.acquire(new CustomScope());
+        assertTrue(next == metaScope);
+        SingletonHolder nextHolder = new SingletonHolder();
+        MetaHelper.injectMeta(next, nextHolder);
+        assertTrue(holder.provider.get() != entity);
+        assertTrue(holder.provider.get() == nextHolder.entity);
+        assertTrue(pool.release(next));
+    }
+
     public static class MetaAliasEntityHolder {
         @javax.inject.Inject
         EntityOne entity;
@@ -377,6 +570,31 @@ public class MetaInjectTest extends BaseTest {
         assertThat(holder.childFactory.getChild(null), notNullValue());
     }
 
+    @Test
+    public void testScopeMemoizedProviders() {
+        logger.debug("testScopeMemoizedProviders()");
+
+        EntityHolder holder1 = new EntityHolder();
+        EntityHolder holder2 = new EntityHolder();
+        MetaHelper.injectMeta(holder1);
+        MetaHelper.injectMeta(holder2);
+        assertTrue(holder1.provider == holder2.provider);
+        assertFalse(holder1.lazy == holder2.lazy);
+        assertFalse(holder1.provider.get() == holder2.provider.get());
+
+        MetaFactoryHolder factoryHolder1 = new MetaFactoryHolder();
+        MetaFactoryHolder factoryHolder2 = new MetaFactoryHolder();
+        MetaHelper.injectMeta(factoryHolder1);
+        MetaHelper.injectMeta(factoryHolder2);
+        assertTrue(factoryHolder1.factory == factoryHolder2.factory);
+        assertTrue(factoryHolder1.childFactory == factoryHolder2.childFactory);
+        assertThat(factoryHolder2.factory.get("five").value, is("five"));
+
+        MetaHelper.injectMeta(MetaHelper.getMetaScope(new DefaultScope()), holder2);
+        assertFalse(holder1.provider == holder2.provider);
+        assertThat(holder2.provider.get().value, is("one"));
+    }
+
     @Producer
     public static class MetaDefaultScopeEntity {
         String value = "scope";
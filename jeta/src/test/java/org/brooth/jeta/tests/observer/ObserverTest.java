@@ -20,12 +20,16 @@ import org.brooth.jeta.BaseTest;
 import org.brooth.jeta.Logger;
 import org.brooth.jeta.MetaHelper;
 import org.brooth.jeta.log.Log;
+import org.brooth.jeta.observer.EventObserver;
 import org.brooth.jeta.observer.Observe;
 import org.brooth.jeta.observer.ObserverHandler;
 import org.brooth.jeta.observer.Observers;
 import org.brooth.jeta.observer.Subject;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
@@ -278,4 +282,68 @@ public class ObserverTest extends BaseTest {
         assertThat(holder.handler.unregisterAll(), is(0));
     }
 
+    @Test
+    public void testChurn() {
+        logger.debug("testChurn()");
+
+        final int[] invokes = {0};
+        Observers<EventOne> observers = new Observers<EventOne>();
+        List<Observers.Handler<EventOne>> handlers = new ArrayList<Observers.Handler<EventOne>>();
+        for (int i = 0; i < 1000; i++) {
+            handlers.add(observers.register(new EventObserver<EventOne>() {
+                public void onEvent(EventOne event) {
+                    invokes[0]++;
+                }
+            }));
+        }
+
+        // every other one, then the rest but one
+        for (int i = 0; i < 1000; i += 2)
+            assertThat(handlers.get(i).unregister(), is(true));
+        assertThat(handlers.get(0).unregister(), is(false));
+        assertThat(observers.notify(new EventOne("half")), is(500));
+        for (int i = 1; i < 999; i += 2)
+            assertThat(handlers.get(i).unregister(), is(true));
+        assertThat(observers.getAll().size(), is(1));
+
+        invokes[0] = 0;
+        assertThat(observers.notify(new EventOne("one")), is(1));
+        assertThat(invokes[0], is(1));
+
+        observers.clear();
+        assertThat(handlers.get(999).unregister(), is(false));
+        assertThat(observers.notify(new EventOne("none")), is(0));
+    }
+
+    static class CountingObserverHandler extends ObserverHandler {
+        int size() {
+            return handlers.size();
+        }
+    }
+
+    @Test
+    public void testHandlerSubclass() {
+        logger.debug("testHandlerSubclass()");
+
+        Observers<EventOne> observers = new Observers<EventOne>();
+        CountingObserverHandler handler = new CountingObserverHandler();
+        handler.add(ObservableHolder.class, EventOne.class, observers.register(new EventObserver<EventOne>() {
+            public void onEvent(EventOne event) {
+            }
+        }));
+        handler.add(ObservableHolder.class, EventOne.class, observers.createHandler(new EventObserver<EventOne>() {
+            public void onEvent(EventOne event) {
+            }
+        }));
+        handler.add(ObservableHolder.class, EventTwo.class, observers.createHandler(new EventObserver<EventOne>() {
+            public void onEvent(EventOne event) {
+            }
+        }));
+        assertThat(handler.size(), is(3));
+        // created handler isn't registered
+        assertThat(handler.unregister(EventOne.class), is(1));
+        assertThat(handler.size(), is(1));
+        handler.unregisterAll();
+        assertThat(handler.size(), is(0));
+    }
 }